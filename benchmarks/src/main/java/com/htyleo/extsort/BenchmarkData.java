@@ -0,0 +1,175 @@
+package com.htyleo.extsort;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Data sets of the benchmarks, generated from a fixed seed so that every run sorts the same lines
+ *
+ * @author htyleo
+ */
+public class BenchmarkData {
+
+    /** seed of the generated lines */
+    private static final long    SEED     = 20160101L;
+
+    /** encoding of the generated lines */
+    private static final Charset UTF_8    = Charset.forName("UTF-8");
+
+    /** characters of the generated lines */
+    private static final char[]  ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                                             .toCharArray();
+
+    /**
+     * Distribution of the generated lines
+     */
+    public enum Distribution {
+        /** random lines of 8 to 24 characters */
+        RANDOM,
+
+        /** random lines in ascending order */
+        SORTED,
+
+        /** random lines in descending order */
+        REVERSE,
+
+        /** only 100 distinct lines */
+        DUPLICATES,
+
+        /** random lines of 1000 to 2000 characters */
+        LONG_LINES
+    }
+
+    /**
+     * Generate lines of about the given total size
+     *
+     * @param distribution distribution of the lines
+     * @param bytes total size of the lines in bytes, including line separators
+     * @return lines
+     */
+    public static List<String> lines(Distribution distribution, long bytes) {
+        Random rand = new Random(SEED);
+        List<String> keys = new ArrayList<String>();
+        if (distribution == Distribution.DUPLICATES) {
+            for (int i = 0; i < 100; i++) {
+                keys.add(randomLine(rand, 8, 24));
+            }
+        }
+
+        List<String> lines = new ArrayList<String>();
+        for (long size = 0; size < bytes;) {
+            String line;
+            switch (distribution) {
+                case DUPLICATES:
+                    line = keys.get(rand.nextInt(keys.size()));
+                    break;
+                case LONG_LINES:
+                    line = randomLine(rand, 1000, 2000);
+                    break;
+                default:
+                    line = randomLine(rand, 8, 24);
+                    break;
+            }
+            lines.add(line);
+            size += line.length() + 1;
+        }
+
+        if (distribution == Distribution.SORTED) {
+            Collections.sort(lines);
+        } else if (distribution == Distribution.REVERSE) {
+            Collections.sort(lines, Collections.reverseOrder());
+        }
+        return lines;
+    }
+
+    /**
+     * Encode lines, each followed by "\n"
+     *
+     * @param lines lines
+     * @return the encoded lines
+     */
+    public static byte[] toBytes(List<String> lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(UTF_8);
+            out.write(bytes, 0, bytes.length);
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write lines to a file, each followed by "\n"
+     *
+     * @param file the file
+     * @param lines lines
+     * @throws IOException If an I/O error occurs
+     */
+    public static void write(File file, List<String> lines) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        try {
+            for (String line : lines) {
+                out.write(line.getBytes(UTF_8));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Create an empty temporary directory
+     *
+     * @param prefix prefix of the directory name
+     * @return the directory
+     * @throws IOException If an I/O error occurs
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Failed to create temporary directory: " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Delete a file or a directory with all its contents
+     *
+     * @param file file or directory
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Generate a random line
+     *
+     * @param rand random
+     * @param minLength minimum length, inclusive
+     * @param maxLength maximum length, inclusive
+     * @return the line
+     */
+    private static String randomLine(Random rand, int minLength, int maxLength) {
+        char[] chars = new char[minLength + rand.nextInt(maxLength - minLength + 1)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = ALPHABET[rand.nextInt(ALPHABET.length)];
+        }
+        return new String(chars);
+    }
+
+}
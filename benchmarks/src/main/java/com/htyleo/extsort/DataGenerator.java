@@ -0,0 +1,361 @@
+package com.htyleo.extsort;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * A deterministic generator of large text files: the same settings and seed always generate the same bytes.
+ * Lines are streamed to the file, so files much larger than the heap can be generated.
+ *
+ * Every body line is a key of {@link #KEY_LENGTH} characters followed by a filler. Lines with the same key are identical,
+ * so the key cardinality also controls the duplicates. Keys are ordered by their numbers, so pre-sorted lines are
+ * generated by increasing key numbers.
+ *
+ * @author htyleo
+ */
+public class DataGenerator {
+
+    /** length of the key at the beginning of every body line */
+    public static final int KEY_LENGTH = 12;
+
+    /** characters of the generated lines, in ascending order */
+    private static final char[] ALPHABET   = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+                                               .toCharArray();
+
+    /** number of distinct key numbers, all of which are encoded in KEY_LENGTH characters since 62^12 > 2^63 */
+    private static final long   KEY_SPACE  = Long.MAX_VALUE;
+
+    /**
+     * Distribution of line lengths
+     */
+    public enum LengthDistribution {
+        /** all lines are minLineLength long */
+        FIXED,
+
+        /** uniformly distributed between minLineLength and maxLineLength */
+        UNIFORM,
+
+        /** exponentially distributed above minLineLength (mostly short lines, a few long ones), capped at maxLineLength */
+        EXPONENTIAL
+    }
+
+    /** seed */
+    private long               seed               = 0;
+
+    /** minimum line length, at least KEY_LENGTH */
+    private int                minLineLength      = 16;
+
+    /** maximum line length */
+    private int                maxLineLength      = 128;
+
+    /** distribution of line lengths */
+    private LengthDistribution lengthDistribution = LengthDistribution.UNIFORM;
+
+    /** number of distinct keys, 0 means every line gets a random key */
+    private long               keyCardinality     = 0;
+
+    /** Zipf exponent of the key frequencies, only used with a key cardinality. 0 means all keys are equally frequent */
+    private double             skew               = 0;
+
+    /** fraction (0 to 1) of lines whose keys are generated in ascending order, the others are random */
+    private double             sortedness         = 0;
+
+    /** fraction (0 to 1) of lines ending with "\r\n", the others end with "\n" */
+    private double             crlfRatio          = 0;
+
+    /** number of header lines */
+    private int                headerLines        = 0;
+
+    /** number of tail lines */
+    private int                tailLines          = 0;
+
+    /**
+     * Generate a file of about the given size, the last line is completed so the file may be slightly larger
+     *
+     * @param file the file
+     * @param bytes size of the file in bytes
+     * @return number of body lines
+     * @throws IOException If an I/O error occurs
+     */
+    public long generate(File file, long bytes) throws IOException {
+        if (minLineLength < KEY_LENGTH || maxLineLength < minLineLength) {
+            throw new IllegalArgumentException("Invalid line lengths: " + minLineLength + ", "
+                                               + maxLineLength);
+        }
+
+        Random rand = new Random(seed);
+        // large enough for the body lines and the header and tail lines, with "\r\n"
+        byte[] line = new byte[Math.max(maxLineLength, 32) + 2];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+        try {
+            long written = 0;
+            for (int i = 0; i < headerLines; i++) {
+                written += writeLine(out, line, "HEADER-" + i, rand);
+            }
+
+            // the sorted keys advance by a step, so that they are spread over the key space
+            long expectedLines = Math.max(1, bytes / averageLineLength());
+            long step = Math.max(1, KEY_SPACE / expectedLines);
+            long sortedKey = 0;
+            long lines = 0;
+            for (; written < bytes; lines++) {
+                long key;
+                if (rand.nextDouble() < sortedness) {
+                    sortedKey = Math.min(KEY_SPACE - 1, sortedKey + step);
+                    key = sortedKey;
+                } else {
+                    key = nextKey(rand);
+                }
+                written += writeBodyLine(out, line, key, rand);
+            }
+
+            for (int i = 0; i < tailLines; i++) {
+                writeLine(out, line, "TAIL-" + i, rand);
+            }
+            return lines;
+
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Generate a random key number
+     *
+     * @param rand random
+     * @return key number, less than KEY_SPACE
+     */
+    private long nextKey(Random rand) {
+        if (keyCardinality <= 0) {
+            return rand.nextLong() & KEY_SPACE;
+        }
+
+        // the rank of the key, 0 is the most frequent one
+        long rank;
+        double u = rand.nextDouble();
+        if (skew <= 0) {
+            rank = (long) (u * keyCardinality);
+        } else if (Math.abs(skew - 1) < 1e-9) {
+            rank = (long) Math.pow(keyCardinality, u) - 1;
+        } else {
+            // inversion of the continuous approximation of the Zipf distribution
+            double a = 1 - skew;
+            rank = (long) Math.pow((Math.pow(keyCardinality, a) - 1) * u + 1, 1 / a) - 1;
+        }
+        rank = Math.max(0, Math.min(keyCardinality - 1, rank));
+
+        // scramble the ranks over the key space, so that the frequent keys are not all small
+        return scramble(rank) % KEY_SPACE;
+    }
+
+    /**
+     * Write a body line, whose content is determined by the key
+     *
+     * @param out output stream
+     * @param line line buffer
+     * @param key key number
+     * @param rand random, only used for the line separator
+     * @return number of bytes written
+     * @throws IOException If an I/O error occurs
+     */
+    private int writeBodyLine(OutputStream out, byte[] line, long key, Random rand)
+                                                                                  throws IOException {
+        long k = key;
+        for (int i = KEY_LENGTH - 1; i >= 0; i--) {
+            line[i] = (byte) ALPHABET[(int) (k % ALPHABET.length)];
+            k /= ALPHABET.length;
+        }
+
+        // the length and filler are derived from the key only, so that lines with the same key are identical
+        Random keyRand = new Random(seed ^ scramble(key));
+        int length = lineLength(keyRand);
+        for (int i = KEY_LENGTH; i < length; i++) {
+            line[i] = (byte) ALPHABET[keyRand.nextInt(ALPHABET.length)];
+        }
+        return length + writeSeparator(out, line, length, rand);
+    }
+
+    /**
+     * Write a header or tail line
+     *
+     * @param out output stream
+     * @param line line buffer
+     * @param text text of the line
+     * @param rand random, only used for the line separator
+     * @return number of bytes written
+     * @throws IOException If an I/O error occurs
+     */
+    private int writeLine(OutputStream out, byte[] line, String text, Random rand)
+                                                                                  throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        System.arraycopy(bytes, 0, line, 0, bytes.length);
+        return bytes.length + writeSeparator(out, line, bytes.length, rand);
+    }
+
+    /**
+     * Append the line separator to the line and write it
+     *
+     * @param out output stream
+     * @param line line buffer
+     * @param length length of the line without separator
+     * @param rand random
+     * @return length of the separator
+     * @throws IOException If an I/O error occurs
+     */
+    private int writeSeparator(OutputStream out, byte[] line, int length, Random rand)
+                                                                                     throws IOException {
+        int separator = 1;
+        if (crlfRatio > 0 && rand.nextDouble() < crlfRatio) {
+            line[length] = '\r';
+            separator = 2;
+        }
+        line[length + separator - 1] = '\n';
+        out.write(line, 0, length + separator);
+        return separator;
+    }
+
+    /**
+     * Generate a line length
+     *
+     * @param rand random
+     * @return line length
+     */
+    private int lineLength(Random rand) {
+        switch (lengthDistribution) {
+            case FIXED:
+                return minLineLength;
+            case EXPONENTIAL:
+                double mean = Math.max(1, (maxLineLength - minLineLength) / 4.0);
+                long extra = (long) (-mean * Math.log(1 - rand.nextDouble()));
+                return (int) Math.min(maxLineLength, minLineLength + extra);
+            default:
+                return minLineLength + rand.nextInt(maxLineLength - minLineLength + 1);
+        }
+    }
+
+    /**
+     * Estimate the average line length including the separator
+     *
+     * @return average line length
+     */
+    private long averageLineLength() {
+        switch (lengthDistribution) {
+            case FIXED:
+                return minLineLength + 1;
+            case EXPONENTIAL:
+                return minLineLength + Math.max(1, (maxLineLength - minLineLength) / 4) + 1;
+            default:
+                return (minLineLength + maxLineLength) / 2 + 1;
+        }
+    }
+
+    /**
+     * Scramble a number by a bijective mix function (the finalizer of MurmurHash3)
+     *
+     * @param x number
+     * @return non-negative scrambled number
+     */
+    private static long scramble(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x & Long.MAX_VALUE;
+    }
+
+    /**
+     * Setter method for property <tt>seed</tt>.
+     *
+     * @param seed value to be assigned to property seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Setter method for property <tt>minLineLength</tt>.
+     *
+     * @param minLineLength value to be assigned to property minLineLength
+     */
+    public void setMinLineLength(int minLineLength) {
+        this.minLineLength = minLineLength;
+    }
+
+    /**
+     * Setter method for property <tt>maxLineLength</tt>.
+     *
+     * @param maxLineLength value to be assigned to property maxLineLength
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Setter method for property <tt>lengthDistribution</tt>.
+     *
+     * @param lengthDistribution value to be assigned to property lengthDistribution
+     */
+    public void setLengthDistribution(LengthDistribution lengthDistribution) {
+        this.lengthDistribution = lengthDistribution;
+    }
+
+    /**
+     * Setter method for property <tt>keyCardinality</tt>.
+     *
+     * @param keyCardinality value to be assigned to property keyCardinality
+     */
+    public void setKeyCardinality(long keyCardinality) {
+        this.keyCardinality = keyCardinality;
+    }
+
+    /**
+     * Setter method for property <tt>skew</tt>.
+     *
+     * @param skew value to be assigned to property skew
+     */
+    public void setSkew(double skew) {
+        this.skew = skew;
+    }
+
+    /**
+     * Setter method for property <tt>sortedness</tt>.
+     *
+     * @param sortedness value to be assigned to property sortedness
+     */
+    public void setSortedness(double sortedness) {
+        this.sortedness = sortedness;
+    }
+
+    /**
+     * Setter method for property <tt>crlfRatio</tt>.
+     *
+     * @param crlfRatio value to be assigned to property crlfRatio
+     */
+    public void setCrlfRatio(double crlfRatio) {
+        this.crlfRatio = crlfRatio;
+    }
+
+    /**
+     * Setter method for property <tt>headerLines</tt>.
+     *
+     * @param headerLines value to be assigned to property headerLines
+     */
+    public void setHeaderLines(int headerLines) {
+        this.headerLines = headerLines;
+    }
+
+    /**
+     * Setter method for property <tt>tailLines</tt>.
+     *
+     * @param tailLines value to be assigned to property tailLines
+     */
+    public void setTailLines(int tailLines) {
+        this.tailLines = tailLines;
+    }
+
+}
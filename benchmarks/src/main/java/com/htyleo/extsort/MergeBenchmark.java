@@ -0,0 +1,125 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.htyleo.extsort.BenchmarkData.Distribution;
+import com.htyleo.extsort.common.ByteLine;
+import com.htyleo.extsort.common.MergeEngine;
+
+/**
+ * Benchmark of merging 64 MB of sorted files by GroupSortedFileReader, at varying fan-in
+ *
+ * @author htyleo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+    /** total size of the sorted files */
+    private static final long  TOTAL_SIZE = 64L * 1024 * 1024;
+
+    /** number of sorted files */
+    @Param({ "2", "8", "32", "128" })
+    public int                 fanIn;
+
+    /** merge engine */
+    @Param({ "LOSER_TREE", "PRIORITY_QUEUE" })
+    public MergeEngine         engine;
+
+    /** whether lines are merged as bytes */
+    @Param({ "false", "true" })
+    public boolean             byteMode;
+
+    /** temporary directory */
+    private File               dir;
+
+    /** the sorted files */
+    private List<File>         runs;
+
+    /** sorting configuration */
+    private ExternalSortConfig config;
+
+    /**
+     * Generate the sorted files, the lines are dealt round-robin so that the merge interleaves all files
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkData.createTempDir("merge-benchmark");
+        List<String> lines = BenchmarkData.lines(Distribution.RANDOM, TOTAL_SIZE);
+        Collections.sort(lines);
+
+        runs = new ArrayList<File>(fanIn);
+        for (int i = 0; i < fanIn; i++) {
+            List<String> runLines = new ArrayList<String>(lines.size() / fanIn + 1);
+            for (int j = i; j < lines.size(); j += fanIn) {
+                runLines.add(lines.get(j));
+            }
+            File run = new File(dir, "run-" + i + ".txt");
+            BenchmarkData.write(run, runLines);
+            runs.add(run);
+        }
+
+        config = new ExternalSortConfig();
+        config.setMergeEngine(engine);
+        config.setByteMode(byteMode);
+    }
+
+    /**
+     * Delete the sorted files
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.delete(dir);
+    }
+
+    /**
+     * Merge the sorted files
+     *
+     * @return number of lines merged
+     * @throws IOException If an I/O error occurs
+     */
+    @Benchmark
+    public long merge() throws IOException {
+        GroupSortedFileReader groupReader = new GroupSortedFileReader(runs, config);
+        try {
+            long count = 0;
+            if (byteMode) {
+                for (ByteLine line; (line = groupReader.readLineBytes()) != null;) {
+                    count += line.getLength();
+                }
+            } else {
+                for (String line; (line = groupReader.readLine()) != null;) {
+                    count += line.length();
+                }
+            }
+            return count;
+        } finally {
+            groupReader.close();
+        }
+    }
+
+}
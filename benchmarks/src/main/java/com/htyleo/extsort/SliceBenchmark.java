@@ -0,0 +1,86 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.htyleo.extsort.BenchmarkData.Distribution;
+import com.htyleo.extsort.common.FileSlice;
+
+/**
+ * Benchmark of finding the slice boundaries (and the header and tail) of a 64 MB file
+ *
+ * @author htyleo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SliceBenchmark {
+
+    /** size of the file */
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+    /** slice size */
+    @Param({ "65536", "2097152", "33554432" })
+    public long               sliceSize;
+
+    /** number of header and tail lines */
+    @Param({ "0", "1000" })
+    public int                headerAndTailLines;
+
+    /** temporary directory */
+    private File              dir;
+
+    /** the file to be sliced */
+    private File              file;
+
+    /**
+     * Generate the file
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkData.createTempDir("slice-benchmark");
+        file = new File(dir, "source.txt");
+        BenchmarkData.write(file, BenchmarkData.lines(Distribution.RANDOM, FILE_SIZE));
+    }
+
+    /**
+     * Delete the file
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.delete(dir);
+    }
+
+    /**
+     * Slice the file
+     *
+     * @return slices
+     * @throws IOException If an I/O error occurs
+     */
+    @Benchmark
+    public List<FileSlice> slice() throws IOException {
+        return ExternalSort.slice(file, headerAndTailLines, true, headerAndTailLines, true,
+            sliceSize);
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.htyleo.extsort.BenchmarkData.Distribution;
+import com.htyleo.extsort.common.SliceType;
+
+/**
+ * Benchmark of sorting a slice in memory and writing it to file, i.e. the task of the partition phase
+ *
+ * @author htyleo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SliceSortBenchmark {
+
+    /** slice size */
+    @Param({ "65536", "2097152", "16777216" })
+    public int                sliceSize;
+
+    /** distribution of the lines */
+    @Param({ "RANDOM", "SORTED", "REVERSE", "DUPLICATES", "LONG_LINES" })
+    public Distribution       distribution;
+
+    /** whether lines are sorted as bytes */
+    @Param({ "false", "true" })
+    public boolean            byteMode;
+
+    /** temporary directory */
+    private File              dir;
+
+    /** the slice */
+    private byte[]            slice;
+
+    /** sorting configuration */
+    private ExternalSortConfig config;
+
+    /**
+     * Generate the slice
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkData.createTempDir("slice-sort-benchmark");
+        slice = BenchmarkData.toBytes(BenchmarkData.lines(distribution, sliceSize));
+        config = new ExternalSortConfig();
+        config.setByteMode(byteMode);
+    }
+
+    /**
+     * Delete the sorted slice
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.delete(dir);
+    }
+
+    /**
+     * Sort and write the slice
+     *
+     * @return the sorted slice
+     * @throws IOException If an I/O error occurs
+     */
+    @Benchmark
+    public File writeSlice() throws IOException {
+        File dstFile = new File(dir, "slice.txt");
+        ExternalSort.writeSlice(slice, slice.length, SliceType.BODY, dstFile, config);
+        return dstFile;
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.htyleo.extsort.BenchmarkData.Distribution;
+
+/**
+ * End-to-end benchmark of sorting a 128 MB file
+ *
+ * @author htyleo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SortBenchmark {
+
+    /** size of the file */
+    private static final long  FILE_SIZE = 128L * 1024 * 1024;
+
+    /** distribution of the lines */
+    @Param({ "RANDOM", "SORTED", "REVERSE", "DUPLICATES", "LONG_LINES" })
+    public Distribution        distribution;
+
+    /** whether lines are sorted as bytes */
+    @Param({ "false", "true" })
+    public boolean             byteMode;
+
+    /** temporary directory */
+    private File               dir;
+
+    /** the file to be sorted */
+    private File               sourceFile;
+
+    /** output directory */
+    private File               dstDir;
+
+    /** sorting configuration */
+    private ExternalSortConfig config;
+
+    /**
+     * Generate the file
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkData.createTempDir("sort-benchmark");
+        sourceFile = new File(dir, "source.txt");
+        BenchmarkData.write(sourceFile, BenchmarkData.lines(distribution, FILE_SIZE));
+        dstDir = new File(dir, "dst");
+
+        config = new ExternalSortConfig();
+        config.setByteMode(byteMode);
+    }
+
+    /**
+     * Delete the sorted files, so that every sort starts from an empty output directory
+     */
+    @TearDown(Level.Invocation)
+    public void clean() {
+        BenchmarkData.delete(dstDir);
+    }
+
+    /**
+     * Delete the file
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.delete(dir);
+    }
+
+    /**
+     * Sort the file
+     *
+     * @return the sorted file
+     * @throws Exception If an exception error occurs
+     */
+    @Benchmark
+    public File sort() throws Exception {
+        return ExternalSort.sort(sourceFile, dstDir, config);
+    }
+
+}
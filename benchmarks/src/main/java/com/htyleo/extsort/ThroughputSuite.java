@@ -0,0 +1,281 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.htyleo.extsort.DataGenerator.LengthDistribution;
+
+/**
+ * End-to-end throughput regression suite, which sorts generated files at several scales (1, 10 and 50 GB by default)
+ * and records the throughput, peak heap and peak temporary disk usage of every phase into a JSON report.
+ *
+ * Usage: java -cp target/benchmarks.jar com.htyleo.extsort.ThroughputSuite [--option=value ...]
+ * <ul>
+ *     <li>--scales: comma separated sizes of the input files in GB, default 1,10,50</li>
+ *     <li>--dir: working directory, which needs about three times the largest scale of free space, default the temporary directory</li>
+ *     <li>--report: the JSON report, default throughput-report.json</li>
+ *     <li>--seed, --min-line-length, --max-line-length, --length-distribution, --key-cardinality, --skew,
+ *     --sortedness, --crlf-ratio, --header-lines, --tail-lines: settings of the {@link DataGenerator}</li>
+ *     <li>--byte-mode, --slice-size, --memory-budget, --max-merge-fan-in, --merge-parallelism: settings of the sort</li>
+ * </ul>
+ *
+ * @author htyleo
+ */
+public class ThroughputSuite {
+
+    /** bytes per GB */
+    private static final long   GB              = 1024L * 1024 * 1024;
+
+    /** bytes per MB */
+    private static final double MB              = 1024.0 * 1024;
+
+    /** interval of sampling the temporary disk usage in milliseconds */
+    private static final long   SAMPLE_INTERVAL = 200;
+
+    /**
+     * Run the suite
+     *
+     * @param args options
+     * @throws Exception If an exception error occurs
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq),
+                eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+
+        File dir = new File(option(options, "dir", System.getProperty("java.io.tmpdir")),
+            "extsort-throughput");
+        File report = new File(option(options, "report", "throughput-report.json"));
+
+        List<String> results = new ArrayList<String>();
+        for (String scale : option(options, "scales", "1,10,50").split(",")) {
+            BenchmarkData.delete(dir);
+            dir.mkdirs();
+            try {
+                String result = run(Double.parseDouble(scale.trim()), dir, options);
+                System.out.println(result);
+                results.add(result);
+            } finally {
+                BenchmarkData.delete(dir);
+            }
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(report), "UTF-8");
+        try {
+            writer.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                writer.write("  " + results.get(i) + (i + 1 < results.size() ? ",\n" : "\n"));
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Report written to " + report.getAbsolutePath());
+    }
+
+    /**
+     * Generate and sort a file of one scale
+     *
+     * @param scale size of the file in GB
+     * @param dir working directory
+     * @param options options
+     * @return the result as a JSON object
+     * @throws Exception If an exception error occurs
+     */
+    private static String run(double scale, File dir, Map<String, String> options)
+                                                                                  throws Exception {
+        DataGenerator generator = new DataGenerator();
+        generator.setSeed(Long.parseLong(option(options, "seed", "0")));
+        generator.setMinLineLength(Integer.parseInt(option(options, "min-line-length", "16")));
+        generator.setMaxLineLength(Integer.parseInt(option(options, "max-line-length", "128")));
+        generator.setLengthDistribution(LengthDistribution.valueOf(option(options,
+            "length-distribution", "UNIFORM")));
+        generator.setKeyCardinality(Long.parseLong(option(options, "key-cardinality", "0")));
+        generator.setSkew(Double.parseDouble(option(options, "skew", "0")));
+        generator.setSortedness(Double.parseDouble(option(options, "sortedness", "0")));
+        generator.setCrlfRatio(Double.parseDouble(option(options, "crlf-ratio", "0")));
+        int headerLines = Integer.parseInt(option(options, "header-lines", "0"));
+        int tailLines = Integer.parseInt(option(options, "tail-lines", "0"));
+        generator.setHeaderLines(headerLines);
+        generator.setTailLines(tailLines);
+
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setHeaderLines(headerLines);
+        config.setTailLines(tailLines);
+        config.setByteMode(Boolean.parseBoolean(option(options, "byte-mode", "false")));
+        config.setSliceSize(Integer.parseInt(option(options, "slice-size",
+            String.valueOf(config.getSliceSize()))));
+        config.setMemoryBudget(Long.parseLong(option(options, "memory-budget", "0")));
+        config.setMaxMergeFanIn(Integer.parseInt(option(options, "max-merge-fan-in", "0")));
+        config.setMergeParallelism(Integer.parseInt(option(options, "merge-parallelism", "1")));
+
+        File sourceFile = new File(dir, "source.txt");
+        long begin = System.nanoTime();
+        long lines = generator.generate(sourceFile, (long) (scale * GB));
+        double generateSeconds = (System.nanoTime() - begin) / 1e9;
+        long inputBytes = sourceFile.length();
+
+        File dstDir = new File(dir, "dst");
+        File dstFile = new File(dstDir, sourceFile.getName());
+
+        PhaseMonitor partitionMonitor = new PhaseMonitor(dstDir);
+        PartitionResult partitionResult;
+        try {
+            partitionResult = ExternalSort.partition(sourceFile, dstDir, config);
+        } finally {
+            partitionMonitor.stop();
+        }
+
+        PhaseMonitor mergeMonitor = new PhaseMonitor(dstDir);
+        try {
+            ExternalSort.merge(dstFile, partitionResult, config);
+        } finally {
+            mergeMonitor.stop();
+        }
+
+        return String.format(Locale.ROOT, "{\"scaleGB\": %s, \"inputBytes\": %d, \"lines\": %d, "
+                                          + "\"bodyFiles\": %d, \"generateSeconds\": %.3f, "
+                                          + "\"phases\": {\"partition\": %s, \"merge\": %s}, "
+                                          + "\"total\": {\"seconds\": %.3f, \"mbPerSecond\": %.2f}}",
+            scale, inputBytes, lines, partitionResult.getBodies().size(), generateSeconds,
+            partitionMonitor.toJson(inputBytes), mergeMonitor.toJson(inputBytes),
+            partitionMonitor.seconds + mergeMonitor.seconds,
+            inputBytes / MB / (partitionMonitor.seconds + mergeMonitor.seconds));
+    }
+
+    /**
+     * Get an option
+     *
+     * @param options options
+     * @param name option name
+     * @param defaultValue default value
+     * @return the option value, or the default value if it is not given
+     */
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Get the total size of the files in a directory
+     *
+     * @param file file or directory
+     * @return size in bytes
+     */
+    private static long diskUsage(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += diskUsage(child);
+        }
+        return size;
+    }
+
+    /**
+     * Monitor of a phase: measures its time and peak heap (by the peak usage of the heap memory pools),
+     * and samples the disk usage of the output directory in the background
+     */
+    private static class PhaseMonitor implements Runnable {
+        /** output directory */
+        private final File    dstDir;
+
+        /** sampling thread */
+        private final Thread  thread;
+
+        /** beginning of the phase */
+        private final long    begin;
+
+        /** whether the phase has finished */
+        private volatile boolean stopped;
+
+        /** peak disk usage of the output directory */
+        private volatile long peakDiskUsage;
+
+        /** duration of the phase in seconds */
+        private double        seconds;
+
+        /** peak heap usage of the phase */
+        private long          peakHeap;
+
+        /**
+         * Start monitoring a phase
+         *
+         * @param dstDir output directory
+         */
+        PhaseMonitor(File dstDir) {
+            this.dstDir = dstDir;
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+            this.thread = new Thread(this, "throughput-monitor");
+            this.thread.setDaemon(true);
+            this.thread.start();
+            this.begin = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                peakDiskUsage = Math.max(peakDiskUsage, diskUsage(dstDir));
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stop monitoring at the end of the phase
+         *
+         * @throws InterruptedException If interrupted while waiting for the sampling thread
+         */
+        void stop() throws InterruptedException {
+            seconds = (System.nanoTime() - begin) / 1e9;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+            stopped = true;
+            thread.interrupt();
+            thread.join();
+            peakDiskUsage = Math.max(peakDiskUsage, diskUsage(dstDir));
+        }
+
+        /**
+         * Format the measurements as a JSON object
+         *
+         * @param inputBytes size of the input
+         * @return JSON object
+         */
+        String toJson(long inputBytes) {
+            return String.format(Locale.ROOT, "{\"seconds\": %.3f, \"mbPerSecond\": %.2f, "
+                                              + "\"peakHeapBytes\": %d, \"peakTempDiskBytes\": %d}",
+                seconds, inputBytes / MB / seconds, peakHeap, peakDiskUsage);
+        }
+    }
+
+}
@@ -1,27 +1,59 @@
 package com.htyleo.extsort;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.htyleo.extsort.common.BinaryRunWriter;
+import com.htyleo.extsort.common.ByteLine;
+import com.htyleo.extsort.common.ByteLineList;
+import com.htyleo.extsort.common.ByteLineReader;
+import com.htyleo.extsort.common.ByteOrderComparator;
+import com.htyleo.extsort.common.CombiningRunWriter;
 import com.htyleo.extsort.common.FileSlice;
+import com.htyleo.extsort.common.FileSliceInputStream;
+import com.htyleo.extsort.common.IndexingRunWriter;
+import com.htyleo.extsort.common.KeyPrefixer;
+import com.htyleo.extsort.common.LimitedRunWriter;
+import com.htyleo.extsort.common.LineCombiner;
 import com.htyleo.extsort.common.LineFilter;
+import com.htyleo.extsort.common.LineWriter;
+import com.htyleo.extsort.common.MemoryBudget;
+import com.htyleo.extsort.common.PrefixedLineList;
 import com.htyleo.extsort.common.RandomAccessFileInputStream;
+import com.htyleo.extsort.common.RunCodec;
+import com.htyleo.extsort.common.RunFormat;
+import com.htyleo.extsort.common.RunGeneration;
+import com.htyleo.extsort.common.RunWriter;
 import com.htyleo.extsort.common.SliceType;
+import com.htyleo.extsort.common.SortListener;
+import com.htyleo.extsort.common.SortedFileIndex;
+import com.htyleo.extsort.common.StringRadixSort;
+import com.htyleo.extsort.common.WriteBehindOutputStream;
 import com.htyleo.extsort.util.IOUtil;
+import com.htyleo.extsort.util.MappedLineScanner;
 
 /**
  * An implementation of external sorting.
@@ -34,7 +66,9 @@ import com.htyleo.extsort.util.IOUtil;
  * The basic idea of this implementation is that we logically partition the file into smaller slices, 
  * each of which is sorted in memory and then written to a separate file.
  * Because sorting slices in memory is performed concurrently (i.e. each slice is sorted in a separate thread),
- * the maximum memory used = max size of thread pool * (slice size + buffer size).
+ * the maximum memory used = max size of thread pool * (slice size + buffer size) * the overhead of decoded lines.
+ * Alternatively, a memory budget can be configured, from which the slice size is derived,
+ * and a slice is only loaded after its estimated memory has been reserved.
  *
  * This implementation has the following features:
  * <ul>
@@ -48,6 +82,31 @@ import com.htyleo.extsort.util.IOUtil;
  */
 public class ExternalSort {
 
+    /** minimum slice size derived from the memory budget, 4 KB */
+    private static final int                MIN_SLICE_SIZE          = 4 * 1024;
+
+    /** maximum slice size derived from the memory budget, which should fit in a byte array */
+    private static final int                MAX_SLICE_SIZE          = Integer.MAX_VALUE / 2;
+
+    /** number of bytes at the beginning of the file scanned to estimate the average line length, 1 MB */
+    private static final int                LINE_LENGTH_SAMPLE_SIZE = 1024 * 1024;
+
+    /** number of source files at the beginning of a dataset sampled to estimate the average line length */
+    private static final int                SAMPLE_SOURCE_FILES     = 8;
+
+    /** number of lines merged between two progress events of the sort listener */
+    private static final int                MERGE_PROGRESS_INTERVAL = 64 * 1024;
+
+    /** order of lines in bytes, the same as {@link ByteLine#compare(ByteLine, ByteLine)} */
+    private static final Comparator<byte[]> BYTE_ORDER              = new Comparator<byte[]>() {
+                                                                        @Override
+                                                                        public int compare(byte[] b1,
+                                                                                           byte[] b2) {
+                                                                            return ByteLine.compare(b1, 0, b1.length, b2,
+                                                                                0, b2.length);
+                                                                        }
+                                                                    };
+
     /**
      * Perform external sorting
      * 
@@ -59,13 +118,148 @@ public class ExternalSort {
      */
     public static File sort(File sourceFile, File dstDir, ExternalSortConfig config)
                                                                                     throws Exception {
+        long begin = System.nanoTime();
         PartitionResult partitionResult = partition(sourceFile, dstDir, config);
         File dstFile = new File(dstDir, sourceFile.getName());
         merge(dstFile, partitionResult, config);
 
+        config.getSortListener().onSortFinished(dstFile, System.nanoTime() - begin);
+        return dstFile;
+    }
+
+    /**
+     * Perform external sorting on several files as one dataset, producing one sorted output file
+     *
+     * @param sourceFiles input files, in order, e.g. {@link IOUtil#listFiles(File, String)}
+     * @param name name of the output file
+     * @param dstDir output directory
+     * @param config sorting configuration
+     * @return output file
+     * @throws Exception If an exception error occurs
+     */
+    public static File sort(List<File> sourceFiles, String name, File dstDir,
+                            ExternalSortConfig config) throws Exception {
+        long begin = System.nanoTime();
+        PartitionResult partitionResult = partition(sourceFiles, name, dstDir, config);
+        File dstFile = new File(dstDir, name);
+        merge(dstFile, partitionResult, config);
+
+        config.getSortListener().onSortFinished(dstFile, System.nanoTime() - begin);
+        return dstFile;
+    }
+
+    /**
+     * Perform external sorting on a stream, which is read sequentially instead of being stored in a file first
+     *
+     * @param in input stream, which is not closed by this operation
+     * @param name name of the output file
+     * @param dstDir output directory
+     * @param config sorting configuration
+     * @return output file
+     * @throws Exception If an exception error occurs
+     */
+    public static File sort(InputStream in, String name, File dstDir, ExternalSortConfig config)
+                                                                                                 throws Exception {
+        long begin = System.nanoTime();
+        PartitionResult partitionResult = partition(in, name, dstDir, config);
+        File dstFile = new File(dstDir, name);
+        merge(dstFile, partitionResult, config);
+
+        config.getSortListener().onSortFinished(dstFile, System.nanoTime() - begin);
         return dstFile;
     }
 
+    /**
+     * Perform external sorting on a channel, which is read sequentially instead of being stored in a file first
+     *
+     * @param channel input channel, which is not closed by this operation
+     * @param name name of the output file
+     * @param dstDir output directory
+     * @param config sorting configuration
+     * @return output file
+     * @throws Exception If an exception error occurs
+     */
+    public static File sort(ReadableByteChannel channel, String name, File dstDir,
+                            ExternalSortConfig config) throws Exception {
+        return sort(Channels.newInputStream(channel), name, dstDir, config);
+    }
+
+    /**
+     * Perform external sorting, but iterate the sorted lines lazily instead of writing them to an output file,
+     * which saves a full write and read of the data if the result is consumed once
+     *
+     * @param sourceFile input file
+     * @param dstDir directory of the sorted files, which are deleted when the iterator is closed
+     * @param config sorting configuration
+     * @return iterator over the sorted lines, which must be closed
+     * @throws Exception If an exception error occurs
+     */
+    public static SortedLineIterator sortedLines(File sourceFile, File dstDir,
+                                                 ExternalSortConfig config) throws Exception {
+        PartitionResult partitionResult = partition(sourceFile, dstDir, config);
+        return sortedLines(new File(dstDir, sourceFile.getName()), partitionResult, config);
+    }
+
+    /**
+     * Perform external sorting on a stream, but iterate the sorted lines lazily instead of writing them to an output file
+     *
+     * @param in input stream, which is not closed by this operation
+     * @param name name of the stream, used to name the sorted files
+     * @param dstDir directory of the sorted files, which are deleted when the iterator is closed
+     * @param config sorting configuration
+     * @return iterator over the sorted lines, which must be closed
+     * @throws Exception If an exception error occurs
+     */
+    public static SortedLineIterator sortedLines(InputStream in, String name, File dstDir,
+                                                 ExternalSortConfig config) throws Exception {
+        PartitionResult partitionResult = partition(in, name, dstDir, config);
+        return sortedLines(new File(dstDir, name), partitionResult, config);
+    }
+
+    /**
+     * External sorting phase Two, lazily: iterate the merged lines instead of writing them to an output file.
+     * Only the intermediate merge passes of a bounded fan-in are performed at once, the final pass is performed
+     * as the lines are read.
+     *
+     * @param dstFile output file as if the lines were merged into it, which is not written. Intermediate files are written to its directory
+     * @param result partition result, whose files are deleted when the iterator is closed
+     * @param config sorting configuration
+     * @return iterator over the sorted lines, which must be closed
+     * @throws IOException If an I/O error occurs
+     */
+    public static SortedLineIterator sortedLines(File dstFile, PartitionResult result,
+                                                 ExternalSortConfig config) throws IOException {
+        List<File> bodies;
+        try {
+            bodies = reduceRuns(dstFile, result.getBodies(), config);
+        } catch (IOException e) {
+            result.delete();
+            throw e;
+        }
+        return new SortedLineIterator(result, bodies, config);
+    }
+
+    /**
+     * External sorting phase One: Partition a stream
+     * The stream is read sequentially, and every slice is sorted by the executor as soon as it has been read.
+     * The tail is held in memory until the end of stream. Only encodings in which "\n" and "\r" are single bytes (e.g. UTF-8) are supported.
+     *
+     * @param in input stream, which is not closed by this operation
+     * @param name name of the stream, used to name the sorted files
+     * @param dstDir output directory
+     * @param config sorting configuration
+     * @return sorting result
+     * @throws Exception If an exception error occurs
+     */
+    public static PartitionResult partition(InputStream in, String name, File dstDir,
+                                            ExternalSortConfig config) throws Exception {
+        long begin = System.nanoTime();
+        PartitionResult result = new StreamPartitioner(name, dstDir, config).partition(in);
+        config.getSortListener().onPartitionFinished(name, result.getBodies().size(),
+            System.nanoTime() - begin);
+        return result;
+    }
+
     /**
      * External sorting phase One: Partition
      * The input is the source file and the output is a bunch of sorted files.
@@ -77,42 +271,260 @@ public class ExternalSort {
      * @return sorting result
      * @throws Exception If an exception error occurs
      */
-    public static PartitionResult partition(final File sourceFile, final File dstDir,
-                                            final ExternalSortConfig config) throws Exception {
-        List<FileSlice> slices = slice(sourceFile, config.getHeaderLines(),
-            config.getIgnoreHeaderBlankLines(), config.getTailLines(),
-            config.getIgnoreTailBlankLines(), config.getSliceSize());
+    public static PartitionResult partition(File sourceFile, File dstDir,
+                                            ExternalSortConfig config) throws Exception {
+        return partition(Collections.singletonList(sourceFile), sourceFile.getName(), dstDir,
+            config);
+    }
+
+    /**
+     * External sorting phase One: Partition several files as one dataset
+     * The slices of all the files are planned at once and sorted concurrently. Consecutive small slices
+     * (e.g. whole small files) are batched into one slice of at most sliceSize bytes, so that small files do not
+     * produce a large number of tiny sorted files. Every file has headerLines header lines and tailLines tail lines:
+     * the header of the first file and the tail of the last file are kept, those of the other files are dropped.
+     *
+     * @param sourceFiles input files, in order
+     * @param name name of the dataset, used to name the sorted files
+     * @param dstDir output directory
+     * @param config sorting configuration
+     * @return sorting result
+     * @throws Exception If an exception error occurs
+     */
+    public static PartitionResult partition(List<File> sourceFiles, final String name,
+                                            final File dstDir, final ExternalSortConfig config)
+                                                                                               throws Exception {
+        if (sourceFiles.isEmpty()) {
+            throw new IllegalArgumentException("No source files");
+        }
+
+        long begin = System.nanoTime();
+        long totalLength = 0;
+        for (File sourceFile : sourceFiles) {
+            totalLength += sourceFile.length();
+        }
+
+        int sliceSize = config.getSliceSize();
+        final MemoryBudget budget;
+        double averageLineLength = 0;
+        if (config.getMemoryBudget() > 0) {
+            budget = new MemoryBudget(config.getMemoryBudget());
+            averageLineLength = estimateAverageLineLength(sourceFiles.subList(0,
+                Math.min(SAMPLE_SOURCE_FILES, sourceFiles.size())));
+            sliceSize = planSliceSize(budget, averageLineLength, config);
+        } else {
+            budget = null;
+        }
 
-        ThreadPoolExecutor executor = config.getExecutor();
-        List<Future<File>> futures = new ArrayList<Future<File>>(slices.size());
-        for (final FileSlice slice : slices) {
-            futures.add(executor.submit(new Callable<File>() {
+        ExecutorService executor = config.getExecutor();
+        final int heapSize = sliceSize;
+        long partSize = sliceSize;
+        RunGeneration runGeneration = config.getRunGeneration();
+        final boolean replacementSelection = runGeneration == RunGeneration.REPLACEMENT_SELECTION;
+        if (replacementSelection) {
+            // one part of the body per thread, each of which flows through a heap of sliceSize bytes
+            int parallelism = config.getParallelism();
+            partSize = Math.max(sliceSize, (totalLength + parallelism - 1) / parallelism);
+        }
+
+        // plan the slices of all the files, and batch consecutive body slices of at most partSize bytes
+        FileSlice header = null;
+        FileSlice tail = null;
+        List<List<FileSlice>> batches = new ArrayList<List<FileSlice>>();
+        List<Long> positions = new ArrayList<Long>();
+        List<FileSlice> batch = null;
+        long batchSize = 0;
+        long offset = 0;
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            File sourceFile = sourceFiles.get(i);
+            for (FileSlice slice : slice(sourceFile, config.getHeaderLines(),
+                config.getIgnoreHeaderBlankLines(), config.getTailLines(),
+                config.getIgnoreTailBlankLines(), partSize)) {
+                if (slice.type == SliceType.HEADER) {
+                    header = i == 0 ? slice : header;
+                } else if (slice.type == SliceType.TAIL) {
+                    tail = i == sourceFiles.size() - 1 ? slice : tail;
+                } else {
+                    long size = slice.end - slice.begin;
+                    if (batch == null || batchSize + size > partSize) {
+                        batch = new ArrayList<FileSlice>();
+                        batches.add(batch);
+                        // position of the batch in the concatenation of the files, which names its sorted files
+                        positions.add(offset + slice.begin);
+                        batchSize = 0;
+                    }
+                    batch.add(slice);
+                    batchSize += size;
+                }
+            }
+            offset += sourceFile.length();
+        }
+        config.getSortListener().onSlicesPlanned(name, batches.size() + 2, partSize);
+
+        List<SliceType> types = new ArrayList<SliceType>(batches.size() + 2);
+        List<Future<List<File>>> futures = new ArrayList<Future<List<File>>>(batches.size() + 2);
+        for (final FileSlice slice : Arrays.asList(header, tail)) {
+            long memory = budget == null ? 0 : MemoryBudget.estimateSliceMemory(
+                Math.min(slice.end - slice.begin, heapSize), averageLineLength,
+                config.getByteMode(), config.getBufferSize());
+            types.add(slice.type);
+            futures.add(submit(executor, budget, memory, new Callable<List<File>>() {
                 @Override
-                public File call() throws Exception {
-                    return writeSlice(sourceFile, dstDir, config, slice);
+                public List<File> call() throws Exception {
+                    File dstFile = getSliceFile(name, dstDir, slice.type, slice.begin);
+                    writeSlice(dstFile, config, slice);
+                    return Collections.singletonList(dstFile);
+                }
+            }));
+        }
+        for (int i = 0; i < batches.size(); i++) {
+            final List<FileSlice> slices = batches.get(i);
+            final long position = positions.get(i);
+            long size = 0;
+            for (FileSlice slice : slices) {
+                size += slice.end - slice.begin;
+            }
+            long memory = budget == null ? 0 : MemoryBudget.estimateSliceMemory(
+                Math.min(size, heapSize), averageLineLength, config.getByteMode(),
+                config.getBufferSize());
+            types.add(SliceType.BODY);
+            futures.add(submit(executor, budget, memory, new Callable<List<File>>() {
+                @Override
+                public List<File> call() throws Exception {
+                    if (replacementSelection && !keepsTopLines(SliceType.BODY, config)) {
+                        return new ReplacementSelection(name, dstDir, config, heapSize)
+                            .generate(new FileSliceInputStream(slices), position);
+                    }
+                    File dstFile = getSliceFile(name, dstDir, SliceType.BODY, position);
+                    writeBatch(dstFile, config, slices);
+                    return Collections.singletonList(dstFile);
                 }
             }));
         }
 
-        File header = null;
-        List<File> bodies = new ArrayList<File>(slices.size());
-        File tail = null;
+        File headerFile = null;
+        List<File> bodies = new ArrayList<File>(batches.size());
+        File tailFile = null;
         for (int i = 0; i < futures.size(); i++) {
-            File result = futures.get(i).get();
-            switch (slices.get(i).type) {
+            List<File> result = futures.get(i).get();
+            switch (types.get(i)) {
                 case HEADER:
-                    header = result;
+                    headerFile = result.get(0);
                     break;
                 case BODY:
-                    bodies.add(result);
+                    bodies.addAll(result);
                     break;
                 case TAIL:
-                    tail = result;
+                    tailFile = result.get(0);
                     break;
             }
         }
 
-        return new PartitionResult(header, bodies, tail);
+        config.getSortListener().onPartitionFinished(name, bodies.size(),
+            System.nanoTime() - begin);
+        return new PartitionResult(headerFile, bodies, tailFile);
+    }
+
+    /**
+     * Submit a task which writes sorted files, after reserving its memory from the memory budget (admission control).
+     * The memory is released when the task finishes.
+     *
+     * @param executor executor
+     * @param budget memory budget, null if there is no budget
+     * @param memory estimated memory of the task
+     * @param task the task
+     * @return future of the task
+     * @throws InterruptedException If interrupted while waiting for the memory
+     */
+    private static Future<List<File>> submit(ExecutorService executor, final MemoryBudget budget,
+                                             long memory, final Callable<List<File>> task)
+                                                                                          throws InterruptedException {
+        final long reserved = budget == null ? 0 : budget.reserve(memory);
+        boolean submitted = false;
+        try {
+            Future<List<File>> future = executor.submit(new Callable<List<File>>() {
+                @Override
+                public List<File> call() throws Exception {
+                    try {
+                        return task.call();
+                    } finally {
+                        if (budget != null) {
+                            budget.release(reserved);
+                        }
+                    }
+                }
+            });
+            submitted = true;
+            return future;
+        } finally {
+            if (budget != null && !submitted) {
+                budget.release(reserved);
+            }
+        }
+    }
+
+    /**
+     * Derive the slice size from the memory budget, so that as many slices as the executor can run
+     * concurrently fit in the budget. If the budget is too small, fewer slices are sorted concurrently instead.
+     *
+     * @param budget memory budget
+     * @param averageLineLength average length of lines in bytes
+     * @param config sorting configuration
+     * @return slice size
+     */
+    static int planSliceSize(MemoryBudget budget, double averageLineLength,
+                             ExternalSortConfig config) {
+        boolean byteMode = config.getByteMode();
+        int bufferSize = config.getBufferSize();
+        int parallelism = config.getParallelism();
+
+        long minSliceMemory = MemoryBudget.estimateSliceMemory(MIN_SLICE_SIZE, averageLineLength,
+            byteMode, bufferSize);
+        long concurrency = Math.max(1,
+            Math.min(parallelism, budget.getCapacity() / minSliceMemory));
+        long sliceSize = MemoryBudget.maxSliceSize(budget.getCapacity() / concurrency,
+            averageLineLength, byteMode, bufferSize);
+
+        return (int) Math.max(MIN_SLICE_SIZE, Math.min(MAX_SLICE_SIZE, sliceSize));
+    }
+
+    /**
+     * Estimate the average line length of several files by scanning the beginning of each of them
+     * The average of every non-empty file counts equally, so that a small leading file does not decide the
+     * slice size of the whole dataset.
+     *
+     * @param files files
+     * @return average line length in bytes, or 0 if all the files are empty
+     * @throws IOException If an I/O error occurs
+     */
+    private static double estimateAverageLineLength(List<File> files) throws IOException {
+        double sum = 0;
+        int count = 0;
+        for (File file : files) {
+            double averageLineLength = estimateAverageLineLength(file);
+            if (averageLineLength > 0) {
+                sum += averageLineLength;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Estimate the average line length of a file by scanning its beginning
+     *
+     * @param file file
+     * @return average line length in bytes
+     * @throws IOException If an I/O error occurs
+     */
+    private static double estimateAverageLineLength(File file) throws IOException {
+        MappedLineScanner scanner = null;
+        try {
+            scanner = new MappedLineScanner(file);
+            return scanner.averageLineLength(0, LINE_LENGTH_SAMPLE_SIZE);
+        } finally {
+            IOUtil.closeQuietly(scanner);
+        }
     }
 
     /**
@@ -125,58 +537,349 @@ public class ExternalSort {
      */
     public static void merge(File dstFile, PartitionResult result, ExternalSortConfig config)
                                                                                              throws IOException {
-        String encoding = config.getEncoding();
-        int bufferSize = config.getBufferSize();
-        Comparator<String> lineComparator = config.getLineComparator();
+        List<File> bodies = reduceRuns(dstFile, result.getBodies(), config);
 
-        BufferedWriter writer = null;
-        BufferedReader reader = null;
+        OutputStream out = null;
+        LineWriter writer = null;
         GroupSortedFileReader groupReader = null;
+        List<Future<File>> segments = null;
         try {
-            String line;
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dstFile),
-                encoding), bufferSize);
+            // start merging the key ranges of bodies in parallel
+            segments = mergeRanges(dstFile, bodies, config);
+
+            // the segments are transferred to the channel directly, so they are not written behind
+            out = segments == null ? openOutput(dstFile, config) : new FileOutputStream(dstFile);
+            writer = new LineWriter(out, config.getEncoding(), config.getBufferSize());
 
             // write header
-            File header = result.getHeader();
-            if (header != null && header.isFile()) {
-                reader = new BufferedReader(new InputStreamReader(new FileInputStream(header),
-                    encoding), bufferSize);
-                while ((line = reader.readLine()) != null) {
-                    writer.write(line);
-                    writer.newLine();
-                }
-            }
+            copyLines(result.getHeader(), writer, config);
 
             // merge bodies
-            groupReader = new GroupSortedFileReader(result.getBodies(), lineComparator, encoding,
-                bufferSize);
-            while ((line = groupReader.readLine()) != null) {
-                writer.write(line);
-                writer.newLine();
+            SortedFileIndex index = null;
+            if (segments == null) {
+                groupReader = new GroupSortedFileReader(bodies, config);
+                if (config.getOutputIndexInterval() > 0) {
+                    IndexingRunWriter indexer = new IndexingRunWriter(writer,
+                        config.getOutputIndexInterval(), config.getEncoding());
+                    writeLines(groupReader, combine(indexer, config), dstFile, config);
+                    index = indexer.getIndex();
+                } else {
+                    writeLines(groupReader, combine(writer, config), dstFile, config);
+                }
+            } else {
+                writer.flush();
+                for (Future<File> segment : segments) {
+                    File segmentFile = IOUtil.getResult(segment);
+                    try {
+                        IOUtil.transfer(segmentFile, ((FileOutputStream) out).getChannel());
+                    } finally {
+                        segmentFile.delete();
+                    }
+                }
             }
 
             // write tail
-            File tail = result.getTail();
-            if (tail != null && tail.isFile()) {
-                reader = new BufferedReader(new InputStreamReader(new FileInputStream(tail),
-                    encoding), bufferSize);
-                while ((line = reader.readLine()) != null) {
-                    writer.write(line);
-                    writer.newLine();
+            copyLines(result.getTail(), writer, config);
+            writer.flush();
+
+            if (index != null) {
+                index.write(SortedFileLookup.getIndexFile(dstFile));
+            }
+
+        } finally {
+            IOUtil.closeQuietly(writer);
+            IOUtil.closeQuietly(out);
+            IOUtil.closeQuietly(groupReader);
+            cancelSegments(dstFile, segments);
+            deleteIntermediateRuns(bodies, result.getBodies());
+        }
+
+    }
+
+    /**
+     * Copy the lines of a file (e.g. header or tail) to the writer
+     *
+     * @param file source file, nothing is copied if it does not exist
+     * @param writer line writer
+     * @param config sorting configuration
+     * @throws IOException If an I/O error occurs
+     */
+    private static void copyLines(File file, LineWriter writer, ExternalSortConfig config)
+                                                                                          throws IOException {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+
+        if (config.getByteMode()) {
+            ByteLineReader reader = null;
+            try {
+                reader = new ByteLineReader(new FileInputStream(file), config.getBufferSize());
+                for (ByteLine line; (line = reader.readLine()) != null;) {
+                    writer.writeLine(line);
+                }
+            } finally {
+                IOUtil.closeQuietly(reader);
+            }
+        } else {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    config.getEncoding()), config.getBufferSize());
+                for (String line; (line = reader.readLine()) != null;) {
+                    writer.writeLine(line);
                 }
+            } finally {
+                IOUtil.closeQuietly(reader);
             }
+        }
+    }
+
+    /**
+     * Write all the lines of a GroupSortedFileReader to the writer and flush it, reporting the progress to the sort listener
+     *
+     * @param groupReader reader of sorted files
+     * @param writer line writer, whose bytes written from now on are reported
+     * @param output the file written by the writer
+     * @param config sorting configuration
+     * @throws IOException If an I/O error occurs
+     */
+    private static void writeLines(GroupSortedFileReader groupReader, RunWriter writer,
+                                   File output, ExternalSortConfig config) throws IOException {
+        SortListener listener = config.getSortListener();
+        int runs = groupReader.getFileCount();
+        long begin = System.nanoTime();
+        long lines = 0;
+        // e.g. the header written before
+        long bodyBegin = writer.getPosition();
+
+        // stop reading after limit lines, unless they are combined (then the writer drops the extra lines)
+        long remaining = Long.MAX_VALUE;
+        if (config.getLimit() > 0 && config.getLineCombiner() == null) {
+            remaining = config.getLimit();
+        }
+
+        if (config.getByteMode()) {
+            ByteLine line;
+            for (; remaining > 0 && (line = groupReader.readLineBytes()) != null; remaining--) {
+                writer.writeLine(line);
+                if (++lines % MERGE_PROGRESS_INTERVAL == 0) {
+                    listener.onMergeProgress(output, runs, lines,
+                        writer.getPosition() - bodyBegin);
+                }
+            }
+        } else {
+            String line;
+            for (; remaining > 0 && (line = groupReader.readLine()) != null; remaining--) {
+                writer.writeLine(line);
+                if (++lines % MERGE_PROGRESS_INTERVAL == 0) {
+                    listener.onMergeProgress(output, runs, lines,
+                        writer.getPosition() - bodyBegin);
+                }
+            }
+        }
+        writer.flush();
+
+        listener.onMergeFinished(output, runs, lines, writer.getPosition() - bodyBegin,
+            System.nanoTime() - begin);
+    }
+
+    /**
+     * Split the sorted files into key ranges and merge each range into a separate segment file concurrently.
+     * Concatenating the segments in order gives the merge result of the sorted files.
+     *
+     * @param dstFile output file, segment files are written to its directory
+     * @param runs sorted files
+     * @param config sorting configuration
+     * @return segments in order, or null if the merge should be performed serially
+     * @throws IOException If an I/O error occurs
+     */
+    private static List<Future<File>> mergeRanges(File dstFile, final List<File> runs,
+                                                  final ExternalSortConfig config)
+                                                                                  throws IOException {
+        int parallelism = config.getMergeParallelism();
+        // in byte mode, the ranges are split in byte order, which may separate the lines combined by the lineComparator
+        if (parallelism <= 1 || runs.isEmpty() || config.getRunCodec() != null
+            || config.getLimit() > 0 || config.getOutputIndexInterval() > 0
+            || (config.getByteMode() && config.getLineCombiner() != null)
+            || !KeyRangeSplitter.isSupported(config.getEncoding(), config.getRunFormat())) {
+            return null;
+        }
+
+        Comparator<String> lineComparator = config.getByteMode() ? new ByteOrderComparator(
+            config.getEncoding()) : config.getLineComparator();
+        List<List<FileSlice>> ranges = new KeyRangeSplitter(runs, lineComparator,
+            config.getEncoding(), config.getRunFormat()).split(parallelism);
+        File dstDir = dstFile.getAbsoluteFile().getParentFile();
+        // the ranges are merged at once, so they share the read-ahead memory
+        final long readAheadMemory = config.getReadAheadMemory() / ranges.size();
+        List<Future<File>> segments = new ArrayList<Future<File>>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            final List<FileSlice> range = ranges.get(i);
+            final File output = getSegmentFile(dstDir, dstFile, i);
+            segments.add(config.getExecutor().submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    GroupSortedFileReader groupReader = new GroupSortedFileReader(runs, range,
+                        config);
+                    groupReader.readAhead(readAheadMemory, config.getIoExecutor());
+                    mergeRuns(output, groupReader, false, config);
+                    return output;
+                }
+            }));
+        }
+
+        return segments;
+    }
+
+    /**
+     * Cancel the unfinished segment merges and delete the remaining segment files
+     *
+     * @param dstFile output file
+     * @param segments segments, may be null
+     */
+    private static void cancelSegments(File dstFile, List<Future<File>> segments) {
+        if (segments == null) {
+            return;
+        }
+
+        File dstDir = dstFile.getAbsoluteFile().getParentFile();
+        for (int i = 0; i < segments.size(); i++) {
+            Future<File> segment = segments.get(i);
+            if (!segment.isDone()) {
+                segment.cancel(true);
+            }
+            getSegmentFile(dstDir, dstFile, i).delete();
+        }
+    }
+
+    /**
+     * Get the segment file of a key range
+     *
+     * @param dstDir output directory
+     * @param dstFile output file
+     * @param index index of the key range
+     * @return segment file
+     */
+    private static File getSegmentFile(File dstDir, File dstFile, int index) {
+        return new File(dstDir, String.format("%s-SEGMENT-%s.txt", dstFile.getName(), index));
+    }
+
+    /**
+     * Repeatedly merge groups of at most maxMergeFanIn sorted files until the number of files is
+     * no more than maxMergeFanIn, so that the final merge pass does not open too many files at once.
+     * The groups of the same pass are merged concurrently by the executor.
+     *
+     * @param dstFile output file, intermediate files are written to its directory
+     * @param runs sorted files
+     * @param config sorting configuration
+     * @return sorted files to be merged by the final pass
+     * @throws IOException If an I/O error occurs
+     */
+    private static List<File> reduceRuns(final File dstFile, List<File> runs,
+                                         final ExternalSortConfig config) throws IOException {
+        int fanIn = config.getMaxMergeFanIn();
+        if (fanIn <= 0 || runs.size() <= fanIn) {
+            return runs;
+        }
+        if (fanIn < 2) {
+            throw new IllegalArgumentException("maxMergeFanIn must be at least 2: " + fanIn);
+        }
+
+        File dstDir = dstFile.getAbsoluteFile().getParentFile();
+        List<File> inputs = runs;
+        for (int pass = 0; inputs.size() > fanIn; pass++) {
+            // split the files into groups of nearly equal size
+            int groups = (inputs.size() + fanIn - 1) / fanIn;
+            // the groups merged at once share the read-ahead memory
+            final long readAheadMemory = config.getReadAheadMemory()
+                                         / Math.min(groups, config.getParallelism());
+            List<Future<File>> futures = new ArrayList<Future<File>>(groups);
+            List<MergeTask> tasks = new ArrayList<MergeTask>(groups);
+            for (int i = 0, from = 0; i < groups; i++) {
+                int to = from + (inputs.size() - from) / (groups - i);
+                MergeTask task = new MergeTask(inputs.subList(from, to), new File(dstDir,
+                    String.format("%s-MERGE-%s-%s.txt", dstFile.getName(), pass, i)),
+                    readAheadMemory, config);
+                tasks.add(task);
+                futures.add(config.getExecutor().submit(task));
+                from = to;
+            }
+
+            List<File> outputs = new ArrayList<File>(groups);
+            try {
+                for (Future<File> future : futures) {
+                    outputs.add(IOUtil.getResult(future));
+                }
+            } finally {
+                if (outputs.size() < futures.size()) {
+                    // stop the merges of this pass, and delete their outputs once none is being written
+                    for (int i = 0; i < tasks.size(); i++) {
+                        if (tasks.get(i).abort()) {
+                            futures.get(i).cancel(true);
+                        }
+                    }
+                    for (MergeTask task : tasks) {
+                        task.awaitFinished();
+                        task.output.delete();
+                    }
+                }
+                deleteIntermediateRuns(inputs, runs);
+            }
+            inputs = outputs;
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Write the lines of a GroupSortedFileReader into one sorted file
+     *
+     * @param dstFile output file
+     * @param groupReader reader of sorted files, which will be closed after this operation
+     * @param intermediate whether the output file is an intermediate sorted file, which is written in the run format and compressed by the run codec
+     * @param config sorting configuration
+     * @throws IOException If an I/O error occurs
+     */
+    private static void mergeRuns(File dstFile, GroupSortedFileReader groupReader,
+                                  boolean intermediate, ExternalSortConfig config)
+                                                                                  throws IOException {
+        RunWriter writer = null;
+        try {
+            if (intermediate) {
+                writer = openRunWriter(dstFile, config);
+            } else {
+                writer = combine(new LineWriter(openOutput(dstFile, config),
+                    config.getEncoding(), config.getBufferSize()), config);
+            }
+            writeLines(groupReader, writer, dstFile, config);
 
         } finally {
             IOUtil.closeQuietly(writer);
-            IOUtil.closeQuietly(reader);
             IOUtil.closeQuietly(groupReader);
         }
+    }
 
+    /**
+     * Delete the files produced by intermediate merge passes
+     *
+     * @param files files to be deleted
+     * @param runs the original sorted files produced by the partition phase, which are kept
+     */
+    private static void deleteIntermediateRuns(List<File> files, List<File> runs) {
+        if (files == runs) {
+            return;
+        }
+
+        for (File file : files) {
+            if (!runs.contains(file)) {
+                file.delete();
+            }
+        }
     }
 
     /**
-     * Logically partition the file into header, tail and several slices 
+     * Logically partition the file into header, tail and several slices.
+     * Line boundaries are found by scanning the memory mapped file, instead of reading it byte by byte.
      * 
      * @param file file
      * @param headerLines the first headerLines lines are regarded as the header
@@ -187,151 +890,682 @@ public class ExternalSort {
      * @return file slices
      * @throws IOException If an I/O error occurs
      */
-    private static List<FileSlice> slice(File file, int headerLines,
-                                         boolean ignoreHeaderBlankLines, int tailLines,
-                                         boolean ignoreTailBlankLines, int sliceSize)
-                                                                                     throws IOException {
-        RandomAccessFile raf = null;
+    static List<FileSlice> slice(File file, int headerLines, boolean ignoreHeaderBlankLines,
+                                 int tailLines, boolean ignoreTailBlankLines, long sliceSize)
+                                                                                             throws IOException {
+        MappedLineScanner scanner = null;
         try {
-            raf = new RandomAccessFile(file, "r");
+            scanner = new MappedLineScanner(file);
 
             List<FileSlice> slices = new ArrayList<FileSlice>();
-            FileSlice header = getHeader(raf, headerLines, ignoreHeaderBlankLines);
+            FileSlice header = getHeader(file, scanner, headerLines, ignoreHeaderBlankLines);
             slices.add(header);
-            FileSlice tail = getTail(raf, tailLines, ignoreTailBlankLines);
+            FileSlice tail = getTail(file, scanner, tailLines, ignoreTailBlankLines);
             slices.add(tail);
 
             long bodyBegin = header.end;
             long bodyEnd = tail.begin;
             if (bodyBegin == bodyEnd) {
-                slices.add(new FileSlice(SliceType.BODY, bodyBegin, bodyEnd));
+                slices.add(new FileSlice(file, SliceType.BODY, bodyBegin, bodyEnd));
                 return slices;
             }
 
-            for (raf.seek(bodyBegin); bodyBegin < bodyEnd; bodyBegin = raf.getFilePointer()) {
-                raf.skipBytes(sliceSize);
-                IOUtil.skipNextLine(raf);
-                slices.add(new FileSlice(SliceType.BODY, bodyBegin, Math.min(raf.getFilePointer(),
-                    bodyEnd)));
+            for (; bodyBegin < bodyEnd; bodyBegin = scanner.getPosition()) {
+                scanner.seek(Math.min(bodyBegin + sliceSize, scanner.length()));
+                scanner.skipNextLine();
+                slices.add(new FileSlice(file, SliceType.BODY, bodyBegin, Math.min(
+                    scanner.getPosition(), bodyEnd)));
             }
 
             return slices;
 
         } finally {
-            IOUtil.closeQuietly(raf);
+            IOUtil.closeQuietly(scanner);
         }
     }
 
     /**
      * Get the header slice
      *
-     * @param raf RandomAccessFile
+     * @param file file
+     * @param scanner line scanner of the file
      * @param headerLines the first headerLines lines are regarded as the header
      * @param ignoreHeaderBlankLines whether we ignore (i.e. do not count them in headerLines) the leading blank lines in the header
      * @return header slice
      * @throws IOException If an I/O error occurs
      */
-    private static FileSlice getHeader(RandomAccessFile raf, int headerLines,
+    private static FileSlice getHeader(File file, MappedLineScanner scanner, int headerLines,
                                        boolean ignoreHeaderBlankLines) throws IOException {
+        scanner.seek(0);
         if (ignoreHeaderBlankLines) {
-            IOUtil.skipNextBlankLines(raf);
+            scanner.skipNextBlankLines();
         }
 
         for (int i = 0; i < headerLines; i++) {
-            IOUtil.skipNextLine(raf);
+            scanner.skipNextLine();
         }
 
-        return new FileSlice(SliceType.HEADER, 0, raf.getFilePointer());
+        return new FileSlice(file, SliceType.HEADER, 0, scanner.getPosition());
     }
 
     /**
      * Get the tail slice
      * 
-     * @param raf RandomAccessFile
+     * @param file file
+     * @param scanner line scanner of the file
      * @param tailLines the last tailLines lines are regarded as the tail
      * @param ignoreTailBlankLines whether we ignore (i.e. do not count them in tailLines) the trailing blank lines in the tail
      * @return tail slice
      * @throws IOException If an I/O error occurs
      */
-    private static FileSlice getTail(RandomAccessFile raf, int tailLines,
+    private static FileSlice getTail(File file, MappedLineScanner scanner, int tailLines,
                                      boolean ignoreTailBlankLines) throws IOException {
-        raf.seek(raf.length());
+        scanner.seek(scanner.length());
 
         if (ignoreTailBlankLines) {
-            IOUtil.skipPrevBlankLines(raf);
+            scanner.skipPrevBlankLines();
         }
 
         boolean meetFileHead = false;
         for (int i = 0; i < tailLines; i++) {
-            if (!IOUtil.skipPrevLine(raf)) {
+            if (!scanner.skipPrevLine()) {
                 meetFileHead = true;
                 break;
             }
         }
 
         if (!meetFileHead) {
-            IOUtil.skipNextLine(raf);
+            scanner.skipNextLine();
         }
 
-        return new FileSlice(SliceType.TAIL, Math.max(0, raf.getFilePointer()), raf.length());
+        return new FileSlice(file, SliceType.TAIL, Math.max(0, scanner.getPosition()),
+            scanner.length());
     }
 
     /**
      * Write a slice to file
      * 
-     * @param sourceFile original file
-     * @param dstDir the directory where the file will be written
+     * @param dstFile the file to be written
      * @param config config
      * @param slice file slice
-     * @return the written file
      * @throws IOException If an I/O error occurs
      */
-    private static File writeSlice(File sourceFile, File dstDir, ExternalSortConfig config,
-                                   FileSlice slice) throws IOException {
+    private static void writeSlice(File dstFile, ExternalSortConfig config, FileSlice slice)
+                                                                                          throws IOException {
+        if (!config.getByteMode()) {
+            writeSlice(new RandomAccessFileInputStream(slice.file, slice.begin, slice.end),
+                slice.end - slice.begin, slice.type, dstFile, config);
+            return;
+        }
+
+        if (keepsTopLines(slice.type, config)) {
+            writeTopByteLines(new RandomAccessFileInputStream(slice.file, slice.begin, slice.end),
+                slice.end - slice.begin, 0, dstFile, config);
+            return;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            long begin = System.nanoTime();
+            byte[] buffer = new byte[(int) (slice.end - slice.begin)];
+            raf = new RandomAccessFile(slice.file, "r");
+            raf.seek(slice.begin);
+            raf.readFully(buffer);
+
+            writeByteSlice(buffer, buffer.length, System.nanoTime() - begin, slice.type,
+                dstFile, config);
+
+        } finally {
+            IOUtil.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Write a batch of body slices (possibly of different files) to one sorted file
+     *
+     * @param dstFile the file to be written
+     * @param config config
+     * @param slices body slices
+     * @throws IOException If an I/O error occurs
+     */
+    private static void writeBatch(File dstFile, ExternalSortConfig config, List<FileSlice> slices)
+                                                                                                  throws IOException {
+        if (slices.size() == 1) {
+            writeSlice(dstFile, config, slices.get(0));
+            return;
+        }
+
+        long bytes = 0;
+        for (FileSlice slice : slices) {
+            bytes += slice.end - slice.begin;
+        }
+        if (!config.getByteMode()) {
+            writeSlice(new FileSliceInputStream(slices), bytes, SliceType.BODY, dstFile, config);
+            return;
+        }
+
+        if (keepsTopLines(SliceType.BODY, config)) {
+            writeTopByteLines(new FileSliceInputStream(slices), bytes, 0, dstFile, config);
+            return;
+        }
 
+        InputStream in = null;
+        try {
+            long begin = System.nanoTime();
+            // room for a "\n" after every slice
+            byte[] buffer = new byte[(int) bytes + slices.size()];
+            in = new FileSliceInputStream(slices);
+            int length = 0;
+            for (int n; length < buffer.length
+                        && (n = in.read(buffer, length, buffer.length - length)) > 0;) {
+                length += n;
+            }
+
+            writeByteSlice(buffer, length, System.nanoTime() - begin, SliceType.BODY, dstFile,
+                config);
+
+        } finally {
+            IOUtil.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write a slice held in memory to file
+     *
+     * @param buffer buffer that contains the lines of the slice
+     * @param length number of valid bytes in the buffer
+     * @param type type of the slice, only the body slices are filtered and sorted
+     * @param dstFile the file to be written
+     * @param config config
+     * @throws IOException If an I/O error occurs
+     */
+    static void writeSlice(byte[] buffer, int length, SliceType type, File dstFile,
+                           ExternalSortConfig config) throws IOException {
+        if (config.getByteMode()) {
+            writeByteSlice(buffer, length, 0, type, dstFile, config);
+        } else {
+            writeSlice(new ByteArrayInputStream(buffer, 0, length), length, type, dstFile, config);
+        }
+    }
+
+    /**
+     * Read the lines of a slice, and write them to file
+     *
+     * @param in stream of the slice, which will be closed after this operation
+     * @param bytes number of bytes of the slice
+     * @param type type of the slice, only the body slices are filtered and sorted
+     * @param dstFile the file to be written
+     * @param config config
+     * @throws IOException If an I/O error occurs
+     */
+    private static void writeSlice(InputStream in, long bytes, SliceType type, File dstFile,
+                                   ExternalSortConfig config) throws IOException {
         String encoding = config.getEncoding();
         int bufferSize = config.getBufferSize();
         LineFilter lineFilter = config.getLineFilter();
         Comparator<String> comparator = config.getLineComparator();
-        SliceType type = slice.type;
+        KeyPrefixer keyPrefixer = config.getKeyPrefixer();
 
         BufferedReader reader = null;
-        BufferedWriter writer = null;
+        RunWriter writer = null;
         try {
             // read, filter and sort
-            reader = new BufferedReader(new InputStreamReader(new RandomAccessFileInputStream(
-                sourceFile, slice.begin, slice.end), encoding), bufferSize);
+            long begin = System.nanoTime();
+            reader = new BufferedReader(new InputStreamReader(in, encoding), bufferSize);
 
-            List<String> lines = new ArrayList<String>();
-            for (String line; (line = reader.readLine()) != null;) {
-                if (type != SliceType.BODY || lineFilter == null || lineFilter.isConcerned(line)) {
-                    lines.add(line);
+            boolean unique = type == SliceType.BODY && comparator != null && config.getUnique()
+                             && config.getLineCombiner() == null;
+            List<String> lines;
+            if (type == SliceType.BODY && comparator != null && config.getLimit() > 0
+                && config.getLineCombiner() == null) {
+                lines = selectLines(reader, lineFilter, comparator, config.getLimit(), unique);
+            } else {
+                lines = new ArrayList<String>();
+                for (String line; (line = reader.readLine()) != null;) {
+                    if (type != SliceType.BODY || lineFilter == null
+                        || lineFilter.isConcerned(line)) {
+                        lines.add(line);
+                    }
                 }
             }
 
+            long read = System.nanoTime();
+            PrefixedLineList prefixedLines = null;
             if (type == SliceType.BODY && comparator != null) {
-                Collections.sort(lines, comparator);
+                if (comparator == ExternalSortConfig.NATURAL_ORDER_COMPARATOR) {
+                    StringRadixSort.sort(lines);
+                } else if (keyPrefixer != null) {
+                    prefixedLines = new PrefixedLineList(lines, keyPrefixer, comparator);
+                    prefixedLines.sort();
+                } else {
+                    Collections.sort(lines, comparator);
+                }
             }
 
             // write
-            dstDir.mkdirs();
-            File dstFile = new File(dstDir, String.format("%s-%s-%s.txt", sourceFile.getName(),
-                slice.type, slice.begin));
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dstFile),
-                encoding), bufferSize);
-            for (String line : lines) {
-                writer.write(line);
-                writer.newLine();
+            long sorted = System.nanoTime();
+            writer = type == SliceType.BODY ? openRunWriter(dstFile, config) : new LineWriter(
+                openOutput(dstFile, config), encoding, bufferSize);
+            long written = 0;
+            String last = null;
+            int size = prefixedLines != null ? prefixedLines.size() : lines.size();
+            for (int i = 0; i < size; i++) {
+                String line = prefixedLines != null ? prefixedLines.get(i) : lines.get(i);
+                if (unique && last != null && comparator.compare(last, line) == 0) {
+                    continue;
+                }
+                writer.writeLine(line);
+                last = line;
+                written++;
             }
             writer.flush();
 
-            return dstFile;
+            config.getSortListener().onSliceWritten(type, dstFile, bytes, written, read - begin,
+                sorted - read, System.nanoTime() - sorted);
 
         } finally {
+            IOUtil.closeQuietly(in);
             IOUtil.closeQuietly(reader);
             IOUtil.closeQuietly(writer);
         }
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Read the lines of a slice, and only keep the first limit lines in sorted order,
+     * so that no more than limit + 1 lines are held in memory
+     *
+     * @param reader reader of the slice
+     * @param lineFilter line filter
+     * @param comparator line comparator
+     * @param limit number of lines kept
+     * @param unique whether only the first of equal lines is kept
+     * @return the kept lines, not necessarily sorted
+     * @throws IOException If an I/O error occurs
+     */
+    private static List<String> selectLines(BufferedReader reader, LineFilter lineFilter,
+                                            Comparator<String> comparator, long limit,
+                                            boolean unique) throws IOException {
+        if (unique) {
+            TreeSet<String> kept = new TreeSet<String>(comparator);
+            for (String line; (line = reader.readLine()) != null;) {
+                if (lineFilter != null && !lineFilter.isConcerned(line)) {
+                    continue;
+                }
+                if (kept.size() < limit) {
+                    kept.add(line);
+                } else if (comparator.compare(line, kept.last()) < 0 && kept.add(line)) {
+                    kept.pollLast();
+                }
+            }
+            return new ArrayList<String>(kept);
+        }
+
+        // max-heap of the kept lines, whose root is the line to be dropped first
+        PriorityQueue<String> kept = new PriorityQueue<String>((int) Math.min(limit, 1024) + 1,
+            Collections.reverseOrder(comparator));
+        for (String line; (line = reader.readLine()) != null;) {
+            if (lineFilter != null && !lineFilter.isConcerned(line)) {
+                continue;
+            }
+            kept.add(line);
+            if (kept.size() > limit) {
+                kept.poll();
+            }
+        }
+        return new ArrayList<String>(kept);
+    }
+
+    /**
+     * Write a slice to file in byte mode, i.e. without decoding the lines
+     *
+     * @param buffer buffer that contains the lines of the slice
+     * @param length number of valid bytes in the buffer
+     * @param readNanos time spent on reading the slice into the buffer
+     * @param type type of the slice, only the body slices are filtered and sorted
+     * @param dstFile the file to be written
+     * @param config config
+     * @throws IOException If an I/O error occurs
+     */
+    private static void writeByteSlice(byte[] buffer, int length, long readNanos,
+                                       SliceType type, File dstFile, ExternalSortConfig config)
+                                                                                               throws IOException {
+        if (keepsTopLines(type, config)) {
+            writeTopByteLines(new ByteArrayInputStream(buffer, 0, length), length, readNanos,
+                dstFile, config);
+            return;
+        }
+        LineFilter lineFilter = config.getLineFilter();
+
+        RunWriter writer = null;
+        try {
+            // filter and sort
+            long begin = System.nanoTime();
+            ByteLineList lines = new ByteLineList(buffer, length);
+            if (type == SliceType.BODY) {
+                if (lineFilter != null && lineFilter != ExternalSortConfig.ACCEPT_ALL_LINE_FILTER) {
+                    lines.filter(lineFilter, config.getEncoding());
+                }
+                lines.sort();
+                if (config.getUnique() && config.getLineCombiner() == null) {
+                    lines.unique();
+                }
+            }
+
+            // write
+            long sorted = System.nanoTime();
+            writer = type == SliceType.BODY ? openRunWriter(dstFile, config) : new LineWriter(
+                openOutput(dstFile, config), config.getEncoding(), config.getBufferSize());
+            lines.write(writer);
+            writer.flush();
+
+            config.getSortListener().onSliceWritten(type, dstFile, length, lines.size(),
+                readNanos, sorted - begin, System.nanoTime() - sorted);
+
+        } finally {
+            IOUtil.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Whether only the first limit lines of a slice are kept, by selection instead of sorting the whole slice
+     *
+     * @param type type of the slice
+     * @param config sorting configuration
+     * @return true if it is a body slice and there is a limit but no line combiner
+     */
+    private static boolean keepsTopLines(SliceType type, ExternalSortConfig config) {
+        return type == SliceType.BODY && config.getLimit() > 0 && config.getLineCombiner() == null;
+    }
+
+    /**
+     * Read the lines of a body slice in byte mode, and only write the first limit lines in sorted order,
+     * so that no more than limit + 1 lines are held in memory
+     *
+     * @param in stream of the slice, which will be closed after this operation
+     * @param bytes number of bytes of the slice
+     * @param readNanos time spent on reading the slice before
+     * @param dstFile the file to be written
+     * @param config config
+     * @throws IOException If an I/O error occurs
+     */
+    private static void writeTopByteLines(InputStream in, long bytes, long readNanos,
+                                          File dstFile, ExternalSortConfig config)
+                                                                                  throws IOException {
+        ByteLineReader reader = null;
+        RunWriter writer = null;
+        try {
+            // read, filter and select
+            long begin = System.nanoTime();
+            reader = new ByteLineReader(in, config.getBufferSize());
+            List<byte[]> lines = selectByteLines(reader, config);
+
+            // write
+            long selected = System.nanoTime();
+            writer = openRunWriter(dstFile, config);
+            for (byte[] line : lines) {
+                writer.writeLine(line, 0, line.length);
+            }
+            writer.flush();
+
+            config.getSortListener().onSliceWritten(SliceType.BODY, dstFile, bytes,
+                lines.size(), readNanos, selected - begin, System.nanoTime() - selected);
+
+        } finally {
+            IOUtil.closeQuietly(reader);
+            IOUtil.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Read the lines of a slice in byte mode, and only keep the first limit lines in byte order
+     *
+     * @param reader reader of the slice
+     * @param config sorting configuration
+     * @return the kept lines, sorted
+     * @throws IOException If an I/O error occurs
+     */
+    private static List<byte[]> selectByteLines(ByteLineReader reader, ExternalSortConfig config)
+                                                                                                   throws IOException {
+        LineFilter lineFilter = config.getLineFilter();
+        if (lineFilter == ExternalSortConfig.ACCEPT_ALL_LINE_FILTER) {
+            lineFilter = null;
+        }
+        String encoding = config.getEncoding();
+        long limit = config.getLimit();
+        boolean unique = config.getUnique();
+
+        // max-heap (or sorted set in unique mode) of the kept lines, whose greatest is the line to be dropped first
+        PriorityQueue<byte[]> heap = unique ? null : new PriorityQueue<byte[]>(
+            (int) Math.min(limit, 1024) + 1, Collections.reverseOrder(BYTE_ORDER));
+        TreeSet<byte[]> set = unique ? new TreeSet<byte[]>(BYTE_ORDER) : null;
+        for (ByteLine line; (line = reader.readLine()) != null;) {
+            long kept = unique ? set.size() : heap.size();
+            if (kept >= limit) {
+                // skip the lines not less than the greatest kept line without copying them
+                byte[] greatest = unique ? set.last() : heap.peek();
+                if (ByteLine.compare(line.getBuffer(), line.getOffset(), line.getLength(),
+                    greatest, 0, greatest.length) >= 0) {
+                    continue;
+                }
+            }
+            if (lineFilter != null
+                && !lineFilter.isConcerned(new String(line.getBuffer(), line.getOffset(),
+                    line.getLength(), encoding))) {
+                continue;
+            }
+
+            byte[] bytes = Arrays.copyOfRange(line.getBuffer(), line.getOffset(),
+                line.getOffset() + line.getLength());
+            if (unique) {
+                if (set.add(bytes) && set.size() > limit) {
+                    set.pollLast();
+                }
+            } else {
+                heap.add(bytes);
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+        }
+
+        if (unique) {
+            return new ArrayList<byte[]>(set);
+        }
+        List<byte[]> lines = new ArrayList<byte[]>(heap);
+        Collections.sort(lines, BYTE_ORDER);
+        return lines;
+    }
+
+    /**
+     * Open an intermediate sorted file for writing, compressed by the run codec if any
+     *
+     * @param file the file
+     * @param config sorting configuration
+     * @return output stream
+     * @throws IOException If an I/O error occurs
+     */
+    private static OutputStream openRun(File file, ExternalSortConfig config) throws IOException {
+        OutputStream out = openOutput(file, config);
+        RunCodec runCodec = config.getRunCodec();
+        return runCodec == null ? out : runCodec.compress(out);
+    }
+
+    /**
+     * Open a file for writing, written behind by the ioExecutor if writeBehindBuffers is set
+     *
+     * @param file the file
+     * @param config sorting configuration
+     * @return output stream
+     * @throws IOException If an I/O error occurs
+     */
+    static OutputStream openOutput(File file, ExternalSortConfig config)
+                                                                        throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        if (config.getWriteBehindBuffers() <= 0) {
+            return out;
+        }
+
+        boolean opened = false;
+        try {
+            OutputStream writeBehind = new WriteBehindOutputStream(out.getChannel(),
+                config.getIoExecutor(), config.getBufferSize(), config.getWriteBehindBuffers());
+            opened = true;
+            return writeBehind;
+        } finally {
+            if (!opened) {
+                IOUtil.closeQuietly(out);
+            }
+        }
+    }
+
+    /**
+     * Open a writer of an intermediate sorted file, in the run format of the config
+     *
+     * @param file file
+     * @param config sorting configuration
+     * @return the writer
+     * @throws IOException If an I/O error occurs
+     */
+    static RunWriter openRunWriter(File file, ExternalSortConfig config) throws IOException {
+        OutputStream out = openRun(file, config);
+        if (config.getRunFormat() != RunFormat.BINARY) {
+            return combine(new LineWriter(out, config.getEncoding(), config.getBufferSize()),
+                config);
+        }
+
+        boolean opened = false;
+        try {
+            RunWriter writer = new BinaryRunWriter(out, config.getRunBlockSize(),
+                config.getEncoding(), config.getBufferSize());
+            opened = true;
+            return combine(writer, config);
+        } finally {
+            if (!opened) {
+                IOUtil.closeQuietly(out);
+            }
+        }
+    }
+
+    /**
+     * Wrap a writer of sorted lines with the line combiner and the limit of the config, if any
+     *
+     * @param writer writer of sorted lines
+     * @param config sorting configuration
+     * @return the writer which combines the lines with the same key and only writes the first limit (combined) lines,
+     *         or the writer itself if there is neither line combiner nor limit
+     */
+    private static RunWriter combine(RunWriter writer, ExternalSortConfig config) {
+        if (config.getLimit() > 0) {
+            writer = new LimitedRunWriter(writer, config.getLimit());
+        }
+
+        LineCombiner combiner = config.getLineCombiner();
+        if (combiner == null) {
+            return writer;
+        }
+        return new CombiningRunWriter(writer, combiner, config.getLineComparator(),
+            config.getEncoding());
+    }
+
+    /**
+     * Get the file that a slice is written to
+     *
+     * @param sourceName name of the original file
+     * @param dstDir the directory where the file will be written, created if not exists
+     * @param type type of the slice
+     * @param begin beginning of the slice in the original file
+     * @return the file
+     */
+    static File getSliceFile(String sourceName, File dstDir, SliceType type, long begin) {
+        dstDir.mkdirs();
+        return new File(dstDir, String.format("%s-%s-%s.txt", sourceName, type, begin));
+    }
+
+    /**
+     * Merge of a group of sorted files in a pass of {@link #reduceRuns(File, List, ExternalSortConfig)},
+     * which can be aborted and waited for, so that its output is not written after it is deleted
+     */
+    private static class MergeTask implements Callable<File> {
+        /** sorted files of the group */
+        private final List<File>         group;
+
+        /** output file */
+        private final File               output;
+
+        /** read-ahead memory of the group */
+        private final long               readAheadMemory;
+
+        /** sorting configuration */
+        private final ExternalSortConfig config;
+
+        /** whether the merge has started or has been aborted before it started */
+        private final AtomicBoolean      started  = new AtomicBoolean();
+
+        /** counted down when the started merge finishes */
+        private final CountDownLatch     finished = new CountDownLatch(1);
+
+        /**
+         * Create a MergeTask
+         *
+         * @param group sorted files of the group
+         * @param output output file
+         * @param readAheadMemory read-ahead memory of the group
+         * @param config sorting configuration
+         */
+        MergeTask(List<File> group, File output, long readAheadMemory, ExternalSortConfig config) {
+            this.group = group;
+            this.output = output;
+            this.readAheadMemory = readAheadMemory;
+            this.config = config;
+        }
+
+        @Override
+        public File call() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                throw new CancellationException("Merge aborted: " + output);
+            }
+            try {
+                GroupSortedFileReader groupReader = new GroupSortedFileReader(group, config);
+                groupReader.readAhead(readAheadMemory, config.getIoExecutor());
+                mergeRuns(output, groupReader, true, config);
+                return output;
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Prevent the merge from starting
+         *
+         * @return true if the merge has started (it may be running), false if it will never run
+         */
+        boolean abort() {
+            if (started.compareAndSet(false, true)) {
+                finished.countDown();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Wait until the merge finishes, or return at once if it never started.
+         * An interrupt does not stop the waiting, but is kept for the caller.
+         */
+        void awaitFinished() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
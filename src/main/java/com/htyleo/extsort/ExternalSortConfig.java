@@ -1,11 +1,18 @@
 package com.htyleo.extsort;
 
 import java.util.Comparator;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
 
+import com.htyleo.extsort.common.KeyPrefixer;
+import com.htyleo.extsort.common.LineCombiner;
 import com.htyleo.extsort.common.LineFilter;
+import com.htyleo.extsort.common.MergeEngine;
+import com.htyleo.extsort.common.RunCodec;
+import com.htyleo.extsort.common.RunFormat;
+import com.htyleo.extsort.common.RunGeneration;
+import com.htyleo.extsort.common.SortListener;
+import com.htyleo.extsort.common.SortListenerAdapter;
+import com.htyleo.extsort.util.ExecutorUtil;
 
 /**
  * External sorting config
@@ -14,6 +21,26 @@ import com.htyleo.extsort.common.LineFilter;
  */
 public class ExternalSortConfig {
 
+    /** The default line filter, which does not filter out any line */
+    public static final LineFilter         ACCEPT_ALL_LINE_FILTER   = new LineFilter() {
+                                                                        @Override
+                                                                        public boolean isConcerned(String line) {
+                                                                            return true;
+                                                                        }
+                                                                    };
+
+    /** The default sort listener, which ignores all events */
+    public static final SortListener       NO_OP_SORT_LISTENER      = new SortListenerAdapter();
+
+    /** The default line comparator, which sorts lines in alphabetical order (i.e. {@link String#compareTo(String)}) */
+    public static final Comparator<String> NATURAL_ORDER_COMPARATOR = new Comparator<String>() {
+                                                                        @Override
+                                                                        public int compare(String s1,
+                                                                                           String s2) {
+                                                                            return s1.compareTo(s2);
+                                                                        }
+                                                                    };
+
     /** File encoding, used for reading and writing files */
     private String             encoding               = "UTF-8";
 
@@ -23,6 +50,22 @@ public class ExternalSortConfig {
     /** Slice size, default is 2 MB */
     private int                sliceSize              = 2 * 1024 * 1024;
 
+    /**
+     * Strategy used to generate the sorted files in the partition phase. With {@link RunGeneration#REPLACEMENT_SELECTION},
+     * the body is split into one part per task of the parallelism, and the lines of each part flow through a heap of sliceSize bytes,
+     * which produces fewer and longer sorted files. By default, every slice is sorted in memory.
+     * Streams are always partitioned into slices.
+     */
+    private RunGeneration      runGeneration          = RunGeneration.SLICE;
+
+    /**
+     * Memory budget in bytes for the slices sorted concurrently. If positive, the slice size is derived from
+     * the budget (sliceSize is ignored), accounting for the heap overhead of decoded lines, and a slice only
+     * starts when its estimated memory can be reserved from the budget.
+     * By default (i.e. 0), there is no budget, and the memory used depends on sliceSize and the executor.
+     */
+    private long               memoryBudget           = 0;
+
     /** The first headerLines lines are regarded as the header, which will be extracted and written to a separate file */
     private int                headerLines            = 0;
 
@@ -36,33 +79,143 @@ public class ExternalSortConfig {
     private boolean            ignoreTailBlankLines   = false;
 
     /** Line filter. By default we do not filter out any line */
-    private LineFilter         lineFilter             = new LineFilter() {
-                                                          @Override
-                                                          public boolean isConcerned(String line) {
-                                                              return true;
-                                                          }
-                                                      };
-
-    /** Che comparator used for sorting. By default, lines are sorted in alphabetical order. */
-    private Comparator<String> lineComparator         = new Comparator<String>() {
-                                                          @Override
-                                                          public int compare(String s1, String s2) {
-                                                              return s1.compareTo(s2);
-                                                          }
-                                                      };
-
-    /**
-     * ThreadPoolExecutor used to run external sorting in parallel
-     * Default parameters:
-     * <ul>
-     *     <li>coreSize = 5</li>
-     *     <li>maxSize = 8</li>
-     *     <li>keepAliveTime = 300s</li>
-     * <ul/>
-     */
-    private ThreadPoolExecutor executor               = new ThreadPoolExecutor(5, 8, 300,
-                                                          TimeUnit.SECONDS,
-                                                          new LinkedBlockingQueue<Runnable>());
+    private LineFilter         lineFilter             = ACCEPT_ALL_LINE_FILTER;
+
+    /**
+     * Line combiner, which folds adjacent lines with the same key (i.e. equal by the lineComparator) into one line,
+     * both in every sorted file before it is written and during the merge. The unique mode is ignored if it is set.
+     * In byte mode, the lineComparator still decides which lines have the same key, so they should be adjacent in byte order.
+     * By default (i.e. null), lines are not combined.
+     */
+    private LineCombiner       lineCombiner           = null;
+
+    /**
+     * Che comparator used for sorting. By default, lines are sorted in alphabetical order,
+     * and the slices are sorted by MSD radix sort instead of comparisons.
+     */
+    private Comparator<String> lineComparator         = NATURAL_ORDER_COMPARATOR;
+
+    /**
+     * Key prefixer consistent with the lineComparator, e.g. {@link com.htyleo.extsort.common.NaturalOrderKeyPrefixer}
+     * for the default comparator. If set, every line gets a normalized 8-byte prefix, both the in-memory sort of slices
+     * and the merge compare the prefixes first, and only call the lineComparator on ties.
+     * Ignored in byte mode, and by the slice sort if the lineComparator is the default (which is radix sorted).
+     * By default (i.e. null), lines are only compared by the lineComparator.
+     */
+    private KeyPrefixer        keyPrefixer            = null;
+
+    /**
+     * Whether duplicate lines are removed (like "sort -u"), i.e. only the first of the lines equal by the lineComparator
+     * (or equal as bytes in byte mode) is kept. Duplicates are dropped from every sorted file before it is written,
+     * and again during the merge. Ignored if a lineCombiner is set. By default, all lines are kept.
+     */
+    private boolean            unique                 = false;
+
+    /**
+     * Maximum number of body lines in the result (like "sort | head -n"), i.e. only the first limit lines in sorted order
+     * (after removing duplicates or combining lines) are kept. Every sorted file keeps at most limit lines, and the merge
+     * stops once limit lines are written. By default (i.e. 0), all lines are kept.
+     */
+    private long               limit                  = 0;
+
+    /**
+     * Whether lines are sorted as raw bytes instead of Strings.
+     * If true, lines are kept as bytes in both the partition and merge phases and compared lexicographically as unsigned bytes,
+     * without decoding and encoding. The lineComparator is ignored, and lines are only decoded if a lineFilter other than the default is set.
+     * For UTF-8 (and ASCII), the order is the same as comparing the code points of the lines.
+     * Only supported by encodings in which "\n" and "\r" are single bytes (e.g. UTF-8).
+     * By default, lines are decoded and sorted as Strings.
+     */
+    private boolean            byteMode               = false;
+
+    /**
+     * Codec of the intermediate sorted files (i.e. the body files and the files of intermediate merge passes),
+     * e.g. {@link com.htyleo.extsort.common.BlockRunCodec} (fast) or {@link com.htyleo.extsort.common.DeflateRunCodec} (better ratio).
+     * Compressing them reduces the disk I/O of both phases. The parallel final merge is not supported for compressed files.
+     * By default (i.e. null), the intermediate files are plain text.
+     */
+    private RunCodec           runCodec               = null;
+
+    /**
+     * Format of the intermediate sorted files. In {@link RunFormat#BINARY}, every line is prefixed by its length,
+     * so lines are read without scanning for line separators, and a sparse index of blocks allows the parallel
+     * final merge to locate the key ranges without binary searching the text. The header, tail and output files are always text.
+     * By default, the intermediate files are text.
+     */
+    private RunFormat          runFormat              = RunFormat.TEXT;
+
+    /** Block size of the intermediate files in {@link RunFormat#BINARY}, i.e. the granularity of the sparse index, default is 64 KB */
+    private int                runBlockSize           = 64 * 1024;
+
+    /** The algorithm used to merge the sorted files. By default, a loser tree is used. */
+    private MergeEngine        mergeEngine            = MergeEngine.LOSER_TREE;
+
+    /**
+     * Maximum number of sorted files merged at once. If there are more body files than this,
+     * groups of them are first merged into intermediate files (concurrently, by the executor),
+     * until the final pass needs to open no more than maxMergeFanIn files.
+     * Limiting the fan-in allows using a larger bufferSize for each file.
+     * By default (i.e. 0), all body files are merged in a single pass.
+     */
+    private int                maxMergeFanIn          = 0;
+
+    /**
+     * Number of key ranges merged concurrently (by the executor) in the final merge pass.
+     * Splitter keys are sampled from the sorted files, and each key range is merged into a separate segment,
+     * the segments are then concatenated into the output file. The output is identical to the serial merge.
+     * Only supported by encodings in which "\n" and "\r" are single bytes (e.g. UTF-8), otherwise the merge is serial.
+     * By default (i.e. 1), the final merge is performed serially.
+     */
+    private int                mergeParallelism       = 1;
+
+    /**
+     * Number of body lines between two entries of the sparse index of the output file. If set, the final merge records
+     * every outputIndexInterval-th line and its offset into a sidecar file (see {@link SortedFileLookup#getIndexFile(java.io.File)}),
+     * which allows {@link SortedFileLookup} to binary search the output. The final merge is then performed serially.
+     * By default (i.e. 0), no index is written.
+     */
+    private int                outputIndexInterval    = 0;
+
+    /**
+     * Memory used to read the sorted files ahead during each merge pass, shared by all the files merged at once.
+     * Each file is double buffered: while the merge consumes one block, the next block is read by the ioExecutor,
+     * so the merge does not stall on the disk whenever a buffer empties. Files are read synchronously if the memory
+     * gives each file less than two 4 KB blocks. By default (i.e. 0), there is no read-ahead.
+     */
+    private long               readAheadMemory        = 0;
+
+    /**
+     * Number of buffers (of bufferSize each) of every file written behind. The sorting or merging thread fills a buffer
+     * and goes on with the next one while the filled buffer is written by the ioExecutor; when all buffers are being
+     * written, the thread waits, so the memory used by each file is bounded. Should be at least 2 if set.
+     * By default (i.e. 0), files are written synchronously.
+     */
+    private int                writeBehindBuffers     = 0;
+
+    /**
+     * ExecutorService used to run the CPU-bound tasks (sorting slices and merging) in parallel, e.g. a ForkJoinPool.
+     * An executor given by the caller is never shut down by the sorting.
+     * By default (i.e. null), {@link ExecutorUtil#defaultExecutor()} is used, which has one daemon thread per processor.
+     */
+    private ExecutorService    executor               = null;
+
+    /**
+     * ExecutorService used to run the blocking I/O tasks (reading files ahead and writing files behind), e.g. a virtual
+     * thread executor. It must be different from the executor, since the tasks of the executor wait for the tasks of
+     * the ioExecutor. An executor given by the caller is never shut down by the sorting.
+     * By default (i.e. null), {@link ExecutorUtil#defaultIoExecutor()} is used, which uses virtual threads on JDK 21+.
+     */
+    private ExecutorService    ioExecutor             = null;
+
+    /**
+     * Number of CPU-bound tasks expected to run at once, which decides the number of parts in replacement selection
+     * and how the memory budget is divided. By default (i.e. 0), it is derived from the executor,
+     * see {@link ExecutorUtil#getParallelism(ExecutorService)}.
+     */
+    private int                parallelism            = 0;
+
+    /** Listener of the progress and metrics of sorting, which should be thread-safe. By default, events are ignored. */
+    private SortListener       sortListener           = NO_OP_SORT_LISTENER;
 
     /**
      * Getter method for property <tt>encoding</tt>.
@@ -118,6 +271,42 @@ public class ExternalSortConfig {
         this.sliceSize = sliceSize;
     }
 
+    /**
+     * Getter method for property <tt>runGeneration</tt>.
+     *
+     * @return property value of runGeneration
+     */
+    public RunGeneration getRunGeneration() {
+        return runGeneration;
+    }
+
+    /**
+     * Setter method for property <tt>runGeneration</tt>.
+     *
+     * @param runGeneration value to be assigned to property runGeneration
+     */
+    public void setRunGeneration(RunGeneration runGeneration) {
+        this.runGeneration = runGeneration;
+    }
+
+    /**
+     * Getter method for property <tt>memoryBudget</tt>.
+     *
+     * @return property value of memoryBudget
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Setter method for property <tt>memoryBudget</tt>.
+     *
+     * @param memoryBudget value to be assigned to property memoryBudget
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
     /**
      * Getter method for property <tt>headerLines</tt>.
      *
@@ -208,6 +397,24 @@ public class ExternalSortConfig {
         this.lineFilter = lineFilter;
     }
 
+    /**
+     * Getter method for property <tt>lineCombiner</tt>.
+     *
+     * @return property value of lineCombiner
+     */
+    public LineCombiner getLineCombiner() {
+        return lineCombiner;
+    }
+
+    /**
+     * Setter method for property <tt>lineCombiner</tt>.
+     *
+     * @param lineCombiner value to be assigned to property lineCombiner
+     */
+    public void setLineCombiner(LineCombiner lineCombiner) {
+        this.lineCombiner = lineCombiner;
+    }
+
     /**
      * Getter method for property <tt>lineComparator</tt>.
      *
@@ -226,13 +433,247 @@ public class ExternalSortConfig {
         this.lineComparator = lineComparator;
     }
 
+    /**
+     * Getter method for property <tt>keyPrefixer</tt>.
+     *
+     * @return property value of keyPrefixer
+     */
+    public KeyPrefixer getKeyPrefixer() {
+        return keyPrefixer;
+    }
+
+    /**
+     * Setter method for property <tt>keyPrefixer</tt>.
+     *
+     * @param keyPrefixer value to be assigned to property keyPrefixer
+     */
+    public void setKeyPrefixer(KeyPrefixer keyPrefixer) {
+        this.keyPrefixer = keyPrefixer;
+    }
+
+    /**
+     * Getter method for property <tt>unique</tt>.
+     *
+     * @return property value of unique
+     */
+    public boolean getUnique() {
+        return unique;
+    }
+
+    /**
+     * Setter method for property <tt>unique</tt>.
+     *
+     * @param unique value to be assigned to property unique
+     */
+    public void setUnique(boolean unique) {
+        this.unique = unique;
+    }
+
+    /**
+     * Getter method for property <tt>limit</tt>.
+     *
+     * @return property value of limit
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Setter method for property <tt>limit</tt>.
+     *
+     * @param limit value to be assigned to property limit
+     */
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Getter method for property <tt>byteMode</tt>.
+     *
+     * @return property value of byteMode
+     */
+    public boolean getByteMode() {
+        return byteMode;
+    }
+
+    /**
+     * Setter method for property <tt>byteMode</tt>.
+     *
+     * @param byteMode value to be assigned to property byteMode
+     */
+    public void setByteMode(boolean byteMode) {
+        this.byteMode = byteMode;
+    }
+
+    /**
+     * Getter method for property <tt>runCodec</tt>.
+     *
+     * @return property value of runCodec
+     */
+    public RunCodec getRunCodec() {
+        return runCodec;
+    }
+
+    /**
+     * Setter method for property <tt>runCodec</tt>.
+     *
+     * @param runCodec value to be assigned to property runCodec
+     */
+    public void setRunCodec(RunCodec runCodec) {
+        this.runCodec = runCodec;
+    }
+
+    /**
+     * Getter method for property <tt>runFormat</tt>.
+     *
+     * @return property value of runFormat
+     */
+    public RunFormat getRunFormat() {
+        return runFormat;
+    }
+
+    /**
+     * Setter method for property <tt>runFormat</tt>.
+     *
+     * @param runFormat value to be assigned to property runFormat
+     */
+    public void setRunFormat(RunFormat runFormat) {
+        this.runFormat = runFormat;
+    }
+
+    /**
+     * Getter method for property <tt>runBlockSize</tt>.
+     *
+     * @return property value of runBlockSize
+     */
+    public int getRunBlockSize() {
+        return runBlockSize;
+    }
+
+    /**
+     * Setter method for property <tt>runBlockSize</tt>.
+     *
+     * @param runBlockSize value to be assigned to property runBlockSize
+     */
+    public void setRunBlockSize(int runBlockSize) {
+        this.runBlockSize = runBlockSize;
+    }
+
+    /**
+     * Getter method for property <tt>mergeEngine</tt>.
+     *
+     * @return property value of mergeEngine
+     */
+    public MergeEngine getMergeEngine() {
+        return mergeEngine;
+    }
+
+    /**
+     * Setter method for property <tt>mergeEngine</tt>.
+     *
+     * @param mergeEngine value to be assigned to property mergeEngine
+     */
+    public void setMergeEngine(MergeEngine mergeEngine) {
+        this.mergeEngine = mergeEngine;
+    }
+
+    /**
+     * Getter method for property <tt>maxMergeFanIn</tt>.
+     *
+     * @return property value of maxMergeFanIn
+     */
+    public int getMaxMergeFanIn() {
+        return maxMergeFanIn;
+    }
+
+    /**
+     * Setter method for property <tt>maxMergeFanIn</tt>.
+     *
+     * @param maxMergeFanIn value to be assigned to property maxMergeFanIn
+     */
+    public void setMaxMergeFanIn(int maxMergeFanIn) {
+        this.maxMergeFanIn = maxMergeFanIn;
+    }
+
+    /**
+     * Getter method for property <tt>mergeParallelism</tt>.
+     *
+     * @return property value of mergeParallelism
+     */
+    public int getMergeParallelism() {
+        return mergeParallelism;
+    }
+
+    /**
+     * Setter method for property <tt>mergeParallelism</tt>.
+     *
+     * @param mergeParallelism value to be assigned to property mergeParallelism
+     */
+    public void setMergeParallelism(int mergeParallelism) {
+        this.mergeParallelism = mergeParallelism;
+    }
+
+    /**
+     * Getter method for property <tt>outputIndexInterval</tt>.
+     *
+     * @return property value of outputIndexInterval
+     */
+    public int getOutputIndexInterval() {
+        return outputIndexInterval;
+    }
+
+    /**
+     * Setter method for property <tt>outputIndexInterval</tt>.
+     *
+     * @param outputIndexInterval value to be assigned to property outputIndexInterval
+     */
+    public void setOutputIndexInterval(int outputIndexInterval) {
+        this.outputIndexInterval = outputIndexInterval;
+    }
+
+    /**
+     * Getter method for property <tt>readAheadMemory</tt>.
+     *
+     * @return property value of readAheadMemory
+     */
+    public long getReadAheadMemory() {
+        return readAheadMemory;
+    }
+
+    /**
+     * Setter method for property <tt>readAheadMemory</tt>.
+     *
+     * @param readAheadMemory value to be assigned to property readAheadMemory
+     */
+    public void setReadAheadMemory(long readAheadMemory) {
+        this.readAheadMemory = readAheadMemory;
+    }
+
+    /**
+     * Getter method for property <tt>writeBehindBuffers</tt>.
+     *
+     * @return property value of writeBehindBuffers
+     */
+    public int getWriteBehindBuffers() {
+        return writeBehindBuffers;
+    }
+
+    /**
+     * Setter method for property <tt>writeBehindBuffers</tt>.
+     *
+     * @param writeBehindBuffers value to be assigned to property writeBehindBuffers
+     */
+    public void setWriteBehindBuffers(int writeBehindBuffers) {
+        this.writeBehindBuffers = writeBehindBuffers;
+    }
+
     /**
      * Getter method for property <tt>executor</tt>.
      *
-     * @return property value of executor
+     * @return property value of executor, or the default executor if it is not set
      */
-    public ThreadPoolExecutor getExecutor() {
-        return executor;
+    public ExecutorService getExecutor() {
+        return executor != null ? executor : ExecutorUtil.defaultExecutor();
     }
 
     /**
@@ -240,7 +681,61 @@ public class ExternalSortConfig {
      *
      * @param executor value to be assigned to property executor
      */
-    public void setExecutor(ThreadPoolExecutor executor) {
+    public void setExecutor(ExecutorService executor) {
         this.executor = executor;
     }
+
+    /**
+     * Getter method for property <tt>ioExecutor</tt>.
+     *
+     * @return property value of ioExecutor, or the default I/O executor if it is not set
+     */
+    public ExecutorService getIoExecutor() {
+        return ioExecutor != null ? ioExecutor : ExecutorUtil.defaultIoExecutor();
+    }
+
+    /**
+     * Setter method for property <tt>ioExecutor</tt>.
+     *
+     * @param ioExecutor value to be assigned to property ioExecutor
+     */
+    public void setIoExecutor(ExecutorService ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Getter method for property <tt>parallelism</tt>.
+     *
+     * @return property value of parallelism, or the parallelism of the executor if it is not set
+     */
+    public int getParallelism() {
+        return parallelism > 0 ? parallelism : ExecutorUtil.getParallelism(getExecutor());
+    }
+
+    /**
+     * Setter method for property <tt>parallelism</tt>.
+     *
+     * @param parallelism value to be assigned to property parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Getter method for property <tt>sortListener</tt>.
+     *
+     * @return property value of sortListener
+     */
+    public SortListener getSortListener() {
+        return sortListener;
+    }
+
+    /**
+     * Setter method for property <tt>sortListener</tt>.
+     *
+     * @param sortListener value to be assigned to property sortListener
+     */
+    public void setSortListener(SortListener sortListener) {
+        this.sortListener = sortListener;
+    }
 }
@@ -4,11 +4,26 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
 
+import com.htyleo.extsort.common.BinaryRunIndex;
+import com.htyleo.extsort.common.BinaryRunReader;
+import com.htyleo.extsort.common.ByteLine;
+import com.htyleo.extsort.common.ByteLineReader;
+import com.htyleo.extsort.common.FileSlice;
+import com.htyleo.extsort.common.KeyPrefixer;
+import com.htyleo.extsort.common.LoserTree;
+import com.htyleo.extsort.common.MergeEngine;
+import com.htyleo.extsort.common.RandomAccessFileInputStream;
+import com.htyleo.extsort.common.ReadAheadInputStream;
+import com.htyleo.extsort.common.RunCodec;
+import com.htyleo.extsort.common.RunFormat;
+import com.htyleo.extsort.common.RunReader;
 import com.htyleo.extsort.util.IOUtil;
 
 /**
@@ -24,6 +39,15 @@ public class GroupSortedFileReader {
     /** default buffer size 8 KB */
     private static final int           DEFAULT_BUFFER_SIZE = 8 * 1024;
 
+    /** default merge engine */
+    private static final MergeEngine   DEFAULT_ENGINE      = MergeEngine.LOSER_TREE;
+
+    /** minimum block size of read-ahead, files are read synchronously if the memory only allows smaller blocks */
+    static final int                   MIN_READ_AHEAD_BLOCK_SIZE = 4 * 1024;
+
+    /** maximum block size of read-ahead 4 MB */
+    private static final int           MAX_READ_AHEAD_BLOCK_SIZE = 4 * 1024 * 1024;
+
     /** file encoding used for reading files */
     private String                     encoding;
 
@@ -33,12 +57,75 @@ public class GroupSortedFileReader {
     /** file list */
     private List<File>                 files;
 
+    /** the part of each file to be read, null means reading the whole files */
+    private List<FileSlice>            ranges;
+
     /** readers */
     private BufferedReader[]           readers;
 
-    /** always pop the first line */
+    /** line comparator */
+    private Comparator<String>         lineComparator;
+
+    /** merge engine */
+    private MergeEngine                engine;
+
+    /** always pop the first line, only used by PRIORITY_QUEUE engine */
     private PriorityQueue<LineWrapper> minHeap;
 
+    /** current line of each file (null if exhausted), only used by LOSER_TREE engine */
+    private String[]                   lines;
+
+    /** flipped key prefix of the current line of each file, only used by LOSER_TREE engine with a key prefixer */
+    private long[]                     prefixes;
+
+    /** key prefixer, null means lines are only compared by the line comparator */
+    private KeyPrefixer                keyPrefixer;
+
+    /** loser tree over the current lines, only used by LOSER_TREE engine */
+    private LoserTree                  loserTree;
+
+    /** whether lines are read and compared as raw bytes */
+    private boolean                    byteMode;
+
+    /** byte readers, used in byte mode or if the files are in binary format */
+    private RunReader[]                byteReaders;
+
+    /** current line of each file (null if exhausted), only used in byte mode */
+    private ByteLine[]                 byteLines;
+
+    /** indexes of files ordered by their current lines, only used in byte mode by PRIORITY_QUEUE engine */
+    private PriorityQueue<Integer>     indexHeap;
+
+    /** index of the file whose current line has been returned but not yet advanced, only used in byte mode */
+    private int                        pendingIndex        = -1;
+
+    /** encoded line returned by readLineBytes when not in byte mode */
+    private ByteLine                   encodedLine;
+
+    /** codec of the files, null means plain files */
+    private RunCodec                   runCodec;
+
+    /** format of the files */
+    private RunFormat                  runFormat           = RunFormat.TEXT;
+
+    /** whether the lines equal to the line returned last time are skipped */
+    private boolean                    unique;
+
+    /** the line returned last time, only used in unique mode */
+    private String                     lastLine;
+
+    /** the line returned last time as bytes, only used in unique mode and byte mode */
+    private byte[]                     lastBytes;
+
+    /** length of the line returned last time as bytes */
+    private int                        lastLength;
+
+    /** executor which reads the files ahead, null means the files are read synchronously */
+    private Executor                   readAheadExecutor;
+
+    /** block size of read-ahead, each file holds two blocks */
+    private int                        readAheadBlockSize;
+
     /**
      * Create a GroupSortedFileReader, using default encoding and default buffer size
      *
@@ -71,16 +158,69 @@ public class GroupSortedFileReader {
      */
     public GroupSortedFileReader(List<File> files, final Comparator<String> lineComparator,
                                  String encoding, int bufferSize) {
+        this(files, lineComparator, encoding, bufferSize, DEFAULT_ENGINE);
+    }
+
+    /**
+     * Create a GroupSortedFileReader, using the encoding, buffer size, line comparator, key prefixer, merge engine, byte mode, unique mode, run codec and run format of the config
+     *
+     * @param files Input files
+     * @param config sorting configuration
+     */
+    public GroupSortedFileReader(List<File> files, ExternalSortConfig config) {
+        this(files, null, config);
+    }
+
+    /**
+     * Create a GroupSortedFileReader which only reads part of each file,
+     * using the encoding, buffer size, line comparator, key prefixer, merge engine, byte mode, unique mode, run codec and run format of the config
+     *
+     * @param files Input files
+     * @param ranges The part of each file to be read, ranges.get(i) is the part of files.get(i). Each range must begin at the beginning of a line (or a record of binary format). Not supported if the files are compressed by a run codec
+     * @param config sorting configuration
+     */
+    public GroupSortedFileReader(List<File> files, List<FileSlice> ranges,
+                                 ExternalSortConfig config) {
+        this(files, config.getLineComparator(), config.getEncoding(), config.getBufferSize(),
+            config.getMergeEngine());
+        this.ranges = ranges;
+        this.byteMode = config.getByteMode();
+        this.runCodec = config.getRunCodec();
+        this.runFormat = config.getRunFormat();
+        this.keyPrefixer = config.getKeyPrefixer();
+        this.unique = config.getUnique() && config.getLineCombiner() == null;
+        if (ranges != null && runCodec != null) {
+            throw new IllegalArgumentException("Ranges are not supported by compressed files");
+        }
+        readAhead(config.getReadAheadMemory(), config.getIoExecutor());
+    }
+
+    /**
+     * Create a GroupSortedFileReader
+     *
+     * @param files Input files
+     * @param lineComparator Line comparator
+     * @param encoding File encoding used for reading files
+     * @param bufferSize Buffer size used for reading each file
+     * @param engine Merge engine
+     */
+    public GroupSortedFileReader(List<File> files, final Comparator<String> lineComparator,
+                                 String encoding, int bufferSize, MergeEngine engine) {
         this.files = files;
         this.encoding = encoding;
         this.bufferSize = bufferSize;
+        this.lineComparator = lineComparator;
+        this.engine = engine;
         this.readers = new BufferedReader[files.size()];
-        this.minHeap = new PriorityQueue<LineWrapper>(files.size(), new Comparator<LineWrapper>() {
-            @Override
-            public int compare(LineWrapper w1, LineWrapper w2) {
-                return lineComparator.compare(w1.line, w2.line);
-            }
-        });
+        if (engine == MergeEngine.PRIORITY_QUEUE) {
+            this.minHeap = new PriorityQueue<LineWrapper>(Math.max(1, files.size()),
+                new Comparator<LineWrapper>() {
+                    @Override
+                    public int compare(LineWrapper w1, LineWrapper w2) {
+                        return compareLines(w1.line, w1.prefix, w2.line, w2.prefix);
+                    }
+                });
+        }
     }
 
     /**
@@ -90,6 +230,35 @@ public class GroupSortedFileReader {
      * @throws IOException If an I/O error occurs
      */
     public String readLine() throws IOException {
+        if (byteMode) {
+            ByteLine line = readLineBytes();
+            return line == null ? null : new String(line.getBuffer(), line.getOffset(),
+                line.getLength(), encoding);
+        }
+
+        String line = nextLine();
+        if (unique) {
+            // skip the lines equal to the line returned last time
+            while (line != null && lastLine != null
+                   && lineComparator.compare(lastLine, line) == 0) {
+                line = nextLine();
+            }
+            lastLine = line;
+        }
+        return line;
+    }
+
+    /**
+     * Read next line without removing duplicates, not used in byte mode
+     *
+     * @return Next line
+     * @throws IOException If an I/O error occurs
+     */
+    private String nextLine() throws IOException {
+        if (engine == MergeEngine.LOSER_TREE) {
+            return readLineFromLoserTree();
+        }
+
         if (minHeap.isEmpty()) {
             for (int i = 0; i < readers.length; i++) {
                 String line = readLine(i);
@@ -109,6 +278,206 @@ public class GroupSortedFileReader {
         return lineWrapper.line;
     }
 
+    /**
+     * Read next line as bytes. In byte mode, lines are compared lexicographically as unsigned bytes,
+     * otherwise they are decoded, compared by the line comparator and encoded again.
+     *
+     * @return Next line, or null if all files are exhausted. The returned line is only valid until the next read
+     * @throws IOException If an I/O error occurs
+     */
+    public ByteLine readLineBytes() throws IOException {
+        if (!byteMode) {
+            String line = readLine();
+            if (line == null) {
+                return null;
+            }
+            byte[] bytes = line.getBytes(encoding);
+            if (encodedLine == null) {
+                encodedLine = new ByteLine();
+            }
+            encodedLine.set(bytes, 0, bytes.length);
+            return encodedLine;
+        }
+
+        ByteLine line = nextLineBytes();
+        if (unique) {
+            // skip the lines equal to the line returned last time
+            while (line != null && lastBytes != null
+                   && ByteLine.compare(lastBytes, 0, lastLength, line.getBuffer(),
+                       line.getOffset(), line.getLength()) == 0) {
+                line = nextLineBytes();
+            }
+            if (line != null) {
+                if (lastBytes == null || lastBytes.length < line.getLength()) {
+                    lastBytes = new byte[Math.max(16, line.getLength() * 2)];
+                }
+                System.arraycopy(line.getBuffer(), line.getOffset(), lastBytes, 0,
+                    line.getLength());
+                lastLength = line.getLength();
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Read next line as bytes without removing duplicates, only used in byte mode
+     *
+     * @return Next line, or null if all files are exhausted. The returned line is only valid until the next read
+     * @throws IOException If an I/O error occurs
+     */
+    private ByteLine nextLineBytes() throws IOException {
+        if (files.isEmpty()) {
+            return null;
+        }
+
+        if (byteLines == null) {
+            initByteMerge();
+        } else if (pendingIndex >= 0) {
+            // the line returned last time has been consumed, advance its file
+            byteLines[pendingIndex] = readByteLine(pendingIndex);
+            if (loserTree != null) {
+                loserTree.replay();
+            } else if (byteLines[pendingIndex] != null) {
+                indexHeap.add(pendingIndex);
+            }
+            pendingIndex = -1;
+        }
+
+        int fileIndex;
+        if (loserTree != null) {
+            fileIndex = loserTree.winner();
+        } else {
+            fileIndex = indexHeap.isEmpty() ? -1 : indexHeap.remove();
+        }
+        if (fileIndex < 0) {
+            return null;
+        }
+
+        pendingIndex = fileIndex;
+        return byteLines[fileIndex];
+    }
+
+    /**
+     * Read the first line of each file and build the loser tree or heap, only used in byte mode
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void initByteMerge() throws IOException {
+        byteLines = new ByteLine[files.size()];
+        for (int i = 0; i < byteLines.length; i++) {
+            byteLines[i] = readByteLine(i);
+        }
+
+        if (engine == MergeEngine.LOSER_TREE) {
+            loserTree = new LoserTree(byteLines.length, new LoserTree.Contestants() {
+                @Override
+                public boolean isExhausted(int source) {
+                    return byteLines[source] == null;
+                }
+
+                @Override
+                public int compare(int source1, int source2) {
+                    return ByteLine.compare(byteLines[source1], byteLines[source2]);
+                }
+            });
+        } else {
+            indexHeap = new PriorityQueue<Integer>(byteLines.length, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return ByteLine.compare(byteLines[i1], byteLines[i2]);
+                }
+            });
+            for (int i = 0; i < byteLines.length; i++) {
+                if (byteLines[i] != null) {
+                    indexHeap.add(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Let byteReaders[fileIndex] read next line
+     *
+     * @param fileIndex Index of file
+     * @return A line read by byteReaders[fileIndex], or null if the file is exhausted
+     * @throws IOException If an I/O error occurs
+     */
+    private ByteLine readByteLine(int fileIndex) throws IOException {
+        if (byteReaders == null) {
+            byteReaders = new RunReader[files.size()];
+        }
+        if (byteReaders[fileIndex] == null) {
+            byteReaders[fileIndex] = openRunReader(fileIndex);
+        }
+        return byteReaders[fileIndex].readLine();
+    }
+
+    /**
+     * Open the byte reader of a file (or the part of file to be read)
+     *
+     * @param fileIndex Index of file
+     * @return the reader
+     * @throws IOException If an I/O error occurs
+     */
+    private RunReader openRunReader(int fileIndex) throws IOException {
+        if (runFormat != RunFormat.BINARY) {
+            return new ByteLineReader(openStream(fileIndex), bufferSize);
+        }
+
+        if (ranges == null) {
+            return new BinaryRunReader(openStream(fileIndex), bufferSize);
+        }
+
+        int blockSize = BinaryRunIndex.readBlockSize(files.get(fileIndex));
+        return new BinaryRunReader(openStream(fileIndex), ranges.get(fileIndex).begin, blockSize,
+            bufferSize);
+    }
+
+    /**
+     * Read next line using the loser tree
+     *
+     * @return Next line
+     * @throws IOException If an I/O error occurs
+     */
+    private String readLineFromLoserTree() throws IOException {
+        if (loserTree == null) {
+            if (readers.length == 0) {
+                return null;
+            }
+
+            lines = new String[readers.length];
+            prefixes = new long[readers.length];
+            for (int i = 0; i < readers.length; i++) {
+                lines[i] = readLine(i);
+                prefixes[i] = prefix(lines[i]);
+            }
+            loserTree = new LoserTree(readers.length, new LoserTree.Contestants() {
+                @Override
+                public boolean isExhausted(int source) {
+                    return lines[source] == null;
+                }
+
+                @Override
+                public int compare(int source1, int source2) {
+                    return compareLines(lines[source1], prefixes[source1], lines[source2],
+                        prefixes[source2]);
+                }
+            });
+        }
+
+        int fileIndex = loserTree.winner();
+        if (fileIndex < 0) {
+            return null;
+        }
+
+        String line = lines[fileIndex];
+        lines[fileIndex] = readLine(fileIndex);
+        prefixes[fileIndex] = prefix(lines[fileIndex]);
+        loserTree.replay();
+
+        return line;
+    }
+
     /**
      * Let readers[fileIndex] read next line
      *
@@ -117,6 +486,12 @@ public class GroupSortedFileReader {
      * @throws IOException If an I/O error occurs
      */
     private String readLine(int fileIndex) throws IOException {
+        if (runFormat == RunFormat.BINARY) {
+            ByteLine line = readByteLine(fileIndex);
+            return line == null ? null : new String(line.getBuffer(), line.getOffset(),
+                line.getLength(), encoding);
+        }
+
         ensureReaderReady(fileIndex);
         return readers[fileIndex].readLine();
     }
@@ -132,7 +507,61 @@ public class GroupSortedFileReader {
             return;
         }
 
-        minHeap.add(new LineWrapper(line, fileIndex));
+        minHeap.add(new LineWrapper(line, prefix(line), fileIndex));
+    }
+
+    /**
+     * Compute the flipped key prefix of a line, which can be compared as a signed long
+     *
+     * @param line A line of file, may be null
+     * @return flipped prefix, or 0 if there is no key prefixer or the line is null
+     */
+    private long prefix(String line) {
+        return keyPrefixer == null || line == null ? 0 : keyPrefixer.prefix(line) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Compare two lines by their key prefixes, and by the line comparator on ties
+     *
+     * @param line1 the first line
+     * @param prefix1 flipped prefix of the first line
+     * @param line2 the second line
+     * @param prefix2 flipped prefix of the second line
+     * @return a negative integer, zero, or a positive integer as line1 is less than, equal to, or greater than line2
+     */
+    private int compareLines(String line1, long prefix1, String line2, long prefix2) {
+        if (prefix1 != prefix2) {
+            return prefix1 < prefix2 ? -1 : 1;
+        }
+        return lineComparator.compare(line1, line2);
+    }
+
+    /**
+     * Get the number of files merged
+     *
+     * @return number of files
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * Read the files ahead in the background by double buffering, so that the merge does not stall on the disk
+     * whenever a buffer empties. Must be called before reading.
+     *
+     * @param memory memory used by the read-ahead of all files, files are read synchronously if it is too small
+     * @param executor executor which reads the files ahead, must not be the one running this reader
+     */
+    void readAhead(long memory, Executor executor) {
+        long blockSize = files.isEmpty() ? 0 : memory / (2L * files.size());
+        if (blockSize < MIN_READ_AHEAD_BLOCK_SIZE) {
+            this.readAheadExecutor = null;
+            this.readAheadBlockSize = 0;
+            return;
+        }
+
+        this.readAheadExecutor = executor;
+        this.readAheadBlockSize = (int) Math.min(blockSize, MAX_READ_AHEAD_BLOCK_SIZE);
     }
 
     /**
@@ -144,6 +573,11 @@ public class GroupSortedFileReader {
                 IOUtil.closeQuietly(reader);
             }
         }
+        if (byteReaders != null) {
+            for (RunReader reader : byteReaders) {
+                IOUtil.closeQuietly(reader);
+            }
+        }
     }
 
     /**
@@ -153,6 +587,9 @@ public class GroupSortedFileReader {
         /** A line of file */
         public final String line;
 
+        /** flipped key prefix of the line */
+        public final long   prefix;
+
         /** Index of the file that the line belongs to */
         public final int    fileIndex;
 
@@ -160,10 +597,12 @@ public class GroupSortedFileReader {
          * create a LineWrapper
          *
          * @param line A line of file
+         * @param prefix flipped key prefix of the line
          * @param fileIndex Index of the file that the line belongs to
          */
-        public LineWrapper(String line, int fileIndex) {
+        public LineWrapper(String line, long prefix, int fileIndex) {
             this.line = line;
+            this.prefix = prefix;
             this.fileIndex = fileIndex;
         }
     }
@@ -176,9 +615,40 @@ public class GroupSortedFileReader {
      */
     private void ensureReaderReady(int fileIndex) throws IOException {
         if (readers[fileIndex] == null) {
-            readers[fileIndex] = new BufferedReader(new InputStreamReader(new FileInputStream(
-                files.get(fileIndex)), encoding), bufferSize);
+            readers[fileIndex] = new BufferedReader(new InputStreamReader(openStream(fileIndex),
+                encoding), bufferSize);
+        }
+    }
+
+    /**
+     * Open the stream of a file (or the part of file to be read)
+     *
+     * @param fileIndex Index of file
+     * @return the stream
+     * @throws IOException If an I/O error occurs
+     */
+    private InputStream openStream(int fileIndex) throws IOException {
+        File file = files.get(fileIndex);
+        if (ranges == null) {
+            InputStream in = readAhead(new FileInputStream(file));
+            return runCodec == null ? in : runCodec.decompress(in);
+        }
+
+        FileSlice range = ranges.get(fileIndex);
+        return readAhead(new RandomAccessFileInputStream(file, range.begin, range.end));
+    }
+
+    /**
+     * Wrap a file stream for read-ahead, if enabled
+     *
+     * @param in file stream
+     * @return the stream read ahead in the background, or the stream itself
+     */
+    private InputStream readAhead(InputStream in) {
+        if (readAheadExecutor == null) {
+            return in;
         }
+        return new ReadAheadInputStream(in, readAheadExecutor, readAheadBlockSize);
     }
 
 }
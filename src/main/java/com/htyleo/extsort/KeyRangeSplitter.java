@@ -0,0 +1,321 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.htyleo.extsort.common.BinaryRunIndex;
+import com.htyleo.extsort.common.BinaryRunReader;
+import com.htyleo.extsort.common.ByteLine;
+import com.htyleo.extsort.common.FileSlice;
+import com.htyleo.extsort.common.RandomAccessFileInputStream;
+import com.htyleo.extsort.common.RunFormat;
+import com.htyleo.extsort.common.SliceType;
+import com.htyleo.extsort.util.IOUtil;
+import com.htyleo.extsort.util.MappedLineScanner;
+
+/**
+ * Split a group of sorted files into key ranges, so that the ranges can be merged independently.
+ *
+ * Splitter keys are sampled from the sorted files. For every splitter and every file, we locate the
+ * first line which is not less than the splitter by binary search over the file offsets.
+ * Lines equal to a splitter therefore always fall into the same range, and concatenating the merged
+ * ranges gives exactly the same result as merging the whole files.
+ *
+ * Files in {@link RunFormat#BINARY} are split by their sparse index instead: splitters are sampled from the
+ * first records of blocks, and a splitter is located by binary searching the index and then scanning one block.
+ *
+ * @author htyleo
+ */
+class KeyRangeSplitter {
+
+    /** number of samples taken from each file per range */
+    private static final int         SAMPLES_PER_RANGE = 4;
+
+    /** sorted files */
+    private final List<File>         files;
+
+    /** line comparator */
+    private final Comparator<String> lineComparator;
+
+    /** file encoding */
+    private final String             encoding;
+
+    /** format of the sorted files */
+    private final RunFormat          runFormat;
+
+    /**
+     * Create a KeyRangeSplitter
+     *
+     * @param files sorted files
+     * @param lineComparator line comparator
+     * @param encoding file encoding, which should represent "\n" and "\r" as single bytes (e.g. UTF-8) for text files
+     * @param runFormat format of the sorted files
+     */
+    KeyRangeSplitter(List<File> files, Comparator<String> lineComparator, String encoding,
+                     RunFormat runFormat) {
+        this.files = files;
+        this.lineComparator = lineComparator;
+        this.encoding = encoding;
+        this.runFormat = runFormat;
+    }
+
+    /**
+     * Whether the files in the encoding and format can be split
+     *
+     * @param encoding file encoding
+     * @param runFormat format of the sorted files
+     * @return true if the files are binary runs, or text files in which "\n" and "\r" are encoded as single bytes,
+     *         so that the line separators can be searched for byte by byte
+     * @throws IOException If the encoding is not supported
+     */
+    static boolean isSupported(String encoding, RunFormat runFormat) throws IOException {
+        return runFormat == RunFormat.BINARY
+               || Arrays.equals("\n".getBytes(encoding), new byte[] { '\n' })
+               && Arrays.equals("\r".getBytes(encoding), new byte[] { '\r' });
+    }
+
+    /**
+     * Split the files into at most the given number of key ranges
+     *
+     * @param rangeCount the expected number of key ranges
+     * @return ranges, result.get(i).get(j) is the part of files.get(j) that belongs to the i-th key range
+     * @throws IOException If an I/O error occurs
+     */
+    List<List<FileSlice>> split(int rangeCount) throws IOException {
+        List<String> splitters = sampleSplitters(rangeCount);
+
+        // bounds[j][i] is the beginning of the i-th range in the j-th file
+        long[][] bounds = new long[files.size()][];
+        for (int j = 0; j < files.size(); j++) {
+            bounds[j] = runFormat == RunFormat.BINARY ? locateBinary(files.get(j), splitters)
+                : locate(files.get(j), splitters);
+        }
+
+        List<List<FileSlice>> ranges = new ArrayList<List<FileSlice>>(splitters.size() + 1);
+        for (int i = 0; i <= splitters.size(); i++) {
+            List<FileSlice> range = new ArrayList<FileSlice>(files.size());
+            for (int j = 0; j < files.size(); j++) {
+                range.add(new FileSlice(SliceType.BODY, bounds[j][i], bounds[j][i + 1]));
+            }
+            ranges.add(range);
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Sample lines from the files and pick the splitters
+     *
+     * @param rangeCount the expected number of key ranges
+     * @return distinct splitters in ascending order, at most rangeCount - 1 of them
+     * @throws IOException If an I/O error occurs
+     */
+    private List<String> sampleSplitters(int rangeCount) throws IOException {
+        List<String> samples = new ArrayList<String>();
+        int sampleCount = rangeCount * SAMPLES_PER_RANGE;
+        for (File file : files) {
+            if (runFormat == RunFormat.BINARY) {
+                sampleIndex(file, sampleCount, samples);
+                continue;
+            }
+
+            MappedLineScanner scanner = null;
+            try {
+                scanner = new MappedLineScanner(file);
+                long length = scanner.length();
+                for (int i = 1; i <= sampleCount; i++) {
+                    nextLineBegin(scanner, length * i / (sampleCount + 1));
+                    String line = scanner.readLine(encoding);
+                    if (line != null) {
+                        samples.add(line);
+                    }
+                }
+            } finally {
+                IOUtil.closeQuietly(scanner);
+            }
+        }
+
+        Collections.sort(samples, lineComparator);
+        List<String> splitters = new ArrayList<String>(rangeCount);
+        for (int i = 1; i < rangeCount && !samples.isEmpty(); i++) {
+            String splitter = samples.get(samples.size() * i / rangeCount);
+            if (splitters.isEmpty()
+                || lineComparator.compare(splitters.get(splitters.size() - 1), splitter) < 0) {
+                splitters.add(splitter);
+            }
+        }
+
+        return splitters;
+    }
+
+    /**
+     * Sample the first records of blocks from the index of a binary run
+     *
+     * @param file sorted file in binary format
+     * @param sampleCount maximum number of samples
+     * @param samples list to which the samples are added
+     * @throws IOException If an I/O error occurs
+     */
+    private void sampleIndex(File file, int sampleCount, List<String> samples) throws IOException {
+        BinaryRunIndex index = BinaryRunIndex.read(file);
+        int size = index.size();
+        for (int i = 1; i <= Math.min(sampleCount, size); i++) {
+            int entry = (int) ((long) size * i / (Math.min(sampleCount, size) + 1));
+            samples.add(new String(index.getKey(entry), encoding));
+        }
+    }
+
+    /**
+     * Locate the splitters in a sorted file in binary format by its index
+     *
+     * @param file sorted file in binary format
+     * @param splitters splitters in ascending order
+     * @return bounds of ranges, whose length is splitters.size() + 2. The first element is the beginning of records and the last is the end of records
+     * @throws IOException If an I/O error occurs
+     */
+    private long[] locateBinary(File file, List<String> splitters) throws IOException {
+        BinaryRunIndex index = BinaryRunIndex.read(file);
+        long[] bounds = new long[splitters.size() + 2];
+        bounds[0] = index.getDataBegin();
+        bounds[bounds.length - 1] = index.getDataEnd();
+
+        // the first index entry which may be not less than the next splitter
+        int entry = 0;
+        for (int i = 0; i < splitters.size(); i++) {
+            String key = splitters.get(i);
+
+            // binary search the last entry whose first record is less than the key
+            int lo = entry;
+            int hi = index.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lineComparator.compare(new String(index.getKey(mid), encoding), key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            entry = lo;
+
+            long begin = bounds[i];
+            if (lo > 0 && index.getOffset(lo - 1) > begin) {
+                begin = index.getOffset(lo - 1);
+            }
+            bounds[i + 1] = scanBinary(file, index, begin, key);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Scan the records of a sorted file in binary format for the first one which is not less than the key
+     *
+     * @param file sorted file in binary format
+     * @param index index of the file
+     * @param begin beginning of a record, all records before which are less than the key
+     * @param key key
+     * @return beginning of the first record not less than the key, or the end of records if there is no such record
+     * @throws IOException If an I/O error occurs
+     */
+    private long scanBinary(File file, BinaryRunIndex index, long begin, String key)
+                                                                                  throws IOException {
+        BinaryRunReader reader = null;
+        try {
+            reader = new BinaryRunReader(new RandomAccessFileInputStream(file, begin,
+                index.getDataEnd()), begin, index.getBlockSize(), index.getBlockSize());
+            for (ByteLine line; (line = reader.readLine()) != null;) {
+                String record = new String(line.getBuffer(), line.getOffset(), line.getLength(),
+                    encoding);
+                if (lineComparator.compare(record, key) >= 0) {
+                    return reader.getRecordOffset();
+                }
+            }
+            return index.getDataEnd();
+
+        } finally {
+            IOUtil.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Locate the splitters in a sorted file
+     *
+     * @param file sorted file
+     * @param splitters splitters in ascending order
+     * @return bounds of ranges, whose length is splitters.size() + 2. The first element is 0 and the last is the file length
+     * @throws IOException If an I/O error occurs
+     */
+    private long[] locate(File file, List<String> splitters) throws IOException {
+        MappedLineScanner scanner = null;
+        try {
+            scanner = new MappedLineScanner(file);
+            long[] bounds = new long[splitters.size() + 2];
+            bounds[bounds.length - 1] = scanner.length();
+            for (int i = 0; i < splitters.size(); i++) {
+                bounds[i + 1] = lowerBound(scanner, bounds[i], splitters.get(i));
+            }
+            return bounds;
+
+        } finally {
+            IOUtil.closeQuietly(scanner);
+        }
+    }
+
+    /**
+     * Binary search the beginning of the first line which is not less than the key
+     *
+     * @param scanner scanner of the sorted file
+     * @param begin beginning of a line, all lines before which are less than the key
+     * @param key key
+     * @return beginning of the first line not less than the key, or the file length if there is no such line
+     * @throws IOException If an I/O error occurs
+     */
+    private long lowerBound(MappedLineScanner scanner, long begin, String key)
+                                                                                throws IOException {
+        // invariant: lo is the beginning of a line, all lines before lo are less than the key,
+        // and the first line beginning at or after hi is not less than the key (or there is no such line)
+        long lo = begin;
+        long hi = scanner.length();
+        while (lo < hi) {
+            long mid = lo + (hi - lo) / 2;
+            long pos = nextLineBegin(scanner, mid);
+            if (pos >= hi) {
+                hi = mid;
+                continue;
+            }
+
+            String line = scanner.readLine(encoding);
+            if (lineComparator.compare(line, key) < 0) {
+                lo = scanner.getPosition();
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Move the pointer of the scanner to the beginning of the first line at or after the given position
+     *
+     * @param scanner scanner of the file
+     * @param pos the given position
+     * @return the beginning of the line, or the file length if there is no such line
+     * @throws IOException If an I/O error occurs
+     */
+    private static long nextLineBegin(MappedLineScanner scanner, long pos) throws IOException {
+        if (pos <= 0) {
+            scanner.seek(0);
+        } else {
+            scanner.seek(pos - 1);
+            scanner.skipNextLine();
+        }
+        return scanner.getPosition();
+    }
+
+}
@@ -59,4 +59,19 @@ public class PartitionResult {
         return tail;
     }
 
+    /**
+     * Delete the header, body and tail files
+     */
+    public void delete() {
+        if (header != null) {
+            header.delete();
+        }
+        for (File body : bodies) {
+            body.delete();
+        }
+        if (tail != null) {
+            tail.delete();
+        }
+    }
+
 }
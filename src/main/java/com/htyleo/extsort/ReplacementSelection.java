@@ -0,0 +1,255 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.htyleo.extsort.common.ByteLine;
+import com.htyleo.extsort.common.ByteLineReader;
+import com.htyleo.extsort.common.LineFilter;
+import com.htyleo.extsort.common.RunWriter;
+import com.htyleo.extsort.common.SliceType;
+import com.htyleo.extsort.util.IOUtil;
+
+/**
+ * Generate sorted files (runs) from a slice of file by replacement selection.
+ *
+ * The lines are kept in a heap ordered by (run number, line), which holds at most memory bytes of lines.
+ * The smallest line is written to the current run and replaced by the next line of the slice.
+ * If the next line is less than the line just written, it can not be appended to the current run,
+ * so it is tagged with the next run number. The current run ends when the heap only holds lines of the next run.
+ *
+ * @author htyleo
+ */
+class ReplacementSelection {
+
+    /** name of the source file, used to name the runs */
+    private final String                     sourceName;
+
+    /** output directory */
+    private final File                       dstDir;
+
+    /** sorting configuration */
+    private final ExternalSortConfig         config;
+
+    /** maximum number of bytes of lines held in the heap */
+    private final long                       memory;
+
+    /** line filter, null if all lines are concerned */
+    private final LineFilter                 lineFilter;
+
+    /** whether lines are kept and compared as raw bytes */
+    private final boolean                    byteMode;
+
+    /** heap of lines ordered by (run number, line) */
+    private final PriorityQueue<HeapEntry>   heap;
+
+    /** number of lines added to the heap, which breaks ties so that equal lines keep their order */
+    private long                             sequence;
+
+    /**
+     * Create a ReplacementSelection
+     *
+     * @param sourceName name of the source file, used to name the runs
+     * @param dstDir output directory
+     * @param config sorting configuration
+     * @param memory maximum number of bytes of lines held in the heap
+     */
+    ReplacementSelection(String sourceName, File dstDir, ExternalSortConfig config, long memory) {
+        this.sourceName = sourceName;
+        this.dstDir = dstDir;
+        this.config = config;
+        this.memory = memory;
+        this.byteMode = config.getByteMode();
+
+        LineFilter filter = config.getLineFilter();
+        this.lineFilter = filter == ExternalSortConfig.ACCEPT_ALL_LINE_FILTER ? null : filter;
+
+        final Comparator<String> lineComparator = config.getLineComparator();
+        this.heap = new PriorityQueue<HeapEntry>(1024, new Comparator<HeapEntry>() {
+            @Override
+            public int compare(HeapEntry e1, HeapEntry e2) {
+                if (e1.run != e2.run) {
+                    return e1.run < e2.run ? -1 : 1;
+                }
+                int c = compareLines(e1, e2, lineComparator);
+                if (c != 0) {
+                    return c;
+                }
+                return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Generate the runs of the body lines of a stream
+     *
+     * @param in stream of body lines, which will be closed after this operation
+     * @param position position of the stream in the source, used to name the runs
+     * @return runs in order
+     * @throws IOException If an I/O error occurs
+     */
+    List<File> generate(InputStream in, long position) throws IOException {
+        dstDir.mkdirs();
+        boolean unique = config.getUnique() && config.getLineCombiner() == null;
+        Comparator<String> lineComparator = config.getLineComparator();
+        List<File> runs = new ArrayList<File>();
+        ByteLineReader reader = null;
+        RunWriter writer = null;
+        try {
+            reader = new ByteLineReader(in, config.getBufferSize());
+
+            long begin = System.nanoTime();
+            long bytes = 0;
+            long lines = 0;
+            long held = fill(reader, 0, null);
+            HeapEntry last = null;
+            for (HeapEntry entry; (entry = heap.poll()) != null; last = entry) {
+                held -= entry.size;
+                if (last == null || entry.run != last.run) {
+                    // the heap only holds lines of the next run, start it
+                    if (writer != null) {
+                        writer.close();
+                        writer = null;
+                        begin = reportRun(runs.get(runs.size() - 1), bytes, lines, begin);
+                        bytes = 0;
+                        lines = 0;
+                    }
+                    File run = new File(dstDir, String.format("%s-%s-%s-%s.txt", sourceName,
+                        SliceType.BODY, position, entry.run));
+                    runs.add(run);
+                    writer = ExternalSort.openRunWriter(run, config);
+                }
+
+                if (!unique || last == null || entry.run != last.run
+                    || compareLines(entry, last, lineComparator) != 0) {
+                    if (byteMode) {
+                        writer.writeLine(entry.bytes, 0, entry.bytes.length);
+                    } else {
+                        writer.writeLine(entry.line);
+                    }
+                    lines++;
+                }
+                bytes += entry.size;
+
+                held = fill(reader, held, entry);
+            }
+
+            if (runs.isEmpty()) {
+                // keep one (empty) run per slice, the same as sorting slices
+                File run = ExternalSort.getSliceFile(sourceName, dstDir, SliceType.BODY,
+                    position);
+                writer = ExternalSort.openRunWriter(run, config);
+                runs.add(run);
+            }
+            writer.close();
+            writer = null;
+            reportRun(runs.get(runs.size() - 1), bytes, lines, begin);
+
+            return runs;
+
+        } finally {
+            IOUtil.closeQuietly(reader);
+            IOUtil.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Report a run to the sort listener
+     *
+     * @param run the run
+     * @param bytes number of bytes of the lines in the run
+     * @param lines number of lines written to the run
+     * @param begin time at which the run began
+     * @return the current time, i.e. the beginning of the next run
+     */
+    private long reportRun(File run, long bytes, long lines, long begin) {
+        long now = System.nanoTime();
+        config.getSortListener().onSliceWritten(SliceType.BODY, run, bytes, lines, 0,
+            now - begin, 0);
+        return now;
+    }
+
+    /**
+     * Read lines into the heap until it holds memory bytes of lines or the slice is exhausted
+     *
+     * @param reader reader of the slice
+     * @param held number of bytes of lines in the heap
+     * @param last the line written last, null if no line has been written
+     * @return number of bytes of lines in the heap
+     * @throws IOException If an I/O error occurs
+     */
+    private long fill(ByteLineReader reader, long held, HeapEntry last) throws IOException {
+        Comparator<String> lineComparator = config.getLineComparator();
+        ByteLine line;
+        while ((held < memory || heap.isEmpty()) && (line = reader.readLine()) != null) {
+            HeapEntry entry = new HeapEntry();
+            if (byteMode) {
+                entry.bytes = new byte[line.getLength()];
+                System.arraycopy(line.getBuffer(), line.getOffset(), entry.bytes, 0,
+                    entry.bytes.length);
+                if (lineFilter != null
+                    && !lineFilter.isConcerned(new String(entry.bytes, config.getEncoding()))) {
+                    continue;
+                }
+            } else {
+                entry.line = new String(line.getBuffer(), line.getOffset(), line.getLength(),
+                    config.getEncoding());
+                if (lineFilter != null && !lineFilter.isConcerned(entry.line)) {
+                    continue;
+                }
+            }
+
+            // a line less than the line written last can not be appended to the current run
+            entry.size = line.getLength() + 1;
+            entry.sequence = sequence++;
+            if (last != null) {
+                entry.run = compareLines(entry, last, lineComparator) < 0 ? last.run + 1
+                    : last.run;
+            }
+            heap.add(entry);
+            held += entry.size;
+        }
+        return held;
+    }
+
+    /**
+     * Compare the lines of two entries
+     *
+     * @param e1 the first entry
+     * @param e2 the second entry
+     * @param lineComparator line comparator, only used if not in byte mode
+     * @return a negative integer, zero, or a positive integer as the first line is less than, equal to, or greater than the second
+     */
+    private int compareLines(HeapEntry e1, HeapEntry e2, Comparator<String> lineComparator) {
+        if (byteMode) {
+            return ByteLine.compare(e1.bytes, 0, e1.bytes.length, e2.bytes, 0, e2.bytes.length);
+        }
+        return lineComparator.compare(e1.line, e2.line);
+    }
+
+    /**
+     * A line in the heap
+     */
+    private static class HeapEntry {
+        /** number of the run the line belongs to */
+        int    run;
+
+        /** the line, only used if not in byte mode */
+        String line;
+
+        /** the line as bytes, only used in byte mode */
+        byte[] bytes;
+
+        /** number of bytes the line takes in the slice */
+        long   size;
+
+        /** order in which the line was read */
+        long   sequence;
+    }
+
+}
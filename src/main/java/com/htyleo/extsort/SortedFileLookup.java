@@ -0,0 +1,153 @@
+package com.htyleo.extsort;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.htyleo.extsort.common.ByteOrderComparator;
+import com.htyleo.extsort.common.SortedFileIndex;
+import com.htyleo.extsort.util.IOUtil;
+import com.htyleo.extsort.util.MappedLineScanner;
+
+/**
+ * Point and range queries over the body of a sorted output file, using the sparse index written by the final merge
+ * (see {@link ExternalSortConfig#setOutputIndexInterval(int)}). The index is binary searched in memory,
+ * and only the lines between the nearest entry and the end of the result are read from the memory mapped file,
+ * so a query costs O(log n) comparisons plus at most outputIndexInterval extra lines.
+ *
+ * Keys are lines compared to the body lines by the lineComparator of the config (by bytes in byte mode),
+ * e.g. a line with only the fields the comparator looks at. A SortedFileLookup is not thread-safe.
+ *
+ * @author htyleo
+ */
+public class SortedFileLookup implements Closeable {
+
+    /** suffix of the index file */
+    private static final String      INDEX_SUFFIX = ".idx";
+
+    /** scanner of the sorted file */
+    private final MappedLineScanner  scanner;
+
+    /** the sparse index */
+    private final SortedFileIndex    index;
+
+    /** decoded lines of the index entries */
+    private final String[]           keys;
+
+    /** comparator of the lines */
+    private final Comparator<String> lineComparator;
+
+    /** file encoding */
+    private final String             encoding;
+
+    /**
+     * Create a SortedFileLookup, using the encoding, line comparator and byte mode of the config the file was sorted with
+     *
+     * @param file sorted file, whose index file must exist
+     * @param config sorting configuration
+     * @throws IOException If an I/O error occurs, or the index file does not exist
+     */
+    public SortedFileLookup(File file, ExternalSortConfig config) throws IOException {
+        this.index = SortedFileIndex.read(getIndexFile(file));
+        this.encoding = config.getEncoding();
+        this.lineComparator = config.getByteMode() ? new ByteOrderComparator(encoding) : config
+            .getLineComparator();
+        this.keys = new String[index.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new String(index.getKey(i), encoding);
+        }
+        this.scanner = new MappedLineScanner(file);
+    }
+
+    /**
+     * Get the index file of a sorted file
+     *
+     * @param file sorted file
+     * @return index file
+     */
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Find the body lines equal to the key
+     *
+     * @param key key
+     * @return lines equal to the key by the comparator, in sorted order
+     * @throws IOException If an I/O error occurs
+     */
+    public List<String> get(String key) throws IOException {
+        return scan(key, key, true);
+    }
+
+    /**
+     * Find the body lines in a key range
+     *
+     * @param fromKey lower bound, inclusive
+     * @param toKey upper bound, exclusive
+     * @return lines not less than fromKey and less than toKey by the comparator, in sorted order
+     * @throws IOException If an I/O error occurs
+     */
+    public List<String> range(String fromKey, String toKey) throws IOException {
+        return scan(fromKey, toKey, false);
+    }
+
+    @Override
+    public void close() {
+        IOUtil.closeQuietly(scanner);
+    }
+
+    /**
+     * Scan the body lines from the nearest index entry before fromKey until toKey
+     *
+     * @param fromKey lower bound, inclusive
+     * @param toKey upper bound
+     * @param inclusive whether the upper bound is inclusive
+     * @return lines in the range
+     * @throws IOException If an I/O error occurs
+     */
+    private List<String> scan(String fromKey, String toKey, boolean inclusive) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        scanner.seek(floor(fromKey));
+        while (scanner.getPosition() < index.getBodyEnd()) {
+            String line = scanner.readLine(encoding);
+            if (line == null) {
+                break;
+            }
+            if (lineComparator.compare(line, fromKey) < 0) {
+                continue;
+            }
+            int c = lineComparator.compare(line, toKey);
+            if (c > 0 || (c == 0 && !inclusive)) {
+                break;
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Binary search the index for the last entry less than the key. The lines before it are all less than the key,
+     * so the first line not less than the key is after it.
+     *
+     * @param key key
+     * @return offset of the entry, or the beginning of the body if there is no such entry
+     */
+    private long floor(String key) {
+        int low = 0;
+        int high = keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lineComparator.compare(keys[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high < 0 ? index.getBodyBegin() : index.getOffset(high);
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.htyleo.extsort.common.ByteOrderComparator;
+import com.htyleo.extsort.common.JoinType;
+import com.htyleo.extsort.common.LineJoiner;
+import com.htyleo.extsort.common.LineWriter;
+import com.htyleo.extsort.common.SetOperation;
+import com.htyleo.extsort.util.IOUtil;
+
+/**
+ * Streaming merge-join and set operations over sorted files, e.g. the outputs of {@link ExternalSort}.
+ * The files are read sequentially side by side, so the memory used does not grow with the files,
+ * unlike loading one side into a hash table.
+ *
+ * Lines have the same key if they are equal by the lineComparator of the config (or as bytes in byte mode),
+ * and the files must be sorted by it. The files should only contain the sorted lines, i.e. no header or tail.
+ *
+ * @author htyleo
+ */
+public class SortedFileOperations {
+
+    /**
+     * Merge-join two sorted files. For every key, each left line is joined with each right line.
+     * Only the right lines of the current key are held in memory.
+     *
+     * @param left left file
+     * @param right right file, preferably the side with fewer lines per key
+     * @param dstFile output file
+     * @param type join type
+     * @param joiner builds the output line of a left line and a right line
+     * @param config sorting configuration
+     * @return number of lines written
+     * @throws IOException If an I/O error occurs, or a file is not sorted
+     */
+    public static long join(File left, File right, File dstFile, JoinType type,
+                            LineJoiner joiner, ExternalSortConfig config) throws IOException {
+        Comparator<String> lineComparator = getComparator(config);
+        List<Cursor> cursors = new ArrayList<Cursor>(2);
+        LineWriter writer = null;
+        try {
+            Cursor l = open(left, lineComparator, config, 2, cursors);
+            Cursor r = open(right, lineComparator, config, 2, cursors);
+            writer = new LineWriter(ExternalSort.openOutput(dstFile, config), config.getEncoding(),
+                config.getBufferSize());
+
+            long count = 0;
+            List<String> group = new ArrayList<String>();
+            while (l.line != null || r.line != null) {
+                int c = l.line == null ? 1 : r.line == null ? -1 : lineComparator.compare(l.line,
+                    r.line);
+                if (c < 0) {
+                    if (type != JoinType.INNER) {
+                        writer.writeLine(joiner.join(l.line, null));
+                        count++;
+                    }
+                    l.advance();
+                } else if (c > 0) {
+                    if (type == JoinType.FULL) {
+                        writer.writeLine(joiner.join(null, r.line));
+                        count++;
+                    }
+                    r.advance();
+                } else {
+                    // hold the right lines of the key, and join every left line of the key with them
+                    group.clear();
+                    String key = r.line;
+                    for (; r.line != null && lineComparator.compare(key, r.line) == 0; r.advance()) {
+                        group.add(r.line);
+                    }
+                    for (; l.line != null && lineComparator.compare(key, l.line) == 0; l.advance()) {
+                        for (String line : group) {
+                            writer.writeLine(joiner.join(l.line, line));
+                            count++;
+                        }
+                    }
+                }
+            }
+
+            writer.flush();
+            return count;
+
+        } finally {
+            IOUtil.closeQuietly(writer);
+            close(cursors);
+        }
+    }
+
+    /**
+     * Perform a set operation over the keys of two or more sorted files.
+     * Every key in the result is written once, as the first of its lines in the first file containing it.
+     *
+     * @param files sorted files
+     * @param dstFile output file
+     * @param operation set operation
+     * @param config sorting configuration
+     * @return number of lines written
+     * @throws IOException If an I/O error occurs, or a file is not sorted
+     */
+    public static long setOperation(List<File> files, File dstFile, SetOperation operation,
+                                    ExternalSortConfig config) throws IOException {
+        Comparator<String> lineComparator = getComparator(config);
+        List<Cursor> cursors = new ArrayList<Cursor>(files.size());
+        LineWriter writer = null;
+        try {
+            for (File file : files) {
+                open(file, lineComparator, config, files.size(), cursors);
+            }
+            writer = new LineWriter(ExternalSort.openOutput(dstFile, config), config.getEncoding(),
+                config.getBufferSize());
+
+            long count = 0;
+            while (true) {
+                // the smallest key, as the line of the first file containing it
+                String key = null;
+                for (Cursor cursor : cursors) {
+                    if (cursor.line != null
+                        && (key == null || lineComparator.compare(cursor.line, key) < 0)) {
+                        key = cursor.line;
+                    }
+                }
+                if (key == null) {
+                    break;
+                }
+
+                // skip the lines of the key in every file
+                int matches = 0;
+                boolean inFirst = false;
+                for (int i = 0; i < cursors.size(); i++) {
+                    Cursor cursor = cursors.get(i);
+                    if (cursor.line != null && lineComparator.compare(key, cursor.line) == 0) {
+                        matches++;
+                        inFirst |= i == 0;
+                        do {
+                            cursor.advance();
+                        } while (cursor.line != null
+                                 && lineComparator.compare(key, cursor.line) == 0);
+                    }
+                }
+
+                if (operation == SetOperation.UNION
+                    || (operation == SetOperation.INTERSECTION && matches == cursors.size())
+                    || (operation == SetOperation.DIFFERENCE && inFirst && matches == 1)) {
+                    writer.writeLine(key);
+                    count++;
+                }
+            }
+
+            writer.flush();
+            return count;
+
+        } finally {
+            IOUtil.closeQuietly(writer);
+            close(cursors);
+        }
+    }
+
+    /**
+     * Get the comparator which decides the order and keys of lines
+     *
+     * @param config sorting configuration
+     * @return the byte order in byte mode, or the lineComparator otherwise
+     */
+    private static Comparator<String> getComparator(ExternalSortConfig config) {
+        return config.getByteMode() ? new ByteOrderComparator(config.getEncoding()) : config
+            .getLineComparator();
+    }
+
+    /**
+     * Open a cursor over a sorted file and read its first line
+     *
+     * @param file sorted file
+     * @param lineComparator line comparator
+     * @param config sorting configuration
+     * @param files number of files read at once, which share the read-ahead memory
+     * @param cursors opened cursors, the new cursor is added to it
+     * @return the cursor
+     * @throws IOException If an I/O error occurs
+     */
+    private static Cursor open(File file, Comparator<String> lineComparator,
+                               ExternalSortConfig config, int files, List<Cursor> cursors)
+                                                                                          throws IOException {
+        GroupSortedFileReader reader = new GroupSortedFileReader(Collections.singletonList(file),
+            lineComparator, config.getEncoding(), config.getBufferSize());
+        reader.readAhead(config.getReadAheadMemory() / files, config.getIoExecutor());
+        Cursor cursor = new Cursor(file, reader, lineComparator);
+        cursors.add(cursor);
+        cursor.advance();
+        return cursor;
+    }
+
+    /**
+     * Close the cursors
+     *
+     * @param cursors cursors
+     */
+    private static void close(List<Cursor> cursors) {
+        for (Cursor cursor : cursors) {
+            IOUtil.closeQuietly(cursor.reader);
+        }
+    }
+
+    /**
+     * Current line of a sorted file
+     */
+    private static class Cursor {
+        /** the file */
+        private final File                  file;
+
+        /** reader of the file */
+        private final GroupSortedFileReader reader;
+
+        /** line comparator */
+        private final Comparator<String>    lineComparator;
+
+        /** current line, null if the file is exhausted */
+        private String                      line;
+
+        /**
+         * Create a Cursor
+         *
+         * @param file the file
+         * @param reader reader of the file
+         * @param lineComparator line comparator
+         */
+        Cursor(File file, GroupSortedFileReader reader, Comparator<String> lineComparator) {
+            this.file = file;
+            this.reader = reader;
+            this.lineComparator = lineComparator;
+        }
+
+        /**
+         * Move to the next line
+         *
+         * @throws IOException If an I/O error occurs, or the next line is less than the current one
+         */
+        void advance() throws IOException {
+            String next = reader.readLine();
+            if (next != null && line != null && lineComparator.compare(line, next) > 0) {
+                throw new IOException("File is not sorted: " + file);
+            }
+            line = next;
+        }
+    }
+
+}
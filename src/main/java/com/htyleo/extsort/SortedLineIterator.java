@@ -0,0 +1,245 @@
+package com.htyleo.extsort;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.htyleo.extsort.common.LineCombiner;
+import com.htyleo.extsort.util.IOUtil;
+
+/**
+ * A lazy iterator over the sorted lines: the header, the merged body and the tail,
+ * which are read from the files of the partition phase on demand instead of being written to an output file first.
+ *
+ * The iterator owns the files of the partition phase, and deletes them when it is closed.
+ * Its resources are released once all the lines have been read, but it should always be closed,
+ * e.g. in a try-with-resources statement, in case it is abandoned halfway.
+ *
+ * @author htyleo
+ */
+public class SortedLineIterator implements Iterator<String>, Closeable {
+
+    /** section of the header lines */
+    private static final int      HEADER = 0;
+
+    /** section of the body lines */
+    private static final int      BODY   = 1;
+
+    /** section of the tail lines */
+    private static final int      TAIL   = 2;
+
+    /** all the lines have been read */
+    private static final int      END    = 3;
+
+    /** partition result */
+    private final PartitionResult result;
+
+    /** sorted files to be merged, which may be produced by intermediate merge passes */
+    private final List<File>      bodies;
+
+    /** sorting configuration */
+    private final ExternalSortConfig config;
+
+    /** current section */
+    private int                   section = HEADER;
+
+    /** reader of the header or tail file */
+    private BufferedReader        reader;
+
+    /** reader of the bodies */
+    private GroupSortedFileReader groupReader;
+
+    /** next line, null if it has not been read yet */
+    private String                next;
+
+    /** body line read ahead to find the end of a group of lines with the same key, only used with a line combiner */
+    private String                lookahead;
+
+    /** number of body lines that may still be returned */
+    private long                  remaining;
+
+    /** whether the iterator has been closed */
+    private boolean               closed;
+
+    /**
+     * Create a SortedLineIterator
+     *
+     * @param result partition result
+     * @param bodies sorted files to be merged
+     * @param config sorting configuration
+     */
+    SortedLineIterator(PartitionResult result, List<File> bodies, ExternalSortConfig config) {
+        this.result = result;
+        this.bodies = bodies;
+        this.config = config;
+        this.remaining = config.getLimit() > 0 ? config.getLimit() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+
+        try {
+            next = readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (next == null) {
+            releaseReaders();
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        String line = next;
+        next = null;
+        return line;
+    }
+
+    /**
+     * Get a sequential stream over the remaining lines, which closes this iterator when the stream is closed
+     *
+     * @return stream of lines
+     */
+    public Stream<String> stream() {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+            false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Release the readers and delete the files of the partition phase, including the intermediate merge results
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        next = null;
+        releaseReaders();
+        for (File body : bodies) {
+            body.delete();
+        }
+        result.delete();
+    }
+
+    /**
+     * Read the next line, moving to the next section when the current one is exhausted
+     *
+     * @return next line, or null if all the lines have been read
+     * @throws IOException If an I/O error occurs
+     */
+    private String readLine() throws IOException {
+        while (section != END) {
+            String line;
+            if (section == BODY) {
+                if (groupReader == null) {
+                    groupReader = new GroupSortedFileReader(bodies, config);
+                }
+                line = readBodyLine();
+            } else {
+                if (reader == null) {
+                    reader = openReader(section == HEADER ? result.getHeader() : result.getTail());
+                }
+                line = reader == null ? null : reader.readLine();
+            }
+
+            if (line != null) {
+                return line;
+            }
+            releaseReaders();
+            section++;
+        }
+        return null;
+    }
+
+    /**
+     * Read the next body line, folding the lines with the same key if there is a line combiner
+     *
+     * @return next body line, or null if the bodies are exhausted or the limit is reached
+     * @throws IOException If an I/O error occurs
+     */
+    private String readBodyLine() throws IOException {
+        if (remaining <= 0) {
+            return null;
+        }
+
+        LineCombiner combiner = config.getLineCombiner();
+        String line;
+        if (combiner == null) {
+            line = groupReader.readLine();
+        } else {
+            String first = lookahead != null ? lookahead : groupReader.readLine();
+            lookahead = null;
+            line = first;
+            Comparator<String> lineComparator = config.getLineComparator();
+            for (String other; first != null && (other = groupReader.readLine()) != null;) {
+                if (lineComparator.compare(first, other) != 0) {
+                    lookahead = other;
+                    break;
+                }
+                line = combiner.combine(line, other);
+            }
+        }
+
+        if (line != null) {
+            remaining--;
+        }
+        return line;
+    }
+
+    /**
+     * Open a reader of the header or tail file
+     *
+     * @param file header or tail file
+     * @return the reader, or null if the file does not exist
+     * @throws IOException If an I/O error occurs
+     */
+    private BufferedReader openReader(File file) throws IOException {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file),
+            config.getEncoding()), config.getBufferSize());
+    }
+
+    /**
+     * Close the readers of the current section
+     */
+    private void releaseReaders() {
+        IOUtil.closeQuietly(reader);
+        reader = null;
+        IOUtil.closeQuietly(groupReader);
+        groupReader = null;
+    }
+
+}
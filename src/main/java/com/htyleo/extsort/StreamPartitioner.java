@@ -0,0 +1,344 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.htyleo.extsort.common.ByteLine;
+import com.htyleo.extsort.common.ByteLineReader;
+import com.htyleo.extsort.common.MemoryBudget;
+import com.htyleo.extsort.common.RunFormat;
+import com.htyleo.extsort.common.SliceType;
+import com.htyleo.extsort.util.IOUtil;
+
+/**
+ * Partition a stream which can only be read sequentially.
+ *
+ * Lines are read one by one and appended to an in-memory slice. Whenever the slice reaches the slice size,
+ * it is handed to the executor to be sorted and written, while the stream continues to be read.
+ * At most parallelism + 1 body slices are held in memory at once (the one being filled included),
+ * so reading waits for the executor instead of queueing the whole stream in memory.
+ * The header is the first lines of the stream, and the tail is kept in a bounded ring buffer of the last lines,
+ * since we do not know which lines are the last until the end of stream.
+ * The lines are separated by "\n" in the slices, so only encodings in which "\n" and "\r" are single bytes are supported.
+ *
+ * @author htyleo
+ */
+class StreamPartitioner {
+
+    /** the minimum slice size, and the interval at which the slice size is planned from a memory budget, 4 KB */
+    private static final int         MIN_SLICE_SIZE = 4 * 1024;
+
+    /** name of the stream, used to name the sorted files */
+    private final String             name;
+
+    /** output directory */
+    private final File               dstDir;
+
+    /** sorting configuration */
+    private final ExternalSortConfig config;
+
+    /** memory budget, null if there is no budget */
+    private final MemoryBudget       budget;
+
+    /** slice size */
+    private int                      sliceSize;
+
+    /** number of bytes (with "\n" as the line separator) read from the stream */
+    private long                     position;
+
+    /** number of lines read from the stream */
+    private long                     lineCount;
+
+    /** the body slice being filled */
+    private byte[]                   slice;
+
+    /** number of valid bytes in the slice */
+    private int                      sliceLength;
+
+    /** position of the slice in the stream */
+    private long                     sliceBegin;
+
+    /** memory reserved from the budget for the body slice being filled */
+    private long                     sliceReserved;
+
+    /** permits of body slices held in memory, i.e. being filled or handed to the executor but not yet written */
+    private final Semaphore          slicePermits;
+
+    /** whether the body slice being filled holds a permit */
+    private boolean                  slicePermitted;
+
+    /** body slices handed to the executor */
+    private final List<Future<File>> bodies         = new ArrayList<Future<File>>();
+
+    /** whether a body slice failed to be written, so that reading stops early */
+    private volatile boolean         failed;
+
+    /**
+     * Create a StreamPartitioner
+     *
+     * @param name name of the stream, used to name the sorted files
+     * @param dstDir output directory
+     * @param config sorting configuration
+     * @throws IOException If the encoding is not supported
+     */
+    StreamPartitioner(String name, File dstDir, ExternalSortConfig config) throws IOException {
+        if (!KeyRangeSplitter.isSupported(config.getEncoding(), RunFormat.TEXT)) {
+            throw new IllegalArgumentException("Unsupported encoding of stream: "
+                                               + config.getEncoding());
+        }
+
+        this.name = name;
+        this.dstDir = dstDir;
+        this.config = config;
+        if (config.getMemoryBudget() > 0) {
+            this.budget = new MemoryBudget(config.getMemoryBudget());
+            this.sliceSize = MIN_SLICE_SIZE;
+        } else {
+            this.budget = null;
+            this.sliceSize = config.getSliceSize();
+        }
+        this.slicePermits = new Semaphore(config.getParallelism() + 1);
+    }
+
+    /**
+     * Partition the stream into header, tail and sorted body files
+     *
+     * @param in input stream, which is not closed by this operation
+     * @return partition result
+     * @throws Exception If an exception error occurs
+     */
+    PartitionResult partition(InputStream in) throws Exception {
+        ByteLineReader reader = new ByteLineReader(in, config.getBufferSize());
+        boolean done = false;
+        try {
+            // header
+            ByteLine line = reader.readLine();
+            if (config.getIgnoreHeaderBlankLines()) {
+                for (; line != null && line.getLength() == 0; line = reader.readLine()) {
+                    append(line);
+                }
+            }
+            for (int i = 0; i < config.getHeaderLines() && line != null; i++) {
+                append(line);
+                line = reader.readLine();
+            }
+            File header = writeSlice(SliceType.HEADER);
+
+            // body, holding back the lines which may belong to the tail
+            int tailLines = config.getTailLines();
+            boolean ignoreTailBlankLines = config.getIgnoreTailBlankLines();
+            Deque<byte[]> ring = new ArrayDeque<byte[]>();
+            int trailingBlankLines = 0;
+            for (; line != null; line = reader.readLine()) {
+                if (tailLines == 0 && !ignoreTailBlankLines) {
+                    appendToBody(line.getBuffer(), line.getOffset(), line.getLength());
+                    continue;
+                }
+
+                byte[] bytes = new byte[line.getLength()];
+                System.arraycopy(line.getBuffer(), line.getOffset(), bytes, 0, bytes.length);
+                ring.addLast(bytes);
+                if (ignoreTailBlankLines && bytes.length == 0) {
+                    trailingBlankLines++;
+                } else {
+                    trailingBlankLines = 0;
+                }
+                while (ring.size() > tailLines + trailingBlankLines) {
+                    byte[] first = ring.removeFirst();
+                    appendToBody(first, 0, first.length);
+                }
+            }
+            if (sliceLength > 0) {
+                submitSlice();
+            }
+
+            // tail
+            for (byte[] bytes : ring) {
+                append(bytes, 0, bytes.length);
+            }
+            File tail = writeSlice(SliceType.TAIL);
+
+            List<File> bodyFiles = new ArrayList<File>(bodies.size());
+            for (Future<File> body : bodies) {
+                bodyFiles.add(body.get());
+            }
+            done = true;
+
+            return new PartitionResult(header, bodyFiles, tail);
+
+        } finally {
+            if (!done) {
+                for (Future<File> body : bodies) {
+                    body.cancel(true);
+                }
+                releaseSlice();
+            }
+        }
+    }
+
+    /**
+     * Append a line to the body slice, and hand the slice to the executor if it is full
+     *
+     * @param buffer buffer that contains the line
+     * @param offset offset of the line
+     * @param length length of the line
+     * @throws Exception If interrupted while waiting for memory, or a body slice failed to be written
+     */
+    private void appendToBody(byte[] buffer, int offset, int length) throws Exception {
+        if (slice == null) {
+            beginSlice();
+        }
+        append(buffer, offset, length);
+        if (sliceLength >= sliceSize) {
+            submitSlice();
+        }
+    }
+
+    /**
+     * Begin a body slice: wait until fewer than parallelism + 1 body slices are held in memory,
+     * plan the slice size and reserve the memory of the slice from the budget, before the slice is filled
+     *
+     * @throws Exception If interrupted while waiting for memory, or a body slice failed to be written
+     */
+    private void beginSlice() throws Exception {
+        checkFailure();
+        slicePermits.acquire();
+        slicePermitted = true;
+        checkFailure();
+
+        if (budget != null) {
+            // plan the slice size from the lines read so far, assuming the shortest lines if nothing is read yet
+            double averageLineLength = lineCount == 0 ? 1 : (double) position / lineCount;
+            if (lineCount > 0) {
+                sliceSize = ExternalSort.planSliceSize(budget, averageLineLength, config);
+            }
+            sliceReserved = budget.reserve(MemoryBudget.estimateSliceMemory(sliceSize,
+                averageLineLength, config.getByteMode(), config.getBufferSize()));
+        }
+    }
+
+    /**
+     * Release the permit and the memory held by the body slice being filled, if any
+     */
+    private void releaseSlice() {
+        if (slicePermitted) {
+            slicePermits.release();
+            slicePermitted = false;
+        }
+        if (budget != null && sliceReserved > 0) {
+            budget.release(sliceReserved);
+        }
+        sliceReserved = 0;
+    }
+
+    /**
+     * Throw the exception of the body slice which failed to be written, if any
+     *
+     * @throws IOException If a body slice failed to be written
+     */
+    private void checkFailure() throws IOException {
+        if (!failed) {
+            return;
+        }
+        for (Future<File> body : bodies) {
+            if (body.isDone()) {
+                IOUtil.getResult(body);
+            }
+        }
+    }
+
+    /**
+     * Append a line to the slice
+     *
+     * @param line the line
+     */
+    private void append(ByteLine line) {
+        append(line.getBuffer(), line.getOffset(), line.getLength());
+    }
+
+    /**
+     * Append a line to the slice, followed by "\n"
+     *
+     * @param buffer buffer that contains the line
+     * @param offset offset of the line
+     * @param length length of the line
+     */
+    private void append(byte[] buffer, int offset, int length) {
+        if (slice == null) {
+            slice = new byte[Math.max(length + 1, Math.min(sliceSize, config.getBufferSize()))];
+            sliceBegin = position;
+        } else if (sliceLength + length + 1 > slice.length) {
+            // do not grow beyond the slice size more than needed, since a body slice is submitted once it is full
+            int capacity = slice.length < sliceSize ? Math.min(slice.length * 2, sliceSize)
+                : slice.length * 2;
+            byte[] grown = new byte[Math.max(sliceLength + length + 1, capacity)];
+            System.arraycopy(slice, 0, grown, 0, sliceLength);
+            slice = grown;
+        }
+
+        System.arraycopy(buffer, offset, slice, sliceLength, length);
+        sliceLength += length;
+        slice[sliceLength++] = '\n';
+        position += length + 1;
+        lineCount++;
+    }
+
+    /**
+     * Write the slice (header or tail) to file in the current thread
+     *
+     * @param type type of the slice
+     * @return the written file
+     * @throws IOException If an I/O error occurs
+     */
+    private File writeSlice(SliceType type) throws IOException {
+        File dstFile = ExternalSort.getSliceFile(name, dstDir, type, slice == null ? position
+            : sliceBegin);
+        ExternalSort.writeSlice(slice == null ? new byte[0] : slice, sliceLength, type, dstFile,
+            config);
+        slice = null;
+        sliceLength = 0;
+        return dstFile;
+    }
+
+    /**
+     * Hand the body slice to the executor, which releases its permit and memory after it is written
+     */
+    private void submitSlice() {
+        final byte[] buffer = slice;
+        final int length = sliceLength;
+        final File dstFile = ExternalSort.getSliceFile(name, dstDir, SliceType.BODY, sliceBegin);
+        final long reserved = sliceReserved;
+        slice = null;
+        sliceLength = 0;
+
+        bodies.add(config.getExecutor().submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                try {
+                    ExternalSort.writeSlice(buffer, length, SliceType.BODY, dstFile, config);
+                    return dstFile;
+                } catch (Exception e) {
+                    failed = true;
+                    throw e;
+                } finally {
+                    if (budget != null) {
+                        budget.release(reserved);
+                    }
+                    slicePermits.release();
+                }
+            }
+        }));
+        // the task owns the permit and the memory from now on
+        slicePermitted = false;
+        sliceReserved = 0;
+    }
+
+}
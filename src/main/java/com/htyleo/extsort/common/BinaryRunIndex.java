@@ -0,0 +1,166 @@
+package com.htyleo.extsort.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The sparse index of a file in the binary run format (see {@link BinaryRunWriter}),
+ * i.e. the first record and the offset of each block. The file should not be compressed.
+ *
+ * @author htyleo
+ */
+public class BinaryRunIndex {
+
+    /** block size */
+    private final int      blockSize;
+
+    /** end of records, i.e. the offset of the END marker */
+    private final long     dataEnd;
+
+    /** first records of blocks */
+    private final byte[][] keys;
+
+    /** offsets of blocks */
+    private final long[]   offsets;
+
+    /**
+     * Create a BinaryRunIndex
+     *
+     * @param blockSize block size
+     * @param dataEnd end of records
+     * @param keys first records of blocks
+     * @param offsets offsets of blocks
+     */
+    private BinaryRunIndex(int blockSize, long dataEnd, byte[][] keys, long[] offsets) {
+        this.blockSize = blockSize;
+        this.dataEnd = dataEnd;
+        this.keys = keys;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Read the index of a file
+     *
+     * @param file file in the binary run format
+     * @return the index
+     * @throws IOException If an I/O error occurs or the file is not in the binary run format
+     */
+    public static BinaryRunIndex read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int blockSize = readHeader(raf);
+
+            raf.seek(raf.length() - BinaryRunWriter.TRAILER_SIZE);
+            long dataEnd = raf.readLong();
+            long indexOffset = raf.readLong();
+            if (raf.readInt() != BinaryRunWriter.MAGIC) {
+                throw new IOException("Not in the binary run format: " + file);
+            }
+
+            raf.seek(indexOffset);
+            int size = raf.readInt();
+            byte[][] keys = new byte[size][];
+            long[] offsets = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = new byte[raf.readInt()];
+                raf.readFully(keys[i]);
+                offsets[i] = raf.readLong();
+            }
+
+            return new BinaryRunIndex(blockSize, dataEnd, keys, offsets);
+
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read the block size of a file
+     *
+     * @param file file in the binary run format
+     * @return block size
+     * @throws IOException If an I/O error occurs or the file is not in the binary run format
+     */
+    public static int readBlockSize(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return readHeader(raf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read the header of a file
+     *
+     * @param raf file in the binary run format
+     * @return block size
+     * @throws IOException If an I/O error occurs or the file is not in the binary run format
+     */
+    private static int readHeader(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        if (raf.length() < BinaryRunWriter.HEADER_SIZE + BinaryRunWriter.TRAILER_SIZE
+            || raf.readInt() != BinaryRunWriter.MAGIC) {
+            throw new IOException("Not in the binary run format");
+        }
+        return raf.readInt();
+    }
+
+    /**
+     * Getter method for property <tt>blockSize</tt>.
+     *
+     * @return property value of blockSize
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get the beginning of records
+     *
+     * @return offset of the first record
+     */
+    public long getDataBegin() {
+        return BinaryRunWriter.HEADER_SIZE;
+    }
+
+    /**
+     * Getter method for property <tt>dataEnd</tt>.
+     *
+     * @return property value of dataEnd
+     */
+    public long getDataEnd() {
+        return dataEnd;
+    }
+
+    /**
+     * Get the number of indexed blocks
+     *
+     * @return number of indexed blocks
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the first record of the i-th indexed block
+     *
+     * @param i index of entry
+     * @return first record
+     */
+    public byte[] getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Get the offset of the i-th indexed block
+     *
+     * @param i index of entry
+     * @return offset of the block
+     */
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.htyleo.extsort.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read the records of a file in the binary run format, see {@link BinaryRunWriter}
+ *
+ * @author htyleo
+ */
+public class BinaryRunReader implements RunReader {
+
+    /** underlying stream */
+    private final InputStream in;
+
+    /** the line returned by readLine, reused */
+    private final ByteLine    line = new ByteLine();
+
+    /** block size */
+    private final int         blockSize;
+
+    /** buffer, which grows if a record is longer than it */
+    private byte[]            buffer;
+
+    /** position of the next byte to be read in the buffer */
+    private int               pos;
+
+    /** number of valid bytes in the buffer */
+    private int               limit;
+
+    /** position in the file of buffer[0] */
+    private long              bufferOffset;
+
+    /** position in the file of the record returned last time */
+    private long              recordOffset = -1;
+
+    /** whether we reached the END marker */
+    private boolean           ended;
+
+    /**
+     * Create a BinaryRunReader which reads a whole file from its beginning
+     *
+     * @param in underlying stream, positioned at the beginning of the file
+     * @param bufferSize initial buffer size
+     * @throws IOException If an I/O error occurs or the stream is not in the binary run format
+     */
+    public BinaryRunReader(InputStream in, int bufferSize) throws IOException {
+        this.in = in;
+        this.buffer = new byte[Math.max(BinaryRunWriter.HEADER_SIZE, bufferSize)];
+        if (!ensure(BinaryRunWriter.HEADER_SIZE) || readInt() != BinaryRunWriter.MAGIC) {
+            throw new IOException("Not in the binary run format");
+        }
+        this.blockSize = readInt();
+    }
+
+    /**
+     * Create a BinaryRunReader which reads from the middle of a file
+     *
+     * @param in underlying stream, positioned at the beginning of a record (or a marker)
+     * @param offset position of the stream in the file
+     * @param blockSize block size of the file
+     * @param bufferSize initial buffer size
+     */
+    public BinaryRunReader(InputStream in, long offset, int blockSize, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(1, bufferSize)];
+        this.bufferOffset = offset;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public ByteLine readLine() throws IOException {
+        while (!ended) {
+            long markerOffset = bufferOffset + pos;
+            int length = readVarInt();
+            if (length < 0 || length == BinaryRunWriter.END) {
+                ended = true;
+                break;
+            }
+
+            if (length == BinaryRunWriter.PADDING) {
+                long blockEnd = BinaryRunWriter.HEADER_SIZE
+                                + ((markerOffset - BinaryRunWriter.HEADER_SIZE) / blockSize + 1)
+                                * blockSize;
+                skip(blockEnd - (bufferOffset + pos));
+                continue;
+            }
+
+            length -= 2;
+            if (!ensure(length)) {
+                throw new EOFException("Truncated record");
+            }
+            recordOffset = markerOffset;
+            line.set(buffer, pos, length);
+            pos += length;
+            return line;
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the position in the file of the record returned by the last readLine
+     *
+     * @return position of the record, or -1 if no record has been returned
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Get the position in the file of the next record (or marker) to be read
+     *
+     * @return position of the next record
+     */
+    public long getPosition() {
+        return bufferOffset + pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read a varint
+     *
+     * @return the value, or -1 if we reached the end of stream
+     * @throws IOException If an I/O error occurs
+     */
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            if (!ensure(1)) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Truncated varint");
+            }
+            int b = buffer[pos++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Read an int (big endian)
+     *
+     * @return the value
+     */
+    private int readInt() {
+        int value = ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16)
+                    | ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+        pos += 4;
+        return value;
+    }
+
+    /**
+     * Skip bytes
+     *
+     * @param n number of bytes
+     * @throws IOException If an I/O error occurs
+     */
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            if (!ensure(1)) {
+                return;
+            }
+            int skipped = (int) Math.min(n, limit - pos);
+            pos += skipped;
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Make sure at least n unread bytes are in the buffer, moving the unread bytes to the beginning
+     * of the buffer (growing it if necessary) and reading more bytes
+     *
+     * @param n number of bytes
+     * @return true if there are n unread bytes, false if we reached the end of stream before
+     * @throws IOException If an I/O error occurs
+     */
+    private boolean ensure(int n) throws IOException {
+        if (limit - pos >= n) {
+            return true;
+        }
+
+        int remaining = limit - pos;
+        if (n > buffer.length) {
+            byte[] grown = new byte[Math.max(n, buffer.length * 2)];
+            System.arraycopy(buffer, pos, grown, 0, remaining);
+            buffer = grown;
+        } else {
+            System.arraycopy(buffer, pos, buffer, 0, remaining);
+        }
+        bufferOffset += pos;
+        pos = 0;
+        limit = remaining;
+
+        while (limit < n) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+
+}
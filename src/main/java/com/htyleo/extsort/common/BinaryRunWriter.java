@@ -0,0 +1,224 @@
+package com.htyleo.extsort.common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write sorted lines in the binary run format, which allows reading records without scanning for
+ * line separators and seeking into the run by key.
+ *
+ * Layout:
+ * <ul>
+ *     <li>Header: magic (int), block size (int).</li>
+ *     <li>Blocks: block i begins at HEADER_SIZE + i * blockSize. Each record is its length + 2 (varint) followed by its bytes.
+ *     A record which does not fit in the rest of the block begins the next block, and the rest is skipped by a PADDING marker (varint 0).
+ *     A record larger than a block spans as many blocks as needed. The records end with an END marker (varint 1).</li>
+ *     <li>Index: number of entries (int), then for every block which begins with a record, the length of its first record (int),
+ *     the first record and the offset of the block (long).</li>
+ *     <li>Trailer: the end of records i.e. the offset of the END marker (long), the offset of the index (long), magic (int).</li>
+ * </ul>
+ * All the offsets are positions in the uncompressed stream.
+ *
+ * @author htyleo
+ */
+public class BinaryRunWriter implements RunWriter {
+
+    /** magic number of the binary run format */
+    static final int                   MAGIC        = 0x45585352;
+
+    /** size of the header */
+    static final int                   HEADER_SIZE  = 8;
+
+    /** size of the trailer */
+    static final int                   TRAILER_SIZE = 20;
+
+    /** marker which means the rest of the block is skipped */
+    static final int                   PADDING      = 0;
+
+    /** marker which means the end of records */
+    static final int                   END          = 1;
+
+    /** underlying stream */
+    private final DataOutputStream     out;
+
+    /** block size */
+    private final int                  blockSize;
+
+    /** encoding used for String lines */
+    private final String               encoding;
+
+    /** first records of blocks */
+    private final List<byte[]>         indexKeys    = new ArrayList<byte[]>();
+
+    /** offsets of blocks */
+    private final List<Long>           indexOffsets = new ArrayList<Long>();
+
+    /** current position */
+    private long                       pos;
+
+    /** whether the index and trailer have been written */
+    private boolean                    finished;
+
+    /**
+     * Create a BinaryRunWriter
+     *
+     * @param out underlying stream
+     * @param blockSize block size
+     * @param encoding encoding used for String lines
+     * @param bufferSize buffer size
+     * @throws IOException If an I/O error occurs
+     */
+    public BinaryRunWriter(OutputStream out, int blockSize, String encoding, int bufferSize)
+                                                                                             throws IOException {
+        if (blockSize < 16) {
+            throw new IllegalArgumentException("Block size is too small: " + blockSize);
+        }
+
+        this.out = new DataOutputStream(new BufferedOutputStream(out, bufferSize));
+        this.blockSize = blockSize;
+        this.encoding = encoding;
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(blockSize);
+        this.pos = HEADER_SIZE;
+    }
+
+    @Override
+    public void writeLine(String line) throws IOException {
+        byte[] bytes = line.getBytes(encoding);
+        writeLine(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void writeLine(ByteLine line) throws IOException {
+        writeLine(line.getBuffer(), line.getOffset(), line.getLength());
+    }
+
+    @Override
+    public void writeLine(byte[] buffer, int offset, int length) throws IOException {
+        int recordSize = varIntSize(length + 2) + length;
+        long blockEnd = blockEnd(pos);
+        if (!isBlockBegin(pos) && pos + recordSize > blockEnd) {
+            // move to the next block
+            writeVarInt(PADDING);
+            for (long p = pos; p < blockEnd; p++) {
+                out.write(0);
+            }
+            pos = blockEnd;
+        }
+
+        if (isBlockBegin(pos)) {
+            byte[] key = new byte[length];
+            System.arraycopy(buffer, offset, key, 0, length);
+            indexKeys.add(key);
+            indexOffsets.add(pos);
+        }
+
+        writeVarInt(length + 2);
+        out.write(buffer, offset, length);
+        pos += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public long getPosition() {
+        return pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the END marker, the index and the trailer
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        long dataEnd = pos;
+        writeVarInt(END);
+
+        long indexOffset = pos;
+        out.writeInt(indexKeys.size());
+        for (int i = 0; i < indexKeys.size(); i++) {
+            byte[] key = indexKeys.get(i);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeLong(indexOffsets.get(i));
+        }
+
+        out.writeLong(dataEnd);
+        out.writeLong(indexOffset);
+        out.writeInt(MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Whether a position is the beginning of a block
+     *
+     * @param p position
+     * @return true if p is the beginning of a block
+     */
+    private boolean isBlockBegin(long p) {
+        return (p - HEADER_SIZE) % blockSize == 0;
+    }
+
+    /**
+     * Get the end of the block containing a position
+     *
+     * @param p position
+     * @return end of the block, exclusive
+     */
+    private long blockEnd(long p) {
+        return HEADER_SIZE + ((p - HEADER_SIZE) / blockSize + 1) * blockSize;
+    }
+
+    /**
+     * Write a non-negative int as varint
+     *
+     * @param value value
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            pos++;
+        }
+        out.write(value);
+        pos++;
+    }
+
+    /**
+     * Get the size of a non-negative int as varint
+     *
+     * @param value value
+     * @return number of bytes
+     */
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,372 @@
+package com.htyleo.extsort.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A fast built-in run codec. The data is split into blocks of 64 KB, each of which is compressed
+ * independently by a simple LZ77 scheme (similar to LZ4): a single hash table lookup per position,
+ * and a byte-oriented encoding of literal runs and back references. It trades compression ratio for speed.
+ *
+ * Format of each block: raw length (int), stored length (int), stored bytes. If the stored length equals
+ * the raw length, the block is stored uncompressed.
+ *
+ * Format of the compressed bytes: a sequence of (token, [literal length], literals, offset, [match length]).
+ * The high 4 bits of the token are the literal length and the low 4 bits are the match length minus 4,
+ * a value of 15 is followed by extra bytes to be added (255 means more bytes follow).
+ * The offset takes 2 bytes (little endian). The last sequence only contains literals.
+ *
+ * @author htyleo
+ */
+public class BlockRunCodec implements RunCodec {
+
+    /** block size, 64 KB, so that offsets fit in 2 bytes */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /** minimum length of a match */
+    private static final int MIN_MATCH  = 4;
+
+    /** number of bits of the hash table index */
+    private static final int HASH_BITS  = 14;
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new BlockOutputStream(out);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new BlockInputStream(in);
+    }
+
+    /**
+     * Compress a block
+     *
+     * @param src source bytes
+     * @param len number of source bytes
+     * @param dst destination, whose length should be at least maxCompressedLength(len)
+     * @param hashTable hash table, whose length should be 1 &lt;&lt; HASH_BITS
+     * @return number of compressed bytes
+     */
+    static int compressBlock(byte[] src, int len, byte[] dst, int[] hashTable) {
+        for (int i = 0; i < hashTable.length; i++) {
+            hashTable[i] = -1;
+        }
+
+        int op = 0;
+        int anchor = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= len) {
+            int seq = readInt(src, i);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = hashTable[h];
+            hashTable[h] = i;
+            if (ref < 0 || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < len && src[ref + matchLength] == src[i + matchLength]) {
+                matchLength++;
+            }
+
+            // token, literals, offset and match length
+            int literalLength = i - anchor;
+            int matchCode = matchLength - MIN_MATCH;
+            dst[op++] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+            op = writeLength(dst, op, literalLength);
+            System.arraycopy(src, anchor, dst, op, literalLength);
+            op += literalLength;
+            int offset = i - ref;
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            op = writeLength(dst, op, matchCode);
+
+            i += matchLength;
+            anchor = i;
+        }
+
+        // last literals
+        int literalLength = len - anchor;
+        dst[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, anchor, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    /**
+     * Decompress a block
+     *
+     * @param src compressed bytes
+     * @param len number of compressed bytes
+     * @param dst destination, whose length should be at least the raw length
+     * @return number of decompressed bytes
+     * @throws IOException If the compressed bytes are corrupted
+     */
+    static int decompressBlock(byte[] src, int len, byte[] dst) throws IOException {
+        int ip = 0;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    for (int b = 255; b == 255; literalLength += b) {
+                        b = src[ip++] & 0xFF;
+                    }
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip >= len) {
+                    return op;
+                }
+
+                int offset = (src[ip++] & 0xFF) | ((src[ip++] & 0xFF) << 8);
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    for (int b = 255; b == 255; matchLength += b) {
+                        b = src[ip++] & 0xFF;
+                    }
+                }
+                matchLength += MIN_MATCH;
+
+                // the match may overlap the bytes being written, so copy byte by byte
+                for (int ref = op - offset, end = op + matchLength; op < end;) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted block", e);
+        }
+    }
+
+    /**
+     * Get the maximum compressed length of a block
+     *
+     * @param len raw length
+     * @return maximum compressed length
+     */
+    static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Write the extra bytes of a length which does not fit in the token
+     *
+     * @param dst destination
+     * @param op position in destination
+     * @param length the length
+     * @return new position in destination
+     */
+    private static int writeLength(byte[] dst, int op, int length) {
+        if (length < 15) {
+            return op;
+        }
+        for (length -= 15; length >= 255; length -= 255) {
+            dst[op++] = (byte) 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    /**
+     * Read 4 bytes as an int (little endian)
+     *
+     * @param b bytes
+     * @param i position
+     * @return the int
+     */
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16)
+               | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    /**
+     * Stream that compresses blocks
+     */
+    private static class BlockOutputStream extends FilterOutputStream {
+
+        /** raw bytes of the current block */
+        private final byte[] block      = new byte[BLOCK_SIZE];
+
+        /** compressed bytes of the current block */
+        private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+        /** hash table used by compression */
+        private final int[]  hashTable  = new int[1 << HASH_BITS];
+
+        /** underlying stream */
+        private final DataOutputStream dataOut;
+
+        /** number of bytes in the current block */
+        private int          count;
+
+        /**
+         * Create a BlockOutputStream
+         *
+         * @param out underlying stream
+         */
+        BlockOutputStream(OutputStream out) {
+            super(out);
+            this.dataOut = new DataOutputStream(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == block.length) {
+                writeBlock();
+            }
+            block[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == block.length) {
+                    writeBlock();
+                }
+                int n = Math.min(len, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeBlock();
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Compress and write the current block
+         *
+         * @throws IOException If an I/O error occurs
+         */
+        private void writeBlock() throws IOException {
+            if (count == 0) {
+                return;
+            }
+
+            int compressedLength = compressBlock(block, count, compressed, hashTable);
+            dataOut.writeInt(count);
+            if (compressedLength < count) {
+                dataOut.writeInt(compressedLength);
+                dataOut.write(compressed, 0, compressedLength);
+            } else {
+                dataOut.writeInt(count);
+                dataOut.write(block, 0, count);
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Stream that decompresses blocks
+     */
+    private static class BlockInputStream extends InputStream {
+
+        /** underlying stream */
+        private final DataInputStream in;
+
+        /** raw bytes of the current block */
+        private final byte[]          block      = new byte[BLOCK_SIZE];
+
+        /** compressed bytes of the current block */
+        private final byte[]          compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+        /** position in the current block */
+        private int                   pos;
+
+        /** number of bytes in the current block */
+        private int                   count;
+
+        /**
+         * Create a BlockInputStream
+         *
+         * @param in underlying stream
+         */
+        BlockInputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == count && !readBlock()) {
+                return -1;
+            }
+            return block[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == count && !readBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, count - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Read and decompress the next block
+         *
+         * @return true if a block is read, false if we reached the end of stream
+         * @throws IOException If an I/O error occurs
+         */
+        private boolean readBlock() throws IOException {
+            int rawLength;
+            try {
+                rawLength = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+
+            int storedLength = in.readInt();
+            if (rawLength <= 0 || rawLength > BLOCK_SIZE || storedLength <= 0
+                || storedLength > rawLength) {
+                throw new IOException("Corrupted block header");
+            }
+
+            if (storedLength == rawLength) {
+                in.readFully(block, 0, rawLength);
+            } else {
+                in.readFully(compressed, 0, storedLength);
+                if (decompressBlock(compressed, storedLength, block) != rawLength) {
+                    throw new IOException("Corrupted block");
+                }
+            }
+            pos = 0;
+            count = rawLength;
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.htyleo.extsort.common;
+
+/**
+ * A line represented as a range of bytes in a buffer (without line separator).
+ * The view is mutable and usually reused, so its content is only valid until the producer reads the next line.
+ *
+ * @author htyleo
+ */
+public class ByteLine {
+
+    /** buffer that contains the line */
+    private byte[] buffer;
+
+    /** beginning of the line in the buffer, inclusive */
+    private int    offset;
+
+    /** number of bytes of the line */
+    private int    length;
+
+    /**
+     * Create an empty ByteLine
+     */
+    public ByteLine() {
+        this(new byte[0], 0, 0);
+    }
+
+    /**
+     * Create a ByteLine
+     *
+     * @param buffer buffer that contains the line
+     * @param offset beginning of the line in the buffer
+     * @param length number of bytes of the line
+     */
+    public ByteLine(byte[] buffer, int offset, int length) {
+        set(buffer, offset, length);
+    }
+
+    /**
+     * Point this view to another range of bytes
+     *
+     * @param buffer buffer that contains the line
+     * @param offset beginning of the line in the buffer
+     * @param length number of bytes of the line
+     */
+    public void set(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Getter method for property <tt>buffer</tt>.
+     *
+     * @return property value of buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Getter method for property <tt>offset</tt>.
+     *
+     * @return property value of offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Getter method for property <tt>length</tt>.
+     *
+     * @return property value of length
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Compare two lines lexicographically as unsigned bytes.
+     * For UTF-8 (and ASCII), this is the same as comparing the code points of the lines.
+     *
+     * @param line1 the first line
+     * @param line2 the second line
+     * @return a negative integer, zero, or a positive integer as line1 is less than, equal to, or greater than line2
+     */
+    public static int compare(ByteLine line1, ByteLine line2) {
+        return compare(line1.buffer, line1.offset, line1.length, line2.buffer, line2.offset,
+            line2.length);
+    }
+
+    /**
+     * Compare two ranges of bytes lexicographically as unsigned bytes
+     *
+     * @param b1 buffer of the first range
+     * @param off1 beginning of the first range
+     * @param len1 length of the first range
+     * @param b2 buffer of the second range
+     * @param off2 beginning of the second range
+     * @param len2 length of the second range
+     * @return a negative integer, zero, or a positive integer as the first range is less than, equal to, or greater than the second
+     */
+    public static int compare(byte[] b1, int off1, int len1, byte[] b2, int off2, int len2) {
+        int len = Math.min(len1, len2);
+        for (int i = 0; i < len; i++) {
+            int c = (b1[off1 + i] & 0xFF) - (b2[off2 + i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len1 - len2;
+    }
+
+}
@@ -0,0 +1,282 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+
+/**
+ * A list of lines kept as (offset, length) ranges over a single byte buffer, so that a slice of file
+ * can be sorted and written without decoding the lines into Strings.
+ *
+ * Each line is packed into a long: the high 32 bits are the offset and the low 32 bits are the length.
+ *
+ * @author htyleo
+ */
+public class ByteLineList {
+
+    /** ranges shorter than this are sorted by insertion sort */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /** number of distinct bytes, i.e. the radix of the MSD radix sort */
+    private static final int RADIX                    = 256;
+
+    /** buckets deeper than this are sorted by merge sort, which bounds the recursion of the radix sort */
+    private static final int MAX_RADIX_DEPTH          = 512;
+
+    /** buffer that contains the lines */
+    private final byte[]     buffer;
+
+    /** packed (offset, length) of the lines */
+    private long[]           lines;
+
+    /** number of lines */
+    private int              size;
+
+    /**
+     * Split a buffer into lines.
+     * Note that the line separator could be "\n", "\r" or "\r\n", which is the same as {@link java.io.BufferedReader#readLine()}.
+     *
+     * @param buffer buffer
+     * @param length number of valid bytes in the buffer
+     */
+    public ByteLineList(byte[] buffer, int length) {
+        this.buffer = buffer;
+        this.lines = new long[16];
+
+        int begin = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                add(begin, i - begin);
+                if (b == '\r' && i + 1 < length && buffer[i + 1] == '\n') {
+                    i++;
+                }
+                begin = i + 1;
+            }
+        }
+        if (begin < length) {
+            add(begin, length - begin);
+        }
+    }
+
+    /**
+     * Get the number of lines
+     *
+     * @return number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Point the view to the i-th line
+     *
+     * @param i index of line
+     * @param line the view
+     * @return the view
+     */
+    public ByteLine get(int i, ByteLine line) {
+        line.set(buffer, offset(lines[i]), length(lines[i]));
+        return line;
+    }
+
+    /**
+     * Remove the lines that are not concerned by the filter. The lines are decoded only for filtering.
+     *
+     * @param lineFilter line filter
+     * @param encoding encoding of the lines
+     * @throws IOException If the encoding is not supported
+     */
+    public void filter(LineFilter lineFilter, String encoding) throws IOException {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            long line = lines[i];
+            if (lineFilter.isConcerned(new String(buffer, offset(line), length(line), encoding))) {
+                lines[kept++] = line;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Sort the lines lexicographically as unsigned bytes, by MSD radix sort.
+     * Small buckets are sorted by insertion sort, and very deep buckets (i.e. long common prefixes) by merge sort.
+     */
+    public void sort() {
+        radixSort(new long[size], 0, size, 0);
+    }
+
+    /**
+     * Remove the lines equal to their previous lines, the lines should be sorted
+     */
+    public void unique() {
+        int kept = Math.min(1, size);
+        for (int i = 1; i < size; i++) {
+            if (compare(lines[kept - 1], lines[i]) != 0) {
+                lines[kept++] = lines[i];
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Write the lines
+     *
+     * @param writer run writer
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(RunWriter writer) throws IOException {
+        for (int i = 0; i < size; i++) {
+            long line = lines[i];
+            writer.writeLine(buffer, offset(line), length(line));
+        }
+    }
+
+    /**
+     * Append a line
+     *
+     * @param offset offset of the line
+     * @param length length of the line
+     */
+    private void add(int offset, int length) {
+        if (size == lines.length) {
+            long[] grown = new long[lines.length * 2];
+            System.arraycopy(lines, 0, grown, 0, size);
+            lines = grown;
+        }
+        lines[size++] = ((long) offset << 32) | (length & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Sort lines[from, to) by MSD radix sort, all of which have the same first depth bytes
+     *
+     * @param aux auxiliary array, at least as large as lines
+     * @param from beginning of range, inclusive
+     * @param to end of range, exclusive
+     * @param depth index of the byte to distribute by
+     */
+    private void radixSort(long[] aux, int from, int to, int depth) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            insertionSort(lines, from, to);
+            return;
+        }
+        if (depth >= MAX_RADIX_DEPTH) {
+            System.arraycopy(lines, from, aux, from, to - from);
+            mergeSort(aux, lines, from, to);
+            return;
+        }
+
+        // count[b + 2] is the number of lines whose byte at depth is b, b = -1 means the line ends before depth
+        int[] count = new int[RADIX + 2];
+        for (int i = from; i < to; i++) {
+            count[digit(lines[i], depth) + 2]++;
+        }
+        for (int b = 0; b <= RADIX; b++) {
+            count[b + 1] += count[b];
+        }
+        for (int i = from; i < to; i++) {
+            long line = lines[i];
+            aux[from + count[digit(line, depth) + 1]++] = line;
+        }
+        System.arraycopy(aux, from, lines, from, to - from);
+
+        // the lines ending before depth are equal, the others are sorted by the next byte
+        for (int b = 0; b < RADIX; b++) {
+            if (count[b + 1] - count[b] > 1) {
+                radixSort(aux, from + count[b], from + count[b + 1], depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Get the byte of a packed line at depth
+     *
+     * @param line packed line
+     * @param depth index of the byte
+     * @return the byte as unsigned, or -1 if the line ends before depth
+     */
+    private int digit(long line, int depth) {
+        return depth < length(line) ? buffer[offset(line) + depth] & 0xFF : -1;
+    }
+
+    /**
+     * Sort src[from, to) into dst[from, to). Both arrays hold the same elements in the range before sorting.
+     *
+     * @param src source array
+     * @param dst destination array
+     * @param from beginning of range, inclusive
+     * @param to end of range, exclusive
+     */
+    private void mergeSort(long[] src, long[] dst, int from, int to) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            insertionSort(dst, from, to);
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(dst, src, from, mid);
+        mergeSort(dst, src, mid, to);
+
+        if (compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, from, dst, from, to - from);
+            return;
+        }
+
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to || (p < mid && compare(src[p], src[q]) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Sort a[from, to) by insertion sort
+     *
+     * @param a array
+     * @param from beginning of range, inclusive
+     * @param to end of range, exclusive
+     */
+    private void insertionSort(long[] a, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            long line = a[i];
+            int j = i - 1;
+            for (; j >= from && compare(a[j], line) > 0; j--) {
+                a[j + 1] = a[j];
+            }
+            a[j + 1] = line;
+        }
+    }
+
+    /**
+     * Compare two packed lines
+     *
+     * @param line1 the first line
+     * @param line2 the second line
+     * @return a negative integer, zero, or a positive integer as line1 is less than, equal to, or greater than line2
+     */
+    private int compare(long line1, long line2) {
+        return ByteLine.compare(buffer, offset(line1), length(line1), buffer, offset(line2),
+            length(line2));
+    }
+
+    /**
+     * Get the offset of a packed line
+     *
+     * @param line packed line
+     * @return offset
+     */
+    private static int offset(long line) {
+        return (int) (line >>> 32);
+    }
+
+    /**
+     * Get the length of a packed line
+     *
+     * @param line packed line
+     * @return length
+     */
+    private static int length(long line) {
+        return (int) line;
+    }
+
+}
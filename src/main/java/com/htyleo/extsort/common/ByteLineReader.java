@@ -0,0 +1,129 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read lines from an InputStream as bytes, without decoding them.
+ * Note that the line separator could be "\n", "\r" or "\r\n", which is the same as {@link java.io.BufferedReader#readLine()}.
+ * The encoding should represent "\n" and "\r" as single bytes (e.g. UTF-8).
+ *
+ * @author htyleo
+ */
+public class ByteLineReader implements RunReader {
+
+    /** underlying stream */
+    private final InputStream in;
+
+    /** the line returned by readLine, reused */
+    private final ByteLine    line = new ByteLine();
+
+    /** buffer, which grows if a line is longer than it */
+    private byte[]            buffer;
+
+    /** position of the next byte to be read in the buffer */
+    private int               pos;
+
+    /** number of valid bytes in the buffer */
+    private int               limit;
+
+    /** whether we reached the end of stream */
+    private boolean           eof;
+
+    /** whether the last line ended with "\r", so that a following "\n" should be skipped */
+    private boolean           skipLF;
+
+    /**
+     * Create a ByteLineReader
+     *
+     * @param in underlying stream
+     * @param bufferSize initial buffer size
+     */
+    public ByteLineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(1, bufferSize)];
+    }
+
+    /**
+     * Read next line
+     *
+     * @return next line without line separator, or null if we reached the end of stream. The returned line is only valid until the next call
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public ByteLine readLine() throws IOException {
+        if (skipLF) {
+            if (pos == limit && !fill()) {
+                return null;
+            }
+            skipLF = false;
+            if (buffer[pos] == '\n') {
+                pos++;
+            }
+        }
+
+        int scan = pos;
+        while (true) {
+            for (; scan < limit; scan++) {
+                byte b = buffer[scan];
+                if (b == '\n' || b == '\r') {
+                    line.set(buffer, pos, scan - pos);
+                    skipLF = (b == '\r');
+                    pos = scan + 1;
+                    return line;
+                }
+            }
+
+            int scanned = scan - pos;
+            if (!fill()) {
+                if (pos == limit) {
+                    return null;
+                }
+                line.set(buffer, pos, limit - pos);
+                pos = limit;
+                return line;
+            }
+            scan = pos + scanned;
+        }
+    }
+
+    /**
+     * Move the unread bytes to the beginning of the buffer (growing it if full) and read more bytes
+     *
+     * @return true if any byte was read, false if we reached the end of stream
+     * @throws IOException If an I/O error occurs
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+
+        int remaining = limit - pos;
+        if (remaining == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, pos, grown, 0, remaining);
+            buffer = grown;
+        } else if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, remaining);
+        }
+        pos = 0;
+        limit = remaining;
+
+        int n;
+        do {
+            n = in.read(buffer, limit, buffer.length - limit);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
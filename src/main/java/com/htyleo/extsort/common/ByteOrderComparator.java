@@ -0,0 +1,37 @@
+package com.htyleo.extsort.common;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Comparator;
+
+/**
+ * Compare Strings by their encoded bytes as unsigned bytes, which is the order used when lines are sorted as bytes.
+ * For UTF-8 (and ASCII), this is the same as comparing the code points of the Strings.
+ *
+ * @author htyleo
+ */
+public class ByteOrderComparator implements Comparator<String> {
+
+    /** encoding */
+    private final String encoding;
+
+    /**
+     * Create a ByteOrderComparator
+     *
+     * @param encoding encoding of the lines
+     */
+    public ByteOrderComparator(String encoding) {
+        this.encoding = encoding;
+    }
+
+    @Override
+    public int compare(String s1, String s2) {
+        try {
+            byte[] b1 = s1.getBytes(encoding);
+            byte[] b2 = s2.getBytes(encoding);
+            return ByteLine.compare(b1, 0, b1.length, b2, 0, b2.length);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * A RunWriter which folds adjacent lines with the same key by a {@link LineCombiner} before writing them
+ * to the underlying writer. A group of lines is written when a line with a different key arrives, or on flush.
+ * Lines given as bytes are decoded, since the keys are compared by the line comparator.
+ *
+ * @author htyleo
+ */
+public class CombiningRunWriter implements RunWriter {
+
+    /** underlying writer */
+    private final RunWriter          out;
+
+    /** line combiner */
+    private final LineCombiner       combiner;
+
+    /** line comparator, lines have the same key if they are equal by it */
+    private final Comparator<String> lineComparator;
+
+    /** encoding of the lines */
+    private final String             encoding;
+
+    /** first line of the pending group, null if there is no pending group */
+    private String                   first;
+
+    /** combination of the pending group, null if the group has only one line */
+    private String                   combined;
+
+    /**
+     * Create a CombiningRunWriter
+     *
+     * @param out underlying writer
+     * @param combiner line combiner
+     * @param lineComparator line comparator, lines have the same key if they are equal by it
+     * @param encoding encoding of the lines given as bytes
+     */
+    public CombiningRunWriter(RunWriter out, LineCombiner combiner,
+                              Comparator<String> lineComparator, String encoding) {
+        this.out = out;
+        this.combiner = combiner;
+        this.lineComparator = lineComparator;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void writeLine(String line) throws IOException {
+        if (first != null && lineComparator.compare(first, line) == 0) {
+            combined = combiner.combine(combined == null ? first : combined, line);
+            return;
+        }
+
+        writePending();
+        first = line;
+    }
+
+    @Override
+    public void writeLine(ByteLine line) throws IOException {
+        writeLine(line.getBuffer(), line.getOffset(), line.getLength());
+    }
+
+    @Override
+    public void writeLine(byte[] buffer, int offset, int length) throws IOException {
+        writeLine(new String(buffer, offset, length, encoding));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writePending();
+        out.flush();
+    }
+
+    @Override
+    public long getPosition() {
+        return out.getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writePending();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the pending group to the underlying writer
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void writePending() throws IOException {
+        if (first == null) {
+            return;
+        }
+
+        out.writeLine(combined == null ? first : combined);
+        first = null;
+        combined = null;
+    }
+
+}
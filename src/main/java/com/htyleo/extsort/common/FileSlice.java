@@ -1,5 +1,7 @@
 package com.htyleo.extsort.common;
 
+import java.io.File;
+
 /**
  * A logical file slice
  *
@@ -7,6 +9,9 @@ package com.htyleo.extsort.common;
  */
 public class FileSlice {
 
+    /** the file of the slice, null if it is implied by the context (e.g. the only source file) */
+    public final File      file;
+
     /** slice type */
     public final SliceType type;
 
@@ -24,6 +29,19 @@ public class FileSlice {
      * @param end the end position
      */
     public FileSlice(SliceType type, long begin, long end) {
+        this(null, type, begin, end);
+    }
+
+    /**
+     * Create a FileSlice, which is the the logical part of the file from begin (inclusive) to end (exclusive)
+     *
+     * @param file the file
+     * @param type slice type
+     * @param begin the beginning position
+     * @param end the end position
+     */
+    public FileSlice(File file, SliceType type, long begin, long end) {
+        this.file = file;
         this.type = type;
         this.begin = begin;
         this.end = end;
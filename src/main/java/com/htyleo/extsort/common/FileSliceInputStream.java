@@ -0,0 +1,91 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * An InputStream of a sequence of file slices (possibly of different files) read one after another.
+ * A "\n" is inserted after every slice which does not end with a line separator,
+ * so that the last line of a file is not joined with the first line of the next one.
+ * The files are opened one at a time.
+ *
+ * @author htyleo
+ */
+public class FileSliceInputStream extends InputStream {
+
+    /** the slices, each of which must have a file */
+    private final List<FileSlice>       slices;
+
+    /** index of the current slice */
+    private int                         index = -1;
+
+    /** stream of the current slice, null if the next slice has not been opened */
+    private RandomAccessFileInputStream current;
+
+    /** the last byte read from the current slice, "\n" if nothing has been read */
+    private byte                        lastByte;
+
+    /** whether a "\n" should be returned before the next slice */
+    private boolean                     separatorPending;
+
+    /**
+     * Create a FileSliceInputStream
+     *
+     * @param slices the slices, each of which must have a file
+     */
+    public FileSliceInputStream(List<FileSlice> slices) {
+        this.slices = slices;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (separatorPending) {
+                separatorPending = false;
+                b[off] = '\n';
+                return 1;
+            }
+
+            if (current == null) {
+                if (index + 1 >= slices.size()) {
+                    return -1;
+                }
+                FileSlice slice = slices.get(++index);
+                current = new RandomAccessFileInputStream(slice.file, slice.begin, slice.end);
+                lastByte = '\n';
+            }
+
+            int n = current.read(b, off, len);
+            if (n > 0) {
+                lastByte = b[off + n - 1];
+                return n;
+            }
+
+            current.close();
+            current = null;
+            separatorPending = lastByte != '\n' && lastByte != '\r';
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        index = slices.size();
+        separatorPending = false;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A RunWriter which records every interval-th line and its offset into a {@link SortedFileIndex}
+ * while writing the lines to a LineWriter
+ *
+ * @author htyleo
+ */
+public class IndexingRunWriter implements RunWriter {
+
+    /** underlying writer */
+    private final LineWriter   out;
+
+    /** number of lines between two entries */
+    private final int          interval;
+
+    /** encoding of the lines */
+    private final String       encoding;
+
+    /** offset of the first line */
+    private final long         begin;
+
+    /** indexed lines */
+    private final List<byte[]> keys    = new ArrayList<byte[]>();
+
+    /** offsets of the indexed lines */
+    private final List<Long>   offsets = new ArrayList<Long>();
+
+    /** number of lines written */
+    private long               count;
+
+    /**
+     * Create an IndexingRunWriter, the lines written to the writer before are not indexed
+     *
+     * @param out underlying writer
+     * @param interval number of lines between two entries
+     * @param encoding encoding of the lines given as Strings
+     */
+    public IndexingRunWriter(LineWriter out, int interval, String encoding) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        this.out = out;
+        this.interval = interval;
+        this.encoding = encoding;
+        this.begin = out.getPosition();
+    }
+
+    @Override
+    public void writeLine(String line) throws IOException {
+        if (count++ % interval == 0) {
+            record(line.getBytes(encoding));
+        }
+        out.writeLine(line);
+    }
+
+    @Override
+    public void writeLine(ByteLine line) throws IOException {
+        writeLine(line.getBuffer(), line.getOffset(), line.getLength());
+    }
+
+    @Override
+    public void writeLine(byte[] buffer, int offset, int length) throws IOException {
+        if (count++ % interval == 0) {
+            record(Arrays.copyOfRange(buffer, offset, offset + length));
+        }
+        out.writeLine(buffer, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public long getPosition() {
+        return out.getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Get the index of the lines written so far
+     *
+     * @return the index
+     */
+    public SortedFileIndex getIndex() {
+        long[] positions = new long[offsets.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = offsets.get(i);
+        }
+        return new SortedFileIndex(begin, out.getPosition(), keys.toArray(new byte[0][]),
+            positions);
+    }
+
+    /**
+     * Record the next line as an entry
+     *
+     * @param key the next line
+     */
+    private void record(byte[] key) {
+        keys.add(key);
+        offsets.add(out.getPosition());
+    }
+
+}
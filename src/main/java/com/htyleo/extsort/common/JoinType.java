@@ -0,0 +1,17 @@
+package com.htyleo.extsort.common;
+
+/**
+ * Type of the merge-join of two sorted files
+ *
+ * @author htyleo
+ */
+public enum JoinType {
+    /** only the pairs of left and right lines with the same key */
+    INNER,
+
+    /** the pairs of lines with the same key, and every left line without a matching right line */
+    LEFT,
+
+    /** the pairs of lines with the same key, and every left or right line without a matching line on the other side */
+    FULL
+}
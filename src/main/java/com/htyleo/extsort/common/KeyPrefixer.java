@@ -0,0 +1,23 @@
+package com.htyleo.extsort.common;
+
+/**
+ * Compute the normalized key prefix of a line, which allows most comparisons to be resolved on a primitive long
+ * instead of calling the line comparator.
+ *
+ * The prefixes must be consistent with the line comparator: if prefix(line1) &lt; prefix(line2)
+ * (compared as unsigned longs), then line1 must be less than line2. Lines with equal prefixes are compared
+ * by the line comparator.
+ *
+ * @author htyleo
+ */
+public interface KeyPrefixer {
+
+    /**
+     * Compute the prefix of a line
+     *
+     * @param line line
+     * @return prefix, compared as an unsigned long
+     */
+    long prefix(String line);
+
+}
@@ -0,0 +1,71 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+
+/**
+ * A RunWriter which only writes the first limit lines to the underlying writer, and drops the others
+ *
+ * @author htyleo
+ */
+public class LimitedRunWriter implements RunWriter {
+
+    /** underlying writer */
+    private final RunWriter out;
+
+    /** maximum number of lines written */
+    private final long      limit;
+
+    /** number of lines written */
+    private long            count;
+
+    /**
+     * Create a LimitedRunWriter
+     *
+     * @param out underlying writer
+     * @param limit maximum number of lines written
+     */
+    public LimitedRunWriter(RunWriter out, long limit) {
+        this.out = out;
+        this.limit = limit;
+    }
+
+    @Override
+    public void writeLine(String line) throws IOException {
+        if (count < limit) {
+            out.writeLine(line);
+            count++;
+        }
+    }
+
+    @Override
+    public void writeLine(ByteLine line) throws IOException {
+        if (count < limit) {
+            out.writeLine(line);
+            count++;
+        }
+    }
+
+    @Override
+    public void writeLine(byte[] buffer, int offset, int length) throws IOException {
+        if (count < limit) {
+            out.writeLine(buffer, offset, length);
+            count++;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public long getPosition() {
+        return out.getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
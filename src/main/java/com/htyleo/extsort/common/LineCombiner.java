@@ -0,0 +1,23 @@
+package com.htyleo.extsort.common;
+
+/**
+ * line combiner, which folds adjacent lines with the same key into one line (e.g. counts or sums per key)
+ *
+ * Lines have the same key if they are equal by the line comparator.
+ * The combiner is applied to every sorted file before it is written and again during the merge,
+ * so it should be associative, and the combined line should have the same key as the lines combined.
+ *
+ * @author htyleo
+ */
+public interface LineCombiner {
+
+    /**
+     * The logic to combine lines
+     *
+     * @param combined the combination of the previous lines with the same key (or the first of them)
+     * @param line the next line with the same key
+     * @return the combination of all the lines
+     */
+    String combine(String combined, String line);
+
+}
@@ -0,0 +1,21 @@
+package com.htyleo.extsort.common;
+
+/**
+ * line joiner, which builds the output line of a left line and a right line with the same key in a merge-join
+ *
+ * Lines have the same key if they are equal by the line comparator.
+ *
+ * @author htyleo
+ */
+public interface LineJoiner {
+
+    /**
+     * The logic to join lines
+     *
+     * @param left the left line, or null if there is no left line with the key (only in a full join)
+     * @param right the right line, or null if there is no right line with the key (only in a left or full join)
+     * @return the output line
+     */
+    String join(String left, String right);
+
+}
@@ -0,0 +1,174 @@
+package com.htyleo.extsort.common;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Write lines, given either as Strings or as bytes, each followed by the system line separator
+ * (the same as {@link BufferedWriter#newLine()}).
+ * Lines given as Strings are encoded straight into the buffered byte stream, so the bytes written are known
+ * at any time without flushing.
+ *
+ * @author htyleo
+ */
+public class LineWriter implements RunWriter {
+
+    /** system line separator */
+    private static final String  LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /** buffered byte stream, which counts the bytes written */
+    private final CountingStream out;
+
+    /** line separator in bytes */
+    private final byte[]         lineSeparator;
+
+    /** encoder of the lines given as Strings, replacing malformed and unmappable characters like a Writer */
+    private final CharsetEncoder encoder;
+
+    /** buffer of the encoded bytes of a line */
+    private final ByteBuffer     encoded;
+
+    /**
+     * Create a LineWriter
+     *
+     * @param out underlying stream
+     * @param encoding file encoding
+     * @param bufferSize buffer size
+     * @throws IOException If the encoding is not supported
+     */
+    public LineWriter(OutputStream out, String encoding, int bufferSize) throws IOException {
+        this.out = new CountingStream(new BufferedOutputStream(out, bufferSize));
+        this.lineSeparator = LINE_SEPARATOR.getBytes(encoding);
+        this.encoder = Charset.forName(encoding).newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoded = ByteBuffer.allocate(Math.max(bufferSize, 64));
+    }
+
+    /**
+     * Write a line and the line separator
+     *
+     * @param line line
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void writeLine(String line) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(chars, encoded, true)).isOverflow()) {
+            drain();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        while (encoder.flush(encoded).isOverflow()) {
+            drain();
+        }
+        drain();
+        out.write(lineSeparator);
+    }
+
+    /**
+     * Write a line and the line separator
+     *
+     * @param line line in bytes
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void writeLine(ByteLine line) throws IOException {
+        writeLine(line.getBuffer(), line.getOffset(), line.getLength());
+    }
+
+    /**
+     * Write a line and the line separator
+     *
+     * @param buffer buffer that contains the line
+     * @param offset beginning of the line
+     * @param length number of bytes of the line
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void writeLine(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+        out.write(lineSeparator);
+    }
+
+    /**
+     * Flush all the buffered lines to the underlying stream
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Get the number of bytes written so far, i.e. the offset of the next line in the underlying stream
+     *
+     * @return number of bytes written
+     */
+    @Override
+    public long getPosition() {
+        return out.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Hand the encoded bytes to out
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void drain() throws IOException {
+        out.write(encoded.array(), 0, encoded.position());
+        encoded.clear();
+    }
+
+    /**
+     * Output stream which counts the bytes written to the underlying stream
+     */
+    private static class CountingStream extends FilterOutputStream {
+        /** number of bytes written */
+        private long count;
+
+        /**
+         * Create a CountingStream
+         *
+         * @param out underlying stream
+         */
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.htyleo.extsort.common;
+
+/**
+ * A tournament tree of losers over k sources, used for k-way merge.
+ * The tree does not hold any record itself; it only stores source indexes and asks the
+ * {@link Contestants} to compare the current records of two sources.
+ *
+ * Layout: node 0 holds the overall winner, nodes 1 .. k-1 hold the loser of each match,
+ * and source i is the (virtual) leaf k + i. Therefore the parent of node n is n / 2.
+ *
+ * Ties are broken by source index, so the merge is stable with respect to the source order.
+ *
+ * @author htyleo
+ */
+public class LoserTree {
+
+    /**
+     * The sources competing in the tree
+     */
+    public interface Contestants {
+
+        /**
+         * Whether the source has no more records
+         *
+         * @param source index of source
+         * @return true if the source is exhausted, false otherwise
+         */
+        boolean isExhausted(int source);
+
+        /**
+         * Compare the current records of two (non-exhausted) sources
+         *
+         * @param source1 index of the first source
+         * @param source2 index of the second source
+         * @return a negative integer, zero, or a positive integer as the record of source1 is less than, equal to, or greater than the record of source2
+         */
+        int compare(int source1, int source2);
+    }
+
+    /** number of sources */
+    private final int         k;
+
+    /** tree[0] is the winner, tree[1 .. k-1] are losers */
+    private final int[]       tree;
+
+    /** sources */
+    private final Contestants contestants;
+
+    /**
+     * Create a LoserTree. The current record of every source must be ready before the creation.
+     *
+     * @param k number of sources
+     * @param contestants sources
+     */
+    public LoserTree(int k, Contestants contestants) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+
+        this.k = k;
+        this.tree = new int[k];
+        this.contestants = contestants;
+        this.tree[0] = build(1);
+    }
+
+    /**
+     * Get the index of the source with the smallest current record
+     *
+     * @return index of the winner, or -1 if all sources are exhausted
+     */
+    public int winner() {
+        int winner = tree[0];
+        return contestants.isExhausted(winner) ? -1 : winner;
+    }
+
+    /**
+     * Replay the matches from the leaf of the current winner to the root.
+     * Should be called after the current record of the winner has been replaced (or exhausted).
+     */
+    public void replay() {
+        int winner = tree[0];
+        for (int node = (winner + k) >>> 1; node > 0; node >>>= 1) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+     * Play the matches of the subtree rooted at node
+     *
+     * @param node node index
+     * @return the winner of the subtree
+     */
+    private int build(int node) {
+        if (node >= k) {
+            return node - k;
+        }
+
+        int left = build(node << 1);
+        int right = build((node << 1) + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        } else {
+            tree[node] = left;
+            return right;
+        }
+    }
+
+    /**
+     * Whether source1 beats (i.e. should be output before) source2
+     *
+     * @param source1 index of the first source
+     * @param source2 index of the second source
+     * @return true if source1 beats source2
+     */
+    private boolean beats(int source1, int source2) {
+        if (contestants.isExhausted(source1)) {
+            return false;
+        }
+        if (contestants.isExhausted(source2)) {
+            return true;
+        }
+
+        int cmp = contestants.compare(source1, source2);
+        return cmp < 0 || (cmp == 0 && source1 < source2);
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.htyleo.extsort.common;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A memory budget shared by the slices sorted concurrently. A slice may only be loaded into memory
+ * after its estimated heap usage has been reserved, and the reservation is released after the slice is written.
+ *
+ * Besides admission control, it estimates the heap used by a slice, which is several times the size of
+ * the slice in bytes because of the decoded Strings and the list holding them.
+ *
+ * @author htyleo
+ */
+public class MemoryBudget {
+
+    /** the budget is managed in units of 1 KB, so that it fits in the permits of a Semaphore */
+    private static final int  UNIT                       = 1024;
+
+    /** heap used by each line in String mode: String object, its array header, reference in the list and list slack */
+    private static final int  STRING_LINE_OVERHEAD       = 64;
+
+    /** heap used by each byte in String mode, in the worst case (i.e. the String is stored in UTF-16) */
+    private static final int  STRING_BYTE_OVERHEAD       = 2;
+
+    /**
+     * heap used by each line in byte mode: the packed range in the long[] of ByteLineList (8), the slack of
+     * doubling that array (up to 8) and the auxiliary long[] of the radix sort (8)
+     */
+    private static final int  BYTE_LINE_OVERHEAD         = 24;
+
+    /** heap used by each byte in byte mode: the byte itself */
+    private static final int  BYTE_BYTE_OVERHEAD         = 1;
+
+    /** total budget in bytes */
+    private final long        capacity;
+
+    /** permits in units */
+    private final Semaphore   permits;
+
+    /**
+     * Create a MemoryBudget
+     *
+     * @param capacity total budget in bytes
+     */
+    public MemoryBudget(long capacity) {
+        this.capacity = capacity;
+        this.permits = new Semaphore(toUnits(capacity), true);
+    }
+
+    /**
+     * Getter method for property <tt>capacity</tt>.
+     *
+     * @return property value of capacity
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Reserve memory, waiting until enough memory is released by others.
+     * A reservation larger than the whole budget waits until the whole budget is available.
+     *
+     * @param bytes memory to be reserved
+     * @return the actually reserved memory, which should be passed to {@link #release(long)}
+     * @throws InterruptedException If the current thread is interrupted while waiting
+     */
+    public long reserve(long bytes) throws InterruptedException {
+        long reserved = Math.min(bytes, capacity);
+        permits.acquire(toUnits(reserved));
+        return reserved;
+    }
+
+    /**
+     * Release memory reserved before
+     *
+     * @param reserved memory returned by {@link #reserve(long)}
+     */
+    public void release(long reserved) {
+        permits.release(toUnits(reserved));
+    }
+
+    /**
+     * Estimate the heap used when a slice is loaded and sorted in memory
+     *
+     * @param sliceBytes size of the slice in bytes
+     * @param averageLineLength average length of lines in bytes, including the line separator
+     * @param byteMode whether lines are kept as bytes rather than Strings
+     * @param bufferSize buffer size used for reading and writing the slice
+     * @return estimated heap usage in bytes
+     */
+    public static long estimateSliceMemory(long sliceBytes, double averageLineLength,
+                                           boolean byteMode, int bufferSize) {
+        long lines = (long) Math.ceil(sliceBytes / Math.max(1, averageLineLength));
+        long heap;
+        if (byteMode) {
+            heap = sliceBytes * BYTE_BYTE_OVERHEAD + lines * BYTE_LINE_OVERHEAD;
+        } else {
+            heap = sliceBytes * STRING_BYTE_OVERHEAD + lines * STRING_LINE_OVERHEAD;
+        }
+        return heap + 2L * bufferSize;
+    }
+
+    /**
+     * Find the largest slice size whose estimated heap usage is no more than the given memory
+     *
+     * @param memory memory available to a slice in bytes
+     * @param averageLineLength average length of lines in bytes, including the line separator
+     * @param byteMode whether lines are kept as bytes rather than Strings
+     * @param bufferSize buffer size used for reading and writing the slice
+     * @return slice size in bytes, may be non-positive if the memory is not enough for even the buffers
+     */
+    public static long maxSliceSize(long memory, double averageLineLength, boolean byteMode,
+                                    int bufferSize) {
+        double lineLength = Math.max(1, averageLineLength);
+        double perByte = byteMode ? BYTE_BYTE_OVERHEAD + BYTE_LINE_OVERHEAD / lineLength
+            : STRING_BYTE_OVERHEAD + STRING_LINE_OVERHEAD / lineLength;
+        return (long) ((memory - 2L * bufferSize) / perByte);
+    }
+
+    /**
+     * Convert bytes to units, rounding up
+     *
+     * @param bytes bytes
+     * @return units
+     */
+    private static int toUnits(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + UNIT - 1) / UNIT);
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.htyleo.extsort.common;
+
+/**
+ * Algorithm used to pick the next line among a group of sorted files during merge
+ *
+ * @author htyleo
+ */
+public enum MergeEngine {
+    /** binary heap (java.util.PriorityQueue), one remove and one add per line */
+    PRIORITY_QUEUE,
+
+    /** tournament tree of losers, one replay of log2(k) comparisons per line without allocation */
+    LOSER_TREE
+}
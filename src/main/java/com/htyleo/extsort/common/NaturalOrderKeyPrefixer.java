@@ -0,0 +1,24 @@
+package com.htyleo.extsort.common;
+
+/**
+ * The key prefixer consistent with the natural order of Strings (i.e. {@link String#compareTo(String)}),
+ * which packs the first 4 chars of a line into a long. Shorter lines are padded with 0.
+ *
+ * @author htyleo
+ */
+public class NaturalOrderKeyPrefixer implements KeyPrefixer {
+
+    /** number of chars in a prefix */
+    private static final int PREFIX_CHARS = 4;
+
+    @Override
+    public long prefix(String line) {
+        int length = Math.min(PREFIX_CHARS, line.length());
+        long prefix = 0;
+        for (int i = 0; i < length; i++) {
+            prefix = (prefix << 16) | line.charAt(i);
+        }
+        return prefix << (16 * (PREFIX_CHARS - length));
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.htyleo.extsort.common;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A list of lines sorted by their key prefixes (see {@link KeyPrefixer}) first and by the line comparator on ties.
+ *
+ * The prefixes are kept in a primitive long array alongside the indexes of the lines, so that most comparisons
+ * only touch the two arrays instead of the String objects.
+ *
+ * @author htyleo
+ */
+public class PrefixedLineList {
+
+    /** ranges shorter than this are sorted by insertion sort */
+    private static final int         INSERTION_SORT_THRESHOLD = 16;
+
+    /** lines */
+    private final String[]           lines;
+
+    /** prefixes of the lines in sorted order, flipped so that they can be compared as signed longs */
+    private final long[]             prefixes;
+
+    /** indexes of the lines in sorted order */
+    private final int[]              indexes;
+
+    /** line comparator, used on ties */
+    private final Comparator<String> lineComparator;
+
+    /**
+     * Create a PrefixedLineList
+     *
+     * @param lines lines
+     * @param keyPrefixer key prefixer, which should be consistent with the line comparator
+     * @param lineComparator line comparator
+     */
+    public PrefixedLineList(List<String> lines, KeyPrefixer keyPrefixer,
+                            Comparator<String> lineComparator) {
+        this.lines = lines.toArray(new String[lines.size()]);
+        this.prefixes = new long[this.lines.length];
+        this.indexes = new int[this.lines.length];
+        this.lineComparator = lineComparator;
+        for (int i = 0; i < this.lines.length; i++) {
+            prefixes[i] = keyPrefixer.prefix(this.lines[i]) ^ Long.MIN_VALUE;
+            indexes[i] = i;
+        }
+    }
+
+    /**
+     * Get the number of lines
+     *
+     * @return number of lines
+     */
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * Get the i-th line
+     *
+     * @param i index of line
+     * @return the line
+     */
+    public String get(int i) {
+        return lines[indexes[i]];
+    }
+
+    /**
+     * Sort the lines. The sort is stable.
+     */
+    public void sort() {
+        int size = lines.length;
+        long[] auxPrefixes = new long[size];
+        int[] auxIndexes = new int[size];
+        System.arraycopy(prefixes, 0, auxPrefixes, 0, size);
+        System.arraycopy(indexes, 0, auxIndexes, 0, size);
+        mergeSort(auxPrefixes, auxIndexes, prefixes, indexes, 0, size);
+    }
+
+    /**
+     * Sort src[from, to) into dst[from, to). Both arrays hold the same elements in the range before sorting.
+     *
+     * @param srcPrefixes source prefixes
+     * @param srcIndexes source indexes
+     * @param dstPrefixes destination prefixes
+     * @param dstIndexes destination indexes
+     * @param from beginning of range, inclusive
+     * @param to end of range, exclusive
+     */
+    private void mergeSort(long[] srcPrefixes, int[] srcIndexes, long[] dstPrefixes,
+                           int[] dstIndexes, int from, int to) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            insertionSort(dstPrefixes, dstIndexes, from, to);
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSort(dstPrefixes, dstIndexes, srcPrefixes, srcIndexes, from, mid);
+        mergeSort(dstPrefixes, dstIndexes, srcPrefixes, srcIndexes, mid, to);
+
+        if (compare(srcPrefixes[mid - 1], srcIndexes[mid - 1], srcPrefixes[mid],
+            srcIndexes[mid]) <= 0) {
+            System.arraycopy(srcPrefixes, from, dstPrefixes, from, to - from);
+            System.arraycopy(srcIndexes, from, dstIndexes, from, to - from);
+            return;
+        }
+
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to
+                || (p < mid && compare(srcPrefixes[p], srcIndexes[p], srcPrefixes[q],
+                    srcIndexes[q]) <= 0)) {
+                dstPrefixes[i] = srcPrefixes[p];
+                dstIndexes[i] = srcIndexes[p++];
+            } else {
+                dstPrefixes[i] = srcPrefixes[q];
+                dstIndexes[i] = srcIndexes[q++];
+            }
+        }
+    }
+
+    /**
+     * Sort [from, to) by insertion sort
+     *
+     * @param prefixes prefixes
+     * @param indexes indexes
+     * @param from beginning of range, inclusive
+     * @param to end of range, exclusive
+     */
+    private void insertionSort(long[] prefixes, int[] indexes, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            long prefix = prefixes[i];
+            int index = indexes[i];
+            int j = i - 1;
+            for (; j >= from && compare(prefixes[j], indexes[j], prefix, index) > 0; j--) {
+                prefixes[j + 1] = prefixes[j];
+                indexes[j + 1] = indexes[j];
+            }
+            prefixes[j + 1] = prefix;
+            indexes[j + 1] = index;
+        }
+    }
+
+    /**
+     * Compare two lines by their prefixes, and by the line comparator on ties
+     *
+     * @param prefix1 flipped prefix of the first line
+     * @param index1 index of the first line
+     * @param prefix2 flipped prefix of the second line
+     * @param index2 index of the second line
+     * @return a negative integer, zero, or a positive integer as the first line is less than, equal to, or greater than the second
+     */
+    private int compare(long prefix1, int index1, long prefix2, int index2) {
+        if (prefix1 != prefix2) {
+            return prefix1 < prefix2 ? -1 : 1;
+        }
+        return lineComparator.compare(lines[index1], lines[index2]);
+    }
+
+}
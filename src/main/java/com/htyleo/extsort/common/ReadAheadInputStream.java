@@ -0,0 +1,172 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An InputStream which reads the underlying stream ahead in the background by double buffering:
+ * while the current block is consumed, the next block is filled by a task running in an I/O executor.
+ * Each stream holds at most two blocks.
+ *
+ * The underlying stream is only accessed by one fill task at a time, and close waits for the running task.
+ * The executor must not be the one whose threads consume the streams, otherwise the fill tasks may starve.
+ *
+ * @author htyleo
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /** underlying stream */
+    private final InputStream   in;
+
+    /** executor running the fill tasks */
+    private final Executor      executor;
+
+    /** block being consumed */
+    private byte[]              current;
+
+    /** block being filled in the background */
+    private byte[]              next;
+
+    /** position in the current block */
+    private int                 pos;
+
+    /** number of valid bytes in the current block */
+    private int                 limit;
+
+    /** the task filling the next block, null if the underlying stream is exhausted */
+    private FutureTask<Integer> pending;
+
+    /**
+     * Create a ReadAheadInputStream, the first block is filled in the background at once
+     *
+     * @param in underlying stream
+     * @param executor executor running the fill tasks
+     * @param blockSize size of each block
+     */
+    public ReadAheadInputStream(InputStream in, Executor executor, int blockSize) {
+        this.in = in;
+        this.executor = executor;
+        this.current = new byte[blockSize];
+        this.next = new byte[blockSize];
+        fillNext();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+        return current[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) {
+            return 0;
+        }
+        if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (pending != null) {
+                // the underlying stream must not be closed while it is being read
+                await();
+            }
+        } catch (IOException e) {
+            // ignore, the stream is closed anyway
+        } finally {
+            pending = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Switch to the block filled in the background, and start filling the other block
+     *
+     * @return false if the underlying stream is exhausted
+     * @throws IOException If an I/O error occurs
+     */
+    private boolean nextBlock() throws IOException {
+        while (pending != null) {
+            int n = await();
+            if (n < 0) {
+                pending = null;
+                return false;
+            }
+
+            byte[] filled = next;
+            next = current;
+            current = filled;
+            pos = 0;
+            limit = n;
+            fillNext();
+            if (n > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wait for the fill task
+     *
+     * @return number of bytes filled, or -1 if the underlying stream is exhausted
+     * @throws IOException If the fill task failed or the waiting is interrupted
+     */
+    private int await() throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading ahead");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Submit a task which fills the next block from the underlying stream
+     */
+    private void fillNext() {
+        final byte[] block = next;
+        pending = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int n = 0;
+                while (n < block.length) {
+                    int read = in.read(block, n, block.length - n);
+                    if (read < 0) {
+                        return n == 0 ? -1 : n;
+                    }
+                    n += read;
+                }
+                return n;
+            }
+        });
+        executor.execute(pending);
+    }
+
+}
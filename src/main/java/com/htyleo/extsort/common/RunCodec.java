@@ -0,0 +1,33 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Codec of the intermediate sorted files (i.e. the body files written in the partition phase and
+ * the files written by intermediate merge passes), which are written by the partition phase and read back by the merge phase.
+ *
+ * @author htyleo
+ */
+public interface RunCodec {
+
+    /**
+     * Wrap a stream so that the bytes written to it are compressed
+     *
+     * @param out underlying stream
+     * @return compressing stream, closing it closes the underlying stream
+     * @throws IOException If an I/O error occurs
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wrap a stream so that the bytes read from it are decompressed
+     *
+     * @param in underlying stream
+     * @return decompressing stream, closing it closes the underlying stream
+     * @throws IOException If an I/O error occurs
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+}
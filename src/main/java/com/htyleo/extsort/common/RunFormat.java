@@ -0,0 +1,14 @@
+package com.htyleo.extsort.common;
+
+/**
+ * Format of the intermediate sorted files
+ *
+ * @author htyleo
+ */
+public enum RunFormat {
+    /** lines separated by the system line separator */
+    TEXT,
+
+    /** length-prefixed records in fixed-size blocks, followed by a sparse index of the blocks, see {@link BinaryRunWriter} */
+    BINARY
+}
@@ -0,0 +1,18 @@
+package com.htyleo.extsort.common;
+
+/**
+ * Strategy used to generate the sorted files (runs) in the partition phase
+ *
+ * @author htyleo
+ */
+public enum RunGeneration {
+    /** every slice of sliceSize bytes is sorted in memory and written as a run */
+    SLICE,
+
+    /**
+     * replacement selection: lines flow through a heap of sliceSize bytes, and a line is appended to the current run
+     * as long as it is not less than the last line written. Runs are about twice the heap size on random input,
+     * and a single run on nearly sorted input
+     */
+    REPLACEMENT_SELECTION
+}
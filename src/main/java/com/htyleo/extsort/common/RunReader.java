@@ -0,0 +1,21 @@
+package com.htyleo.extsort.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reader of lines as bytes
+ *
+ * @author htyleo
+ */
+public interface RunReader extends Closeable {
+
+    /**
+     * Read next line
+     *
+     * @return next line, or null if we reached the end. The returned line is only valid until the next call
+     * @throws IOException If an I/O error occurs
+     */
+    ByteLine readLine() throws IOException;
+
+}
@@ -0,0 +1,54 @@
+package com.htyleo.extsort.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writer of sorted lines, given either as Strings or as bytes
+ *
+ * @author htyleo
+ */
+public interface RunWriter extends Closeable {
+
+    /**
+     * Write a line
+     *
+     * @param line line
+     * @throws IOException If an I/O error occurs
+     */
+    void writeLine(String line) throws IOException;
+
+    /**
+     * Write a line
+     *
+     * @param line line in bytes
+     * @throws IOException If an I/O error occurs
+     */
+    void writeLine(ByteLine line) throws IOException;
+
+    /**
+     * Write a line
+     *
+     * @param buffer buffer that contains the line
+     * @param offset beginning of the line
+     * @param length number of bytes of the line
+     * @throws IOException If an I/O error occurs
+     */
+    void writeLine(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Flush all the buffered lines to the underlying stream
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    void flush() throws IOException;
+
+    /**
+     * Get the number of bytes of lines written so far, including the buffered ones,
+     * before any compression of the underlying stream
+     *
+     * @return number of bytes written
+     */
+    long getPosition();
+
+}
@@ -0,0 +1,18 @@
+package com.htyleo.extsort.common;
+
+/**
+ * Set operation over the keys of sorted files. Every key is written once, as the first of its lines
+ * in the first file containing it.
+ *
+ * @author htyleo
+ */
+public enum SetOperation {
+    /** keys in any of the files */
+    UNION,
+
+    /** keys in all the files */
+    INTERSECTION,
+
+    /** keys in the first file but in none of the others */
+    DIFFERENCE
+}
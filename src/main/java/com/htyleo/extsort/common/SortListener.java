@@ -0,0 +1,83 @@
+package com.htyleo.extsort.common;
+
+import java.io.File;
+
+/**
+ * sort listener, which receives the progress and metrics of the phases of external sorting,
+ * e.g. to export throughput and phase latencies to monitoring
+ *
+ * Slices are sorted and files are merged concurrently, so the events may be received by several threads at once,
+ * and the listener should be thread-safe. The events are received by the sorting threads, so they should return quickly.
+ * Extend {@link SortListenerAdapter} to receive only some of the events.
+ *
+ * @author htyleo
+ */
+public interface SortListener {
+
+    /**
+     * Called when a file has been split into slices, before any slice is sorted.
+     * Not called for streams, whose slices are only known as they are read.
+     *
+     * @param sourceName name of the original file
+     * @param sliceCount number of slices, including header and tail
+     * @param sliceSize the planned size of body slices in bytes
+     */
+    void onSlicesPlanned(String sourceName, int sliceCount, long sliceSize);
+
+    /**
+     * Called when a slice has been read, sorted and written.
+     * With replacement selection, it is called for every run, and the time is reported as sortNanos,
+     * since reading, sorting and writing are interleaved.
+     *
+     * @param type slice type
+     * @param file the written file
+     * @param bytes number of bytes read from the original file
+     * @param lines number of lines written
+     * @param readNanos time spent on reading (and decoding) the lines
+     * @param sortNanos time spent on filtering and sorting the lines
+     * @param writeNanos time spent on writing the lines
+     */
+    void onSliceWritten(SliceType type, File file, long bytes, long lines, long readNanos,
+                        long sortNanos, long writeNanos);
+
+    /**
+     * Called when the partition phase has finished
+     *
+     * @param sourceName name of the original file or stream
+     * @param bodyCount number of sorted body files
+     * @param nanos time spent on the partition phase
+     */
+    void onPartitionFinished(String sourceName, int bodyCount, long nanos);
+
+    /**
+     * Called periodically while sorted files are merged into an output file
+     * (the output file, an intermediate file or a segment of the output file)
+     *
+     * @param output the file being written
+     * @param runs number of sorted files being merged
+     * @param lines number of lines written so far
+     * @param bytes number of bytes written so far
+     */
+    void onMergeProgress(File output, int runs, long lines, long bytes);
+
+    /**
+     * Called when sorted files have been merged into an output file
+     * (the output file, an intermediate file or a segment of the output file)
+     *
+     * @param output the written file
+     * @param runs number of sorted files merged
+     * @param lines number of lines written
+     * @param bytes number of bytes written
+     * @param nanos time spent on merging
+     */
+    void onMergeFinished(File output, int runs, long lines, long bytes, long nanos);
+
+    /**
+     * Called when a sort has finished
+     *
+     * @param dstFile the sorted file
+     * @param nanos total time spent on sorting, including the partition and merge phases
+     */
+    void onSortFinished(File dstFile, long nanos);
+
+}
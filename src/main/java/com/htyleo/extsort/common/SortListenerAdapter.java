@@ -0,0 +1,37 @@
+package com.htyleo.extsort.common;
+
+import java.io.File;
+
+/**
+ * A sort listener which ignores all events, subclasses override the events of interest
+ *
+ * @author htyleo
+ */
+public class SortListenerAdapter implements SortListener {
+
+    @Override
+    public void onSlicesPlanned(String sourceName, int sliceCount, long sliceSize) {
+    }
+
+    @Override
+    public void onSliceWritten(SliceType type, File file, long bytes, long lines,
+                               long readNanos, long sortNanos, long writeNanos) {
+    }
+
+    @Override
+    public void onPartitionFinished(String sourceName, int bodyCount, long nanos) {
+    }
+
+    @Override
+    public void onMergeProgress(File output, int runs, long lines, long bytes) {
+    }
+
+    @Override
+    public void onMergeFinished(File output, int runs, long lines, long bytes, long nanos) {
+    }
+
+    @Override
+    public void onSortFinished(File dstFile, long nanos) {
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.htyleo.extsort.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The sparse index of a sorted text file, i.e. every N-th body line (as bytes) and its offset,
+ * stored in a sidecar file next to the sorted file. It is written by {@link IndexingRunWriter} during the final merge.
+ *
+ * The sidecar file consists of magic (int), the beginning and end of the body (long, long), the number of entries (int),
+ * then for every entry the length of the line (int), the line and its offset (long).
+ *
+ * @author htyleo
+ */
+public class SortedFileIndex {
+
+    /** magic of the sidecar file */
+    static final int       MAGIC = 0x45585349;
+
+    /** offset of the first body line */
+    private final long     bodyBegin;
+
+    /** end of the body lines, i.e. the offset of the first tail line */
+    private final long     bodyEnd;
+
+    /** indexed lines */
+    private final byte[][] keys;
+
+    /** offsets of the indexed lines */
+    private final long[]   offsets;
+
+    /**
+     * Create a SortedFileIndex
+     *
+     * @param bodyBegin offset of the first body line
+     * @param bodyEnd end of the body lines
+     * @param keys indexed lines, in sorted order
+     * @param offsets offsets of the indexed lines
+     */
+    public SortedFileIndex(long bodyBegin, long bodyEnd, byte[][] keys, long[] offsets) {
+        this.bodyBegin = bodyBegin;
+        this.bodyEnd = bodyEnd;
+        this.keys = keys;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Read an index from its sidecar file
+     *
+     * @param file sidecar file
+     * @return the index
+     * @throws IOException If an I/O error occurs or the file is not an index
+     */
+    public static SortedFileIndex read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+            file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a sorted file index: " + file);
+            }
+            long bodyBegin = in.readLong();
+            long bodyEnd = in.readLong();
+            int size = in.readInt();
+            byte[][] keys = new byte[size][];
+            long[] offsets = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = new byte[in.readInt()];
+                in.readFully(keys[i]);
+                offsets[i] = in.readLong();
+            }
+            return new SortedFileIndex(bodyBegin, bodyEnd, keys, offsets);
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the index to a sidecar file
+     *
+     * @param file sidecar file
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(bodyBegin);
+            out.writeLong(bodyEnd);
+            out.writeInt(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                out.writeInt(keys[i].length);
+                out.write(keys[i]);
+                out.writeLong(offsets[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Getter method for property <tt>bodyBegin</tt>.
+     *
+     * @return property value of bodyBegin
+     */
+    public long getBodyBegin() {
+        return bodyBegin;
+    }
+
+    /**
+     * Getter method for property <tt>bodyEnd</tt>.
+     *
+     * @return property value of bodyEnd
+     */
+    public long getBodyEnd() {
+        return bodyEnd;
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the line of the i-th entry
+     *
+     * @param i index of entry
+     * @return the indexed line
+     */
+    public byte[] getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Get the offset of the i-th entry
+     *
+     * @param i index of entry
+     * @return offset of the indexed line
+     */
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+
+}
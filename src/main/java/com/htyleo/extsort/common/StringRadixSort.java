@@ -0,0 +1,117 @@
+package com.htyleo.extsort.common;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MSD radix sort of Strings in their natural order (i.e. {@link String#compareTo(String)}).
+ * Every char is distributed as two bytes (the high byte first), so that the buckets stay small.
+ * Small buckets are sorted by insertion sort, and very deep buckets (i.e. long common prefixes) by {@link Arrays#sort(Object[], int, int)}.
+ *
+ * @author htyleo
+ */
+public final class StringRadixSort {
+
+    /** ranges shorter than this are sorted by insertion sort */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /** number of distinct bytes, i.e. the radix */
+    private static final int RADIX                    = 256;
+
+    /** buckets deeper than this (in bytes) are sorted by comparison, which bounds the recursion */
+    private static final int MAX_RADIX_DEPTH          = 512;
+
+    /**
+     * Forbid instantiation
+     */
+    private StringRadixSort() {
+    }
+
+    /**
+     * Sort the lines in their natural order
+     *
+     * @param lines lines, which will be sorted in place
+     */
+    public static void sort(List<String> lines) {
+        String[] a = lines.toArray(new String[lines.size()]);
+        sort(a, new String[a.length], 0, a.length, 0);
+        for (int i = 0; i < a.length; i++) {
+            lines.set(i, a[i]);
+        }
+    }
+
+    /**
+     * Sort a[from, to), all of which have the same first depth bytes
+     *
+     * @param a array
+     * @param aux auxiliary array, at least as large as a
+     * @param from beginning of range, inclusive
+     * @param to end of range, exclusive
+     * @param depth index of the byte to distribute by
+     */
+    private static void sort(String[] a, String[] aux, int from, int to, int depth) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            insertionSort(a, from, to);
+            return;
+        }
+        if (depth >= MAX_RADIX_DEPTH) {
+            Arrays.sort(a, from, to);
+            return;
+        }
+
+        // count[b + 2] is the number of lines whose byte at depth is b, b = -1 means the line ends before depth
+        int[] count = new int[RADIX + 2];
+        for (int i = from; i < to; i++) {
+            count[digit(a[i], depth) + 2]++;
+        }
+        for (int b = 0; b <= RADIX; b++) {
+            count[b + 1] += count[b];
+        }
+        for (int i = from; i < to; i++) {
+            aux[from + count[digit(a[i], depth) + 1]++] = a[i];
+        }
+        System.arraycopy(aux, from, a, from, to - from);
+
+        // the lines ending before depth are equal, the others are sorted by the next byte
+        for (int b = 0; b < RADIX; b++) {
+            if (count[b + 1] - count[b] > 1) {
+                sort(a, aux, from + count[b], from + count[b + 1], depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Sort a[from, to) by insertion sort
+     *
+     * @param a array
+     * @param from beginning of range, inclusive
+     * @param to end of range, exclusive
+     */
+    private static void insertionSort(String[] a, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            String line = a[i];
+            int j = i - 1;
+            for (; j >= from && a[j].compareTo(line) > 0; j--) {
+                a[j + 1] = a[j];
+            }
+            a[j + 1] = line;
+        }
+    }
+
+    /**
+     * Get the byte of a line at depth, each char is regarded as two bytes
+     *
+     * @param line line
+     * @param depth index of the byte
+     * @return the byte as unsigned, or -1 if the line ends before depth
+     */
+    private static int digit(String line, int depth) {
+        int index = depth >>> 1;
+        if (index >= line.length()) {
+            return -1;
+        }
+        char c = line.charAt(index);
+        return (depth & 1) == 0 ? c >>> 8 : c & 0xFF;
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.htyleo.extsort.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * An OutputStream which writes to a FileChannel in the background: the producer fills a buffer, hands it to
+ * a task running in an I/O executor, and goes on with the next buffer from a bounded pool. When all buffers
+ * are being written, the producer waits for one of them, which bounds the memory and applies backpressure.
+ *
+ * Each buffer is written at its own position of the file, so the buffers may be written in any order.
+ * The executor must not be the one whose threads produce the data, otherwise the write tasks may starve.
+ *
+ * @author htyleo
+ */
+public class WriteBehindOutputStream extends OutputStream {
+
+    /** underlying channel */
+    private final FileChannel               channel;
+
+    /** executor running the write tasks */
+    private final Executor                  executor;
+
+    /** buffers not being written */
+    private final BlockingQueue<ByteBuffer> pool;
+
+    /** number of buffers */
+    private final int                       bufferCount;
+
+    /** buffer being filled, null if a buffer has not been taken from the pool */
+    private ByteBuffer                      current;
+
+    /** position in the file of the first byte of the current buffer */
+    private long                            position;
+
+    /** the first error of the write tasks */
+    private volatile IOException            error;
+
+    /** whether the stream is closed */
+    private boolean                         closed;
+
+    /**
+     * Create a WriteBehindOutputStream, which writes from the current position of the channel
+     *
+     * @param channel underlying channel, which is closed with the stream
+     * @param executor executor running the write tasks
+     * @param bufferSize size of each buffer
+     * @param bufferCount number of buffers, at least 2 so that filling and writing overlap
+     * @throws IOException If an I/O error occurs
+     */
+    public WriteBehindOutputStream(FileChannel channel, Executor executor, int bufferSize,
+                                   int bufferCount) throws IOException {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("At least 2 buffers are required: " + bufferCount);
+        }
+
+        this.channel = channel;
+        this.executor = executor;
+        this.bufferCount = bufferCount;
+        this.pool = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            pool.add(ByteBuffer.allocate(bufferSize));
+        }
+        this.position = channel.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureBuffer();
+        current.put((byte) b);
+        if (!current.hasRemaining()) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensureBuffer();
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!current.hasRemaining()) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Write the buffered bytes and wait until all of them are written to the channel
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (current != null && current.position() > 0) {
+            submit();
+        }
+        awaitAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            flush();
+        } finally {
+            closed = true;
+            try {
+                // the channel must not be closed while it is being written
+                awaitAll();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Take a buffer from the pool if there is no current buffer
+     *
+     * @throws IOException If the stream is closed, a write task failed or the waiting is interrupted
+     */
+    private void ensureBuffer() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        checkError();
+        if (current == null) {
+            current = take();
+        }
+    }
+
+    /**
+     * Hand the current buffer to a write task
+     */
+    private void submit() {
+        final ByteBuffer buffer = current;
+        final long begin = position;
+        position += buffer.position();
+        current = null;
+
+        buffer.flip();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (long p = begin; buffer.hasRemaining();) {
+                        p += channel.write(buffer, p);
+                    }
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                } finally {
+                    buffer.clear();
+                    pool.add(buffer);
+                }
+            }
+        };
+
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            // e.g. the executor is shut down, the buffer is never written
+            buffer.clear();
+            pool.add(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until all the buffers are back in the pool, i.e. all the write tasks are done
+     *
+     * @throws IOException If a write task failed or the waiting is interrupted
+     */
+    private void awaitAll() throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+        int taken = 0;
+        if (current != null) {
+            buffers[taken++] = current;
+            current = null;
+        }
+        try {
+            while (taken < bufferCount) {
+                // counted only once taken, so that an interrupted take returns no null to the pool
+                ByteBuffer buffer = take();
+                buffers[taken++] = buffer;
+            }
+        } finally {
+            for (int i = 0; i < taken; i++) {
+                pool.add(buffers[i]);
+            }
+        }
+        checkError();
+    }
+
+    /**
+     * Take a buffer from the pool, waiting until a write task returns one
+     *
+     * @return the buffer
+     * @throws IOException If the waiting is interrupted
+     */
+    private ByteBuffer take() throws IOException {
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing behind");
+        }
+    }
+
+    /**
+     * Throw the first error of the write tasks, if any
+     *
+     * @throws IOException the error
+     */
+    private void checkError() throws IOException {
+        IOException e = error;
+        if (e != null) {
+            throw new IOException("Failed to write behind", e);
+        }
+    }
+
+}
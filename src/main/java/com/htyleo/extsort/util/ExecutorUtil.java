@@ -0,0 +1,139 @@
+package com.htyleo.extsort.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor util, which provides the default executors shared by all sorts.
+ *
+ * The default executors are created on first use. Their threads are daemon threads, and exit after being idle
+ * for a while, so they neither keep the JVM alive nor hold threads between sorts. Executors given by the caller
+ * are never shut down by the sorting, their lifecycle is managed by the caller.
+ *
+ * @author htyleo
+ */
+public class ExecutorUtil {
+
+    /** idle threads of the default executors exit after this many seconds */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Get the default executor for CPU-bound tasks, i.e. sorting slices and merging,
+     * which has one thread per available processor
+     *
+     * @return the default executor
+     */
+    public static ExecutorService defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Get the default executor for blocking I/O tasks, i.e. reading ahead and writing behind.
+     * It runs each task in a virtual thread on JDK 21+, otherwise in a cached daemon thread.
+     *
+     * @return the default I/O executor
+     */
+    public static ExecutorService defaultIoExecutor() {
+        return DefaultIoExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Create an executor which runs each task in a new virtual thread, i.e. Executors.newVirtualThreadPerTaskExecutor()
+     *
+     * @return the executor, or null if virtual threads are not supported (before JDK 21)
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of tasks an executor runs at once
+     *
+     * @param executor executor
+     * @return pool size of a ThreadPoolExecutor, parallelism of a ForkJoinPool,
+     *         or the number of available processors for other executors
+     */
+    public static int getParallelism(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor;
+            // threads beyond the core pool size are only created when the queue is full, i.e. never if it is unbounded
+            if (threadPool.getQueue().remainingCapacity() == Integer.MAX_VALUE) {
+                return Math.max(1, threadPool.getCorePoolSize());
+            }
+            return Math.max(1, threadPool.getMaximumPoolSize());
+        }
+        if (executor instanceof ForkJoinPool) {
+            return Math.max(1, ((ForkJoinPool) executor).getParallelism());
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Create a thread factory of daemon threads
+     *
+     * @param prefix prefix of thread names
+     * @return the thread factory
+     */
+    private static ThreadFactory newDaemonThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            /** number of threads created */
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Holder of the default executor, which is created on first use
+     */
+    private static class DefaultExecutorHolder {
+        /** the default executor */
+        private static final ExecutorService EXECUTOR;
+
+        static {
+            int processors = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(processors, processors,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                newDaemonThreadFactory("extsort-worker-"));
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+
+    /**
+     * Holder of the default I/O executor, which is created on first use
+     */
+    private static class DefaultIoExecutorHolder {
+        /** the default I/O executor */
+        private static final ExecutorService EXECUTOR;
+
+        static {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor == null) {
+                executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    newDaemonThreadFactory("extsort-io-"));
+            }
+            EXECUTOR = executor;
+        }
+    }
+
+}
@@ -1,9 +1,23 @@
 package com.htyleo.extsort.util;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.htyleo.extsort.GroupSortedFileReader;
 
@@ -166,6 +180,52 @@ public class IOUtil {
         }
     }
 
+    /**
+     * Append the whole content of a file to a channel
+     *
+     * @param file source file
+     * @param channel destination channel
+     * @throws IOException If an I/O error occurs
+     */
+    public static void transfer(File file, WritableByteChannel channel) throws IOException {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel source = in.getChannel();
+            long size = source.size();
+            for (long pos = 0; pos < size;) {
+                pos += source.transferTo(pos, size - pos, channel);
+            }
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * List the files of a directory whose names match a glob pattern, e.g. "*.txt", sorted by name
+     *
+     * @param dir directory
+     * @param glob glob pattern of the file names, see {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * @return the matching files
+     * @throws IOException If dir is not a directory or an I/O error occurs
+     */
+    public static List<File> listFiles(File dir, String glob) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        List<File> result = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isFile() && matcher.matches(Paths.get(file.getName()))) {
+                result.add(file);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
     /**
      * Unconditionally close a <code>Reader</code>.
      * <p>
@@ -220,6 +280,24 @@ public class IOUtil {
         }
     }
 
+    /**
+     * Unconditionally close a <code>Closeable</code>.
+     * <p>
+     * Equivalent to {@link Closeable#close()}, except any exceptions will be ignored.
+     * This is typically used in finally blocks.
+     *
+     * @param closeable  the Closeable to close, may be null or already closed
+     */
+    public static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException ioe) {
+            // ignore
+        }
+    }
+
     /**
      * Unconditionally close a <code>GroupSortedFileReader</code>.
      * <p>
@@ -234,4 +312,37 @@ public class IOUtil {
         }
     }
 
+    /**
+     * Wait for a task that performs I/O and get its result.
+     * <p>
+     * An IOException thrown by the task is rethrown as is, other failures are wrapped in an IOException.
+     *
+     * @param future the task
+     * @param <T> result type
+     * @return result of the task
+     * @throws IOException If the task fails or the current thread is interrupted
+     */
+    public static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ioe = new InterruptedIOException(e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
 }
@@ -0,0 +1,306 @@
+package com.htyleo.extsort.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Find line boundaries of a file through memory mapping instead of reading it byte by byte.
+ * The file is mapped on demand in chunks, so files larger than 2 GB are supported and only the chunks
+ * around the scanned positions are ever mapped.
+ *
+ * Like RandomAccessFile, the scanner has a pointer. The skip methods behave exactly the same as
+ * those of {@link IOUtil} (e.g. {@link IOUtil#skipNextLine(RandomAccessFile)}) with the pointer of RandomAccessFile.
+ * Note that the line separator could be "\n", "\r" or "\r\n".
+ *
+ * Java offers no way to unmap a MappedByteBuffer, so a mapping stays alive until its buffer is garbage collected,
+ * even after the scanner is closed. Closing the scanner drops its references to the chunks so that they can be
+ * collected, but the mappings (and e.g. the ability to delete the file on Windows) are only released then.
+ *
+ * @author htyleo
+ */
+public class MappedLineScanner implements Closeable {
+
+    /** default chunk size 1 GB */
+    private static final int          DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    /** file */
+    private final RandomAccessFile    raf;
+
+    /** file channel */
+    private final FileChannel         channel;
+
+    /** file length */
+    private final long                length;
+
+    /** chunk size */
+    private final int                 chunkSize;
+
+    /** mapped chunks, chunks[i] covers [i * chunkSize, (i + 1) * chunkSize) */
+    private final MappedByteBuffer[]  chunks;
+
+    /** pointer */
+    private long                      pos;
+
+    /**
+     * Create a MappedLineScanner
+     *
+     * @param file file
+     * @throws IOException If an I/O error occurs
+     */
+    public MappedLineScanner(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a MappedLineScanner
+     *
+     * @param file file
+     * @param chunkSize size of each mapped chunk
+     * @throws IOException If an I/O error occurs
+     */
+    MappedLineScanner(File file, int chunkSize) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.length = channel.size();
+        this.chunkSize = chunkSize;
+        this.chunks = new MappedByteBuffer[(int) ((length + chunkSize - 1) / chunkSize)];
+    }
+
+    /**
+     * Get the file length
+     *
+     * @return file length
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Get the pointer
+     *
+     * @return pointer
+     */
+    public long getPosition() {
+        return pos;
+    }
+
+    /**
+     * Set the pointer
+     *
+     * @param pos pointer
+     */
+    public void seek(long pos) {
+        this.pos = pos;
+    }
+
+    /**
+     * Same as {@link IOUtil#skipNextLine(RandomAccessFile)}
+     *
+     * @return true if we encounter a line separator, false otherwise (i.e. we meet EOF)
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean skipNextLine() throws IOException {
+        long sep = indexOfLineSeparator(pos);
+        if (sep < 0) {
+            pos = Math.max(pos, length);
+            return false;
+        }
+
+        pos = sep + 1;
+        if (byteAt(sep) == '\r' && pos < length && byteAt(pos) == '\n') {
+            pos++;
+        }
+        return true;
+    }
+
+    /**
+     * Read the line beginning at the pointer, and move the pointer to the beginning of the next line
+     *
+     * @param encoding file encoding
+     * @return the line without the line separator, or null if we reached EOF
+     * @throws IOException If an I/O error occurs
+     */
+    public String readLine(String encoding) throws IOException {
+        if (pos >= length) {
+            return null;
+        }
+
+        long begin = pos;
+        long sep = indexOfLineSeparator(pos);
+        byte[] bytes = new byte[(int) ((sep < 0 ? length : sep) - begin)];
+        for (int off = 0; off < bytes.length;) {
+            long p = begin + off;
+            int chunk = (int) (p / chunkSize);
+            ByteBuffer buffer = getChunk(chunk).duplicate();
+            buffer.position((int) (p - (long) chunk * chunkSize));
+            int n = Math.min(bytes.length - off, buffer.remaining());
+            buffer.get(bytes, off, n);
+            off += n;
+        }
+        pos = sep < 0 ? length : sep + 1;
+        if (sep >= 0 && byteAt(sep) == '\r' && pos < length && byteAt(pos) == '\n') {
+            pos++;
+        }
+        return new String(bytes, encoding);
+    }
+
+    /**
+     * Same as {@link IOUtil#skipNextBlankLines(RandomAccessFile)}
+     *
+     * @return true if we encounter blank lines, false otherwise (i.e. stay still, or we reached EOF)
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean skipNextBlankLines() throws IOException {
+        boolean eol = false;
+        for (; pos < length; pos++) {
+            byte b = byteAt(pos);
+            if (b != '\n' && b != '\r') {
+                break;
+            }
+            eol = true;
+        }
+        return eol;
+    }
+
+    /**
+     * Same as {@link IOUtil#skipPrevLine(RandomAccessFile)}
+     *
+     * @return true if we meet a line separator, false otherwise (i.e. we reached the beginning of the file)
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean skipPrevLine() throws IOException {
+        if (length == 0 || (pos >= length && pos == 1)) {
+            pos = 0;
+            return false;
+        }
+
+        // the byte under the pointer is examined first, except at EOF, where the last byte is skipped
+        long p = pos < length ? pos : Math.max(0, pos - 2);
+        for (; p > 0; p--) {
+            byte b = byteAt(p);
+            if (b == '\n') {
+                long prev = p - 1;
+                pos = byteAt(prev) == '\r' ? Math.max(0, prev - 1) : prev;
+                return true;
+            }
+            if (b == '\r') {
+                pos = p - 1;
+                return true;
+            }
+        }
+
+        byte b = byteAt(0);
+        pos = 0;
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Same as {@link IOUtil#skipPrevBlankLines(RandomAccessFile)}
+     *
+     * @return true if we meet blank lines, false otherwise (i.e. stay still, or we reached the beginning of the file)
+     * @throws IOException If an I/O error occurs
+     */
+    public boolean skipPrevBlankLines() throws IOException {
+        if (length == 0) {
+            pos = 0;
+            return false;
+        }
+
+        long p = Math.min(pos, length - 1);
+        boolean eol = false;
+        for (;; p--) {
+            byte b = byteAt(p);
+            if (b != '\n' && b != '\r') {
+                pos = p;
+                return eol;
+            }
+            eol = true;
+            if (p <= 1) {
+                pos = 0;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Estimate the average line length (including the line separator) from the lines beginning in the given range.
+     * The pointer is moved to the end of the last line scanned.
+     *
+     * @param begin beginning of the range, should be the beginning of a line
+     * @param end end of the range
+     * @return average line length, or 0 if there is no line in the range
+     * @throws IOException If an I/O error occurs
+     */
+    public double averageLineLength(long begin, long end) throws IOException {
+        long lines = 0;
+        for (pos = begin; pos < Math.min(end, length); lines++) {
+            skipNextLine();
+        }
+        return lines == 0 ? 0 : (double) (pos - begin) / lines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the mappings are released only when the chunks are garbage collected
+        Arrays.fill(chunks, null);
+        raf.close();
+    }
+
+    /**
+     * Find the first "\n" or "\r" at or after the given position
+     *
+     * @param from the given position
+     * @return position of the line separator, or -1 if there is no such separator
+     * @throws IOException If an I/O error occurs
+     */
+    private long indexOfLineSeparator(long from) throws IOException {
+        while (from < length) {
+            int chunk = (int) (from / chunkSize);
+            MappedByteBuffer buffer = getChunk(chunk);
+            int limit = buffer.limit();
+            for (int i = (int) (from - (long) chunk * chunkSize); i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    return (long) chunk * chunkSize + i;
+                }
+            }
+            from = (long) (chunk + 1) * chunkSize;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the byte at the given position
+     *
+     * @param p position, must be less than the file length
+     * @return the byte
+     * @throws IOException If an I/O error occurs
+     */
+    private byte byteAt(long p) throws IOException {
+        int chunk = (int) (p / chunkSize);
+        return getChunk(chunk).get((int) (p - (long) chunk * chunkSize));
+    }
+
+    /**
+     * Get a chunk, mapping it if it has not been mapped
+     *
+     * @param chunk index of chunk
+     * @return the mapped chunk
+     * @throws IOException If an I/O error occurs
+     */
+    private MappedByteBuffer getChunk(int chunk) throws IOException {
+        if (chunks[chunk] == null) {
+            long begin = (long) chunk * chunkSize;
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, begin,
+                Math.min(chunkSize, length - begin));
+        }
+        return chunks[chunk];
+    }
+
+}
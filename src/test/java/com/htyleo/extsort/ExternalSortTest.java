@@ -1,10 +1,26 @@
 package com.htyleo.extsort;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -12,6 +28,18 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.htyleo.extsort.common.BlockRunCodec;
+import com.htyleo.extsort.common.DeflateRunCodec;
+import com.htyleo.extsort.common.LineCombiner;
+import com.htyleo.extsort.common.MemoryBudget;
+import com.htyleo.extsort.common.MergeEngine;
+import com.htyleo.extsort.common.NaturalOrderKeyPrefixer;
+import com.htyleo.extsort.common.RunFormat;
+import com.htyleo.extsort.common.RunGeneration;
+import com.htyleo.extsort.common.SliceType;
+import com.htyleo.extsort.common.SortListenerAdapter;
+import com.htyleo.extsort.util.IOUtil;
+
 /**
  * ExternalSort test
  *
@@ -37,6 +65,817 @@ public class ExternalSortTest {
 
     @Test
     public void testSort() {
+        assertSorted(new ExternalSortConfig());
+    }
+
+    @Test
+    public void testSortWithPriorityQueue() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setMergeEngine(MergeEngine.PRIORITY_QUEUE);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithBoundedFanIn() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setMaxMergeFanIn(3);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testBoundedFanInFailureDeletesIntermediateFiles() {
+        try {
+            writeRandomSource(1000, 100000);
+
+            ExternalSortConfig config = new ExternalSortConfig();
+            config.setSliceSize(512);
+            config.setMaxMergeFanIn(3);
+            // the first group of the first pass fails while the other groups are queued or being merged,
+            // or the last group fails after the other groups are merged
+            for (boolean first : new boolean[] { true, false }) {
+                FileUtils.deleteQuietly(dstDir);
+                PartitionResult result = ExternalSort.partition(sourceFile, dstDir, config);
+                List<File> bodies = result.getBodies();
+                Assert.assertTrue(bodies.size() > 9);
+
+                bodies.get(first ? 0 : bodies.size() - 1).delete();
+                try {
+                    ExternalSort.merge(new File(dstDir, sourceFile.getName()), result, config);
+                    Assert.fail("merge of a missing run should fail");
+                } catch (IOException e) {
+                    // expected
+                }
+
+                for (File file : dstDir.listFiles()) {
+                    Assert.assertFalse(file.getName(), file.getName().contains("-MERGE-"));
+                }
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSortWithParallelMerge() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setMergeParallelism(4);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithReadAhead() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setReadAheadMemory(1024 * 1024);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setReadAheadMemory(1024 * 1024);
+        config.setByteMode(true);
+        config.setRunFormat(RunFormat.BINARY);
+        config.setRunCodec(new DeflateRunCodec());
+        config.setMaxMergeFanIn(3);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setReadAheadMemory(1024 * 1024);
+        config.setMergeParallelism(4);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithWriteBehind() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setWriteBehindBuffers(2);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setWriteBehindBuffers(4);
+        config.setReadAheadMemory(1024 * 1024);
+        config.setByteMode(true);
+        config.setRunFormat(RunFormat.BINARY);
+        config.setRunCodec(new BlockRunCodec());
+        config.setMaxMergeFanIn(3);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setWriteBehindBuffers(2);
+        config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        config.setMergeParallelism(4);
+        assertSorted(config, true);
+    }
+
+    @Test
+    public void testSortWithExecutorService() {
+        ForkJoinPool executor = new ForkJoinPool(16);
+        ExecutorService ioExecutor = Executors.newCachedThreadPool();
+        try {
+            ExternalSortConfig config = new ExternalSortConfig();
+            config.setExecutor(executor);
+            config.setIoExecutor(ioExecutor);
+            config.setReadAheadMemory(1024 * 1024);
+            config.setWriteBehindBuffers(2);
+            config.setMergeParallelism(4);
+            assertSorted(config);
+
+            config = new ExternalSortConfig();
+            config.setExecutor(executor);
+            config.setParallelism(2);
+            config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+            config.setMemoryBudget(256 * 1024);
+            assertSorted(config);
+        } finally {
+            executor.shutdown();
+            ioExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSortListener() {
+        try {
+            List<String> lines = writeRandomSource(200000, 100000);
+
+            final AtomicInteger plannedSlices = new AtomicInteger();
+            final AtomicInteger writtenSlices = new AtomicInteger();
+            final AtomicLong sliceLines = new AtomicLong();
+            final AtomicLong sliceBytes = new AtomicLong();
+            final AtomicInteger progress = new AtomicInteger();
+            final AtomicLong mergedLines = new AtomicLong();
+            final AtomicLong mergedBytes = new AtomicLong();
+            final AtomicInteger sorts = new AtomicInteger();
+            ExternalSortConfig config = new ExternalSortConfig();
+            config.setSliceSize(64 * 1024);
+            config.setSortListener(new SortListenerAdapter() {
+                @Override
+                public void onSlicesPlanned(String sourceName, int sliceCount, long sliceSize) {
+                    plannedSlices.set(sliceCount);
+                }
+
+                @Override
+                public void onSliceWritten(SliceType type, File file, long bytes, long lines,
+                                           long readNanos, long sortNanos, long writeNanos) {
+                    writtenSlices.incrementAndGet();
+                    sliceLines.addAndGet(lines);
+                    sliceBytes.addAndGet(bytes);
+                }
+
+                @Override
+                public void onMergeProgress(File output, int runs, long lines, long bytes) {
+                    progress.incrementAndGet();
+                }
+
+                @Override
+                public void onMergeFinished(File output, int runs, long lines, long bytes,
+                                            long nanos) {
+                    mergedLines.set(lines);
+                    mergedBytes.set(bytes);
+                }
+
+                @Override
+                public void onSortFinished(File dstFile, long nanos) {
+                    sorts.incrementAndGet();
+                }
+            });
+            config.setHeaderLines(3);
+            config.setWriteBehindBuffers(2);
+            File dstFile = ExternalSort.sort(sourceFile, dstDir, config);
+
+            // the bytes of the merged body lines, without the header
+            long headerBytes = 0;
+            for (int i = 0; i < 3; i++) {
+                headerBytes += (lines.get(i) + System.getProperty("line.separator")).length();
+            }
+            Assert.assertEquals(dstFile.length() - headerBytes, mergedBytes.get());
+            Assert.assertTrue(plannedSlices.get() > 1);
+            Assert.assertEquals(plannedSlices.get(), writtenSlices.get());
+            Assert.assertEquals(lines.size(), sliceLines.get());
+            Assert.assertEquals(sourceFile.length(), sliceBytes.get());
+            Assert.assertEquals(lines.size() / (64 * 1024), progress.get());
+            Assert.assertEquals(lines.size() - 3, mergedLines.get());
+            Assert.assertEquals(1, sorts.get());
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSortInByteMode() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setByteMode(true);
+        config.setMergeParallelism(2);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithMemoryBudget() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setMemoryBudget(256 * 1024);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testPlanSliceSize() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setParallelism(4);
+        double averageLineLength = 20;
+
+        // a large budget runs all the slices concurrently, each fitting in its share of the budget
+        MemoryBudget budget = new MemoryBudget(64 * 1024 * 1024);
+        int sliceSize = ExternalSort.planSliceSize(budget, averageLineLength, config);
+        long sliceMemory = MemoryBudget.estimateSliceMemory(sliceSize, averageLineLength,
+            config.getByteMode(), config.getBufferSize());
+        // up to one line more than the share, since the number of lines is rounded up
+        Assert.assertTrue(sliceMemory <= budget.getCapacity() / 4 + 64);
+        Assert.assertTrue(sliceMemory * 4 > budget.getCapacity() * 0.9);
+
+        // byte mode uses less memory per byte, so the slices are larger
+        config.setByteMode(true);
+        Assert.assertTrue(ExternalSort.planSliceSize(budget, averageLineLength, config) > sliceSize);
+        config.setByteMode(false);
+
+        // a smaller budget shrinks the slices
+        MemoryBudget smallBudget = new MemoryBudget(4 * 1024 * 1024);
+        int smallSliceSize = ExternalSort.planSliceSize(smallBudget, averageLineLength, config);
+        Assert.assertTrue(smallSliceSize < sliceSize);
+
+        // a budget too small for parallelism slices of the minimum size runs fewer slices concurrently
+        long minSliceMemory = MemoryBudget.estimateSliceMemory(4 * 1024, averageLineLength,
+            config.getByteMode(), config.getBufferSize());
+        MemoryBudget tinyBudget = new MemoryBudget(minSliceMemory * 2);
+        int tinySliceSize = ExternalSort.planSliceSize(tinyBudget, averageLineLength, config);
+        Assert.assertEquals(MemoryBudget.maxSliceSize(tinyBudget.getCapacity() / 2,
+            averageLineLength, config.getByteMode(), config.getBufferSize()), tinySliceSize);
+        Assert.assertTrue(tinySliceSize >= 4 * 1024);
+
+        // never below the minimum slice size
+        Assert.assertEquals(4 * 1024,
+            ExternalSort.planSliceSize(new MemoryBudget(1024), averageLineLength, config));
+    }
+
+    @Test
+    public void testSortWithCompressedRuns() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setRunCodec(new BlockRunCodec());
+        config.setMaxMergeFanIn(3);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setRunCodec(new DeflateRunCodec());
+        config.setByteMode(true);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithBinaryRuns() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setRunFormat(RunFormat.BINARY);
+        config.setRunBlockSize(64);
+        config.setMergeParallelism(4);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setRunFormat(RunFormat.BINARY);
+        config.setRunBlockSize(64);
+        config.setByteMode(true);
+        config.setMaxMergeFanIn(3);
+        config.setMergeParallelism(2);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setRunFormat(RunFormat.BINARY);
+        config.setRunCodec(new BlockRunCodec());
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithKeyPrefix() {
+        // not the default comparator itself, which is sorted by StringRadixSort before the key prefixer is considered
+        Comparator<String> naturalOrder = new Comparator<String>() {
+            @Override
+            public int compare(String s1, String s2) {
+                return s1.compareTo(s2);
+            }
+        };
+
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setLineComparator(naturalOrder);
+        config.setKeyPrefixer(new NaturalOrderKeyPrefixer());
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setLineComparator(naturalOrder);
+        config.setKeyPrefixer(new NaturalOrderKeyPrefixer());
+        config.setMergeEngine(MergeEngine.PRIORITY_QUEUE);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithReplacementSelection() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        config.setByteMode(true);
+        config.setMergeParallelism(2);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testReplacementSelectionRunLength() {
+        try {
+            // sorted input gives a single run per part, random input gives runs about twice the heap size
+            List<String> lines = new ArrayList<String>();
+            for (int i = 0; i < 10000; i++) {
+                lines.add(String.format("%08d", i));
+            }
+            FileUtils.writeLines(sourceFile, "UTF-8", lines);
+
+            ExternalSortConfig config = new ExternalSortConfig();
+            config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+            config.setSliceSize(1024);
+            int parts = config.getParallelism();
+            Assert.assertTrue(ExternalSort.partition(sourceFile, dstDir, config).getBodies()
+                .size() <= parts);
+            FileUtils.deleteQuietly(dstDir);
+
+            Collections.shuffle(lines, new Random(0));
+            FileUtils.writeLines(sourceFile, "UTF-8", lines);
+            int runs = ExternalSort.partition(sourceFile, dstDir, config).getBodies().size();
+            long runSize = sourceFile.length() / runs;
+            Assert.assertTrue(runSize > 1536);
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSortMultipleFiles() {
+        assertSortedFiles(new ExternalSortConfig());
+
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setByteMode(true);
+        assertSortedFiles(config);
+
+        config = new ExternalSortConfig();
+        config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        assertSortedFiles(config);
+    }
+
+    @Test
+    public void testSortUnique() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setUnique(true);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setUnique(true);
+        config.setByteMode(true);
+        config.setMaxMergeFanIn(3);
+        config.setMergeParallelism(4);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setUnique(true);
+        config.setMergeEngine(MergeEngine.PRIORITY_QUEUE);
+        config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        assertSorted(config);
+    }
+
+    @Test
+    public void testSortWithLimit() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setLimit(50);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setLimit(50);
+        config.setByteMode(true);
+        config.setMaxMergeFanIn(3);
+        config.setMergeParallelism(4);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setLimit(30);
+        config.setUnique(true);
+        config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setLimit(30);
+        config.setUnique(true);
+        config.setLineComparator(Collections.reverseOrder());
+        assertSorted(config, true);
+
+        config = new ExternalSortConfig();
+        config.setLimit(5000);
+        assertSorted(config);
+
+        config = new ExternalSortConfig();
+        config.setLimit(30);
+        config.setUnique(true);
+        config.setByteMode(true);
+        assertSorted(config, true);
+    }
+
+    @Test
+    public void testSortWithLimitKeepsTopLines() {
+        // every body slice (or part of replacement selection) only writes its first limit lines
+        for (boolean byteMode : new boolean[] { false, true }) {
+            for (RunGeneration runGeneration : RunGeneration.values()) {
+                final AtomicLong maxLines = new AtomicLong();
+                ExternalSortConfig config = new ExternalSortConfig();
+                config.setLimit(20);
+                config.setByteMode(byteMode);
+                config.setRunGeneration(runGeneration);
+                config.setSortListener(new SortListenerAdapter() {
+                    @Override
+                    public void onSliceWritten(SliceType type, File file, long bytes, long lines,
+                                               long readNanos, long sortNanos, long writeNanos) {
+                        if (type == SliceType.BODY) {
+                            synchronized (maxLines) {
+                                maxLines.set(Math.max(maxLines.get(), lines));
+                            }
+                        }
+                    }
+                });
+                assertSorted(config);
+                Assert.assertEquals(20, maxLines.get());
+            }
+        }
+    }
+
+    @Test
+    public void testSortWithCombiner() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        assertCombined(config);
+
+        config = new ExternalSortConfig();
+        config.setMaxMergeFanIn(3);
+        config.setMergeParallelism(4);
+        assertCombined(config);
+
+        config = new ExternalSortConfig();
+        config.setByteMode(true);
+        config.setUnique(true);
+        config.setMergeParallelism(4);
+        assertCombined(config);
+
+        config = new ExternalSortConfig();
+        config.setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        config.setRunFormat(RunFormat.BINARY);
+        assertCombined(config);
+    }
+
+    @Test
+    public void testSortStream() {
+        assertSorted(new ExternalSortConfig(), true);
+
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setByteMode(true);
+        config.setMemoryBudget(256 * 1024);
+        assertSorted(config, true);
+    }
+
+    @Test
+    public void testSortStreamBoundsSlicesInMemory() {
+        // a slow executor, whose queue would hold the whole stream if slices were not bounded
+        final AtomicInteger maxQueued = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                super.execute(command);
+                maxQueued.set(Math.max(maxQueued.get(), getQueue().size()));
+            }
+
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            ExternalSortConfig config = new ExternalSortConfig();
+            config.setExecutor(executor);
+            config.setParallelism(2);
+            assertSorted(config, true);
+            Assert.assertTrue(maxQueued.get() <= config.getParallelism() + 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSortStreamWithBlankLines() {
+        try {
+            FileUtils.writeStringToFile(sourceFile,
+                "\n\r\nh1\nh2\n\nb3\nb1\n\nb2\nt1\n\nt2\n\r\n\n", "UTF-8");
+            ExternalSortConfig config = new ExternalSortConfig();
+            config.setHeaderLines(2);
+            config.setIgnoreHeaderBlankLines(true);
+            config.setTailLines(3);
+            config.setIgnoreTailBlankLines(true);
+            config.setSliceSize(4);
+
+            List<String> expected = FileUtils.readLines(ExternalSort.sort(sourceFile, dstDir,
+                config), "UTF-8");
+            FileUtils.deleteQuietly(dstDir);
+
+            FileInputStream in = new FileInputStream(sourceFile);
+            try {
+                File dstFile = ExternalSort.sort(in.getChannel(), sourceFile.getName(), dstDir,
+                    config);
+                Assert.assertEquals(expected, FileUtils.readLines(dstFile, "UTF-8"));
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSortedLines() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        assertSortedLines(config);
+
+        config = new ExternalSortConfig();
+        config.setByteMode(true);
+        config.setMaxMergeFanIn(3);
+        config.setReadAheadMemory(64 * 1024);
+        assertSortedLines(config);
+
+        config = new ExternalSortConfig();
+        config.setLimit(50);
+        config.setUnique(true);
+        assertSortedLines(config);
+
+        config = new ExternalSortConfig();
+        config.setLineCombiner(new LineCombiner() {
+            @Override
+            public String combine(String combined, String line) {
+                return combined;
+            }
+        });
+        assertSortedLines(config);
+    }
+
+    @Test
+    public void testSortedFileLookup() {
+        ExternalSortConfig config = new ExternalSortConfig();
+        config.setOutputIndexInterval(16);
+        config.setMergeParallelism(4);
+        assertLookup(config);
+
+        config = new ExternalSortConfig();
+        config.setOutputIndexInterval(1);
+        config.setByteMode(true);
+        config.setMaxMergeFanIn(3);
+        assertLookup(config);
+
+        config = new ExternalSortConfig();
+        config.setOutputIndexInterval(5000);
+        config.setUnique(true);
+        assertLookup(config);
+    }
+
+    /**
+     * Sort a random file with header and tail and an output index, and check the point and range queries
+     * against a linear scan of the body
+     *
+     * @param config sorting config
+     */
+    private void assertLookup(ExternalSortConfig config) {
+        Random rand = new Random();
+        try {
+            writeRandomSource(1000, 300);
+
+            config.setHeaderLines(3);
+            config.setTailLines(2);
+            config.setSliceSize(512);
+            File dstFile = ExternalSort.sort(sourceFile, dstDir, config);
+            List<String> dstLines = FileUtils.readLines(dstFile, "UTF-8");
+            List<String> bodyLines = dstLines.subList(3, dstLines.size() - 2);
+
+            SortedFileLookup lookup = new SortedFileLookup(dstFile, config);
+            try {
+                for (int i = 0; i < 100; i++) {
+                    String key = String.valueOf(rand.nextInt(310));
+                    String toKey = String.valueOf(rand.nextInt(310));
+                    List<String> expected = new ArrayList<String>();
+                    List<String> expectedRange = new ArrayList<String>();
+                    for (String line : bodyLines) {
+                        if (line.equals(key)) {
+                            expected.add(line);
+                        }
+                        if (line.compareTo(key) >= 0 && line.compareTo(toKey) < 0) {
+                            expectedRange.add(line);
+                        }
+                    }
+                    Assert.assertEquals(expected, lookup.get(key));
+                    Assert.assertEquals(expectedRange, lookup.range(key, toKey));
+                }
+                Assert.assertEquals(bodyLines, lookup.range("", "\uffff"));
+            } finally {
+                lookup.close();
+            }
+
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Sort a random file with header and tail, and check that the lazily iterated lines are the same as the output file
+     * and that the sorted files are deleted when the iterator is closed
+     *
+     * @param config sorting config
+     */
+    private void assertSortedLines(ExternalSortConfig config) {
+        try {
+            writeRandomSource(1000, 300);
+
+            config.setHeaderLines(3);
+            config.setTailLines(2);
+            config.setSliceSize(512);
+
+            List<String> expected = FileUtils.readLines(ExternalSort.sort(sourceFile, dstDir,
+                config), "UTF-8");
+            FileUtils.deleteQuietly(dstDir);
+
+            SortedLineIterator iterator = ExternalSort.sortedLines(sourceFile, dstDir, config);
+            try {
+                List<String> actual = new ArrayList<String>();
+                while (iterator.hasNext()) {
+                    actual.add(iterator.next());
+                }
+                Assert.assertEquals(expected, actual);
+            } finally {
+                iterator.close();
+            }
+            Assert.assertEquals(0, dstDir.listFiles().length);
+
+            // abandoned halfway, the stream still cleans up when closed
+            Stream<String> stream = ExternalSort.sortedLines(sourceFile, dstDir, config).stream();
+            try {
+                Assert.assertEquals(expected.subList(0, 10), stream.limit(10).collect(
+                    Collectors.<String> toList()));
+            } finally {
+                stream.close();
+            }
+            Assert.assertEquals(0, dstDir.listFiles().length);
+
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Count the words of a random file by sorting with a line combiner, and check the result
+     *
+     * @param config sorting config
+     */
+    private void assertCombined(ExternalSortConfig config) {
+        Random rand = new Random();
+        try {
+            // lines are "word\tcount", sorted and combined by word
+            Map<String, Integer> counts = new TreeMap<String, Integer>();
+            List<String> lines = new ArrayList<String>();
+            for (int i = 0; i < 3000; i++) {
+                String word = "w" + rand.nextInt(50);
+                int count = rand.nextInt(3) + 1;
+                lines.add(word + "\t" + count);
+                Integer total = counts.get(word);
+                counts.put(word, total == null ? count : total + count);
+            }
+            FileUtils.writeLines(sourceFile, "UTF-8", lines);
+
+            config.setSliceSize(512);
+            config.setLineComparator(new Comparator<String>() {
+                @Override
+                public int compare(String s1, String s2) {
+                    return s1.substring(0, s1.indexOf('\t')).compareTo(
+                        s2.substring(0, s2.indexOf('\t')));
+                }
+            });
+            config.setLineCombiner(new LineCombiner() {
+                @Override
+                public String combine(String combined, String line) {
+                    int tab = combined.indexOf('\t');
+                    int count = Integer.parseInt(combined.substring(tab + 1))
+                                + Integer.parseInt(line.substring(line.indexOf('\t') + 1));
+                    return combined.substring(0, tab + 1) + count;
+                }
+            });
+
+            List<String> expected = new ArrayList<String>();
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                expected.add(entry.getKey() + "\t" + entry.getValue());
+            }
+            File dstFile = ExternalSort.sort(sourceFile, dstDir, config);
+            Assert.assertEquals(expected, FileUtils.readLines(dstFile, "UTF-8"));
+
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Sort many small files and a large file, each with header and tail, as one dataset using the given config,
+     * and check the result
+     *
+     * @param config sorting config
+     */
+    private void assertSortedFiles(ExternalSortConfig config) {
+        Random rand = new Random();
+        File srcDir = new File("./src-files");
+        FileUtils.deleteQuietly(srcDir);
+        FileUtils.deleteQuietly(dstDir);
+        try {
+            List<String> headerLines = null;
+            List<String> bodyLines = new ArrayList<String>();
+            List<String> tailLines = null;
+            int fileCount = 50;
+            for (int i = 0; i < fileCount; i++) {
+                List<String> header = new ArrayList<String>();
+                header.add("header" + i);
+                header.add("header" + i);
+                List<String> body = new ArrayList<String>();
+                int bodySize = i == fileCount / 2 ? 2000 : rand.nextInt(10);
+                for (int j = 0; j < bodySize; j++) {
+                    body.add(String.valueOf(rand.nextInt(100000)));
+                }
+                List<String> tail = Collections.singletonList("tail" + i);
+
+                List<String> lines = new ArrayList<String>();
+                lines.addAll(header);
+                lines.addAll(body);
+                lines.addAll(tail);
+                String content = String.join("\n", lines);
+                // some files end without a line separator
+                FileUtils.writeStringToFile(new File(srcDir, String.format("part-%02d.txt", i)),
+                    i % 3 == 0 ? content : content + "\n", "UTF-8");
+                FileUtils.writeStringToFile(new File(srcDir, "skipped-" + i + ".log"), "x",
+                    "UTF-8");
+
+                headerLines = headerLines == null ? header : headerLines;
+                bodyLines.addAll(body);
+                tailLines = tail;
+            }
+
+            List<File> sourceFiles = IOUtil.listFiles(srcDir, "part-*.txt");
+            Assert.assertEquals(fileCount, sourceFiles.size());
+
+            config.setEncoding("UTF-8");
+            config.setHeaderLines(2);
+            config.setTailLines(1);
+            config.setSliceSize(1024);
+
+            // small files are batched, instead of one sorted file per file
+            PartitionResult result = ExternalSort.partition(sourceFiles, "all.txt", dstDir,
+                config);
+            Assert.assertTrue(result.getBodies().size() < fileCount);
+            File dstFile = new File(dstDir, "all.txt");
+            ExternalSort.merge(dstFile, result, config);
+
+            List<String> expected = new ArrayList<String>();
+            expected.addAll(headerLines);
+            Collections.sort(bodyLines, config.getLineComparator());
+            expected.addAll(bodyLines);
+            expected.addAll(tailLines);
+            Assert.assertEquals(expected, FileUtils.readLines(dstFile, "UTF-8"));
+
+            FileUtils.deleteQuietly(dstDir);
+            dstFile = ExternalSort.sort(sourceFiles, "all.txt", dstDir, config);
+            Assert.assertEquals(expected, FileUtils.readLines(dstFile, "UTF-8"));
+
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            FileUtils.deleteQuietly(srcDir);
+        }
+    }
+
+    /**
+     * Sort a random file with header and tail using the given config, and check the result
+     *
+     * @param config sorting config
+     */
+    private void assertSorted(ExternalSortConfig config) {
+        assertSorted(config, false);
+    }
+
+    /**
+     * Sort a random file with header and tail using the given config, and check the result
+     *
+     * @param config sorting config
+     * @param stream whether the file is sorted as a stream
+     */
+    private void assertSorted(ExternalSortConfig config, boolean stream) {
         Random rand = new Random();
 
         int headerSize = 10;
@@ -49,8 +888,10 @@ public class ExternalSortTest {
             for (int i = 0; i < headerSize; i++) {
                 headerLines.add(String.valueOf(rand.nextInt(100000)));
             }
+            // many duplicates in unique mode
+            int bodyRange = config.getUnique() ? 100 : 100000;
             for (int i = 0; i < bodySize; i++) {
-                bodyLines.add(String.valueOf(rand.nextInt(100000)));
+                bodyLines.add(String.valueOf(rand.nextInt(bodyRange)));
             }
             for (int i = 0; i < tailSize; i++) {
                 tailLines.add(String.valueOf(rand.nextInt(100000)));
@@ -62,7 +903,6 @@ public class ExternalSortTest {
             lines.addAll(tailLines);
             FileUtils.writeLines(sourceFile, "UTF-8", lines);
 
-            ExternalSortConfig config = new ExternalSortConfig();
             config.setEncoding("UTF-8");
             config.setHeaderLines(10);
             config.setIgnoreHeaderBlankLines(false);
@@ -70,12 +910,28 @@ public class ExternalSortTest {
             config.setIgnoreTailBlankLines(false);
             config.setSliceSize(512);
 
-            File dstFile = ExternalSort.sort(sourceFile, dstDir, config);
+            File dstFile;
+            if (stream) {
+                FileInputStream in = new FileInputStream(sourceFile);
+                try {
+                    dstFile = ExternalSort.sort(in, sourceFile.getName(), dstDir, config);
+                } finally {
+                    in.close();
+                }
+            } else {
+                dstFile = ExternalSort.sort(sourceFile, dstDir, config);
+            }
             List<String> dstLines = FileUtils.readLines(dstFile);
             List<String> headLines2 = dstLines.subList(0, config.getHeaderLines());
             Assert.assertEquals(headerLines, headLines2);
 
             Collections.sort(bodyLines, config.getLineComparator());
+            if (config.getUnique()) {
+                bodyLines = new ArrayList<String>(new LinkedHashSet<String>(bodyLines));
+            }
+            if (config.getLimit() > 0 && config.getLimit() < bodyLines.size()) {
+                bodyLines = bodyLines.subList(0, (int) config.getLimit());
+            }
             List<String> bodyLines2 = dstLines.subList(config.getHeaderLines(),
                 dstLines.size() - config.getTailLines());
             Assert.assertEquals(bodyLines, bodyLines2);
@@ -89,4 +945,22 @@ public class ExternalSortTest {
         }
 
     }
+
+    /**
+     * Write a source file of random numbers, one per line
+     *
+     * @param lineCount number of lines
+     * @param bound upper bound (exclusive) of the numbers
+     * @return lines of the source file
+     * @throws IOException If an I/O error occurs
+     */
+    private List<String> writeRandomSource(int lineCount, int bound) throws IOException {
+        Random rand = new Random();
+        List<String> lines = new ArrayList<String>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(String.valueOf(rand.nextInt(bound)));
+        }
+        FileUtils.writeLines(sourceFile, "UTF-8", lines);
+        return lines;
+    }
 }
@@ -0,0 +1,175 @@
+package com.htyleo.extsort;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.htyleo.extsort.common.JoinType;
+import com.htyleo.extsort.common.LineJoiner;
+import com.htyleo.extsort.common.SetOperation;
+
+/**
+ * SortedFileOperations test
+ *
+ * @author htyleo
+ */
+public class SortedFileOperationsTest {
+
+    private static final Comparator<String> KEY_COMPARATOR = new Comparator<String>() {
+                                                               @Override
+                                                               public int compare(String s1,
+                                                                                  String s2) {
+                                                                   return key(s1).compareTo(
+                                                                       key(s2));
+                                                               }
+                                                           };
+
+    private static final LineJoiner         JOINER         = new LineJoiner() {
+                                                               @Override
+                                                               public String join(String left,
+                                                                                  String right) {
+                                                                   return left + "|" + right;
+                                                               }
+                                                           };
+
+    private File                            dir            = new File("./ops");
+
+    @Before
+    public void before() {
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testJoin() {
+        Random rand = new Random();
+        try {
+            List<String> leftLines = randomLines(rand, "l", 500, 100);
+            List<String> rightLines = randomLines(rand, "r", 300, 100);
+            File left = writeSorted("left.txt", leftLines);
+            File right = writeSorted("right.txt", rightLines);
+
+            ExternalSortConfig config = new ExternalSortConfig();
+            config.setLineComparator(KEY_COMPARATOR);
+            config.setReadAheadMemory(64 * 1024);
+            for (JoinType type : JoinType.values()) {
+                File dstFile = new File(dir, type + ".txt");
+                long count = SortedFileOperations.join(left, right, dstFile, type, JOINER, config);
+
+                List<String> expected = expectedJoin(leftLines, rightLines, type);
+                List<String> actual = FileUtils.readLines(dstFile, "UTF-8");
+                Assert.assertEquals(expected.size(), count);
+                Collections.sort(expected);
+                Collections.sort(actual);
+                Assert.assertEquals(type.toString(), expected, actual);
+            }
+
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSetOperation() {
+        try {
+            File a = writeSorted("a.txt", Arrays.asList("1", "2", "2", "3", "5", "8"));
+            File b = writeSorted("b.txt", Arrays.asList("2", "3", "3", "4", "8"));
+            File c = writeSorted("c.txt", Arrays.asList("0", "2", "5", "8", "9"));
+            List<File> files = Arrays.asList(a, b, c);
+            File dstFile = new File(dir, "dst.txt");
+
+            ExternalSortConfig config = new ExternalSortConfig();
+            SortedFileOperations.setOperation(files, dstFile, SetOperation.UNION, config);
+            Assert.assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "8", "9"),
+                FileUtils.readLines(dstFile, "UTF-8"));
+
+            SortedFileOperations.setOperation(files, dstFile, SetOperation.INTERSECTION, config);
+            Assert.assertEquals(Arrays.asList("2", "8"), FileUtils.readLines(dstFile, "UTF-8"));
+
+            config.setByteMode(true);
+            SortedFileOperations.setOperation(files, dstFile, SetOperation.DIFFERENCE, config);
+            Assert.assertEquals(Arrays.asList("1"), FileUtils.readLines(dstFile, "UTF-8"));
+
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnsortedFile() {
+        try {
+            File a = new File(dir, "a.txt");
+            FileUtils.writeLines(a, "UTF-8", Arrays.asList("1", "3", "2"));
+            SortedFileOperations.setOperation(Arrays.asList(a), new File(dir, "dst.txt"),
+                SetOperation.UNION, new ExternalSortConfig());
+            Assert.fail("unsorted file should be rejected");
+        } catch (Exception e) {
+            Assert.assertTrue(e.getMessage().contains("not sorted"));
+        }
+    }
+
+    private static String key(String line) {
+        return line.substring(0, line.indexOf('\t'));
+    }
+
+    private List<String> randomLines(Random rand, String prefix, int count, int keys) {
+        List<String> lines = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add("k" + rand.nextInt(keys) + "\t" + prefix + i);
+        }
+        return lines;
+    }
+
+    private File writeSorted(String name, List<String> lines) throws Exception {
+        List<String> sorted = new ArrayList<String>(lines);
+        Collections.sort(sorted, lines.get(0).indexOf('\t') < 0 ? null : KEY_COMPARATOR);
+        File file = new File(dir, name);
+        FileUtils.writeLines(file, "UTF-8", sorted);
+        return file;
+    }
+
+    private List<String> expectedJoin(List<String> leftLines, List<String> rightLines,
+                                      JoinType type) {
+        List<String> expected = new ArrayList<String>();
+        for (String l : leftLines) {
+            boolean matched = false;
+            for (String r : rightLines) {
+                if (key(l).equals(key(r))) {
+                    expected.add(JOINER.join(l, r));
+                    matched = true;
+                }
+            }
+            if (!matched && type != JoinType.INNER) {
+                expected.add(JOINER.join(l, null));
+            }
+        }
+        if (type == JoinType.FULL) {
+            for (String r : rightLines) {
+                boolean matched = false;
+                for (String l : leftLines) {
+                    matched |= key(l).equals(key(r));
+                }
+                if (!matched) {
+                    expected.add(JOINER.join(null, r));
+                }
+            }
+        }
+        return expected;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.htyleo.extsort.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * BinaryRunWriter, BinaryRunReader and BinaryRunIndex test
+ *
+ * @author htyleo
+ */
+public class BinaryRunTest {
+
+    @Test
+    public void testReadWrite() {
+        Random rand = new Random(0);
+        File file = new File("test_binary_run.bin");
+        try {
+            // short lines, empty lines and lines longer than a block
+            List<String> lines = new ArrayList<String>();
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder line = new StringBuilder();
+                int length = rand.nextInt(10) == 0 ? rand.nextInt(300) : rand.nextInt(20);
+                for (int j = 0; j < length; j++) {
+                    line.append((char) ('a' + rand.nextInt(26)));
+                }
+                lines.add(line.toString());
+            }
+
+            BinaryRunWriter writer = new BinaryRunWriter(new FileOutputStream(file), 128, "UTF-8",
+                1024);
+            try {
+                for (String line : lines) {
+                    writer.writeLine(line);
+                }
+            } finally {
+                writer.close();
+            }
+
+            // read the whole file
+            BinaryRunReader reader = new BinaryRunReader(FileUtils.openInputStream(file), 16);
+            try {
+                for (String line : lines) {
+                    ByteLine record = reader.readLine();
+                    Assert.assertNotNull(record);
+                    Assert.assertEquals(line, new String(record.getBuffer(), record.getOffset(),
+                        record.getLength(), "UTF-8"));
+                }
+                Assert.assertNull(reader.readLine());
+            } finally {
+                reader.close();
+            }
+
+            // read from every indexed block to the end of records
+            BinaryRunIndex index = BinaryRunIndex.read(file);
+            Assert.assertEquals(128, index.getBlockSize());
+            Assert.assertTrue(index.size() > 1);
+            for (int i = 0; i < index.size(); i++) {
+                String key = new String(index.getKey(i), "UTF-8");
+                reader = new BinaryRunReader(new RandomAccessFileInputStream(file,
+                    index.getOffset(i), index.getDataEnd()), index.getOffset(i), 128, 16);
+                try {
+                    int count = 0;
+                    for (ByteLine record; (record = reader.readLine()) != null;) {
+                        if (count == 0) {
+                            Assert.assertEquals(key, new String(record.getBuffer(),
+                                record.getOffset(), record.getLength(), "UTF-8"));
+                            Assert.assertEquals(index.getOffset(i), reader.getRecordOffset());
+                        }
+                        count++;
+                    }
+                    Assert.assertEquals(lines.get(lines.size() - count), key);
+                } finally {
+                    reader.close();
+                }
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.htyleo.extsort.common;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * ByteLineReader and ByteLineList test
+ *
+ * @author htyleo
+ */
+public class ByteLineReaderTest {
+
+    private static final String[] CONTENTS = { "", "\n", "ABC", "ABC\nHIJ", "ABC\rHIJ\r",
+            "ABC\r\nHIJ\r\n", "\r\n\r\n", "ABC\n\rHIJ\r\rXYZ", "中文\r\nABC" };
+
+    @Test
+    public void testReadLine() {
+        try {
+            for (String content : CONTENTS) {
+                // a tiny buffer makes lines and "\r\n" cross the buffer boundary
+                for (int bufferSize = 1; bufferSize <= 4; bufferSize++) {
+                    ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(
+                        content.getBytes("UTF-8")), bufferSize);
+                    List<String> lines = new ArrayList<String>();
+                    for (ByteLine line; (line = reader.readLine()) != null;) {
+                        lines.add(decode(line));
+                    }
+                    Assert.assertEquals(content, readLines(content), lines);
+                }
+            }
+
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testByteLineList() {
+        try {
+            for (String content : CONTENTS) {
+                byte[] bytes = content.getBytes("UTF-8");
+                ByteLineList list = new ByteLineList(bytes, bytes.length);
+                List<String> lines = new ArrayList<String>();
+                ByteLine line = new ByteLine();
+                for (int i = 0; i < list.size(); i++) {
+                    lines.add(decode(list.get(i, line)));
+                }
+                Assert.assertEquals(content, readLines(content), lines);
+            }
+
+            byte[] bytes = "b\na\né\nab\nA\n\n".getBytes("UTF-8");
+            ByteLineList list = new ByteLineList(bytes, bytes.length);
+            list.sort();
+            List<String> lines = new ArrayList<String>();
+            ByteLine line = new ByteLine();
+            for (int i = 0; i < list.size(); i++) {
+                lines.add(decode(list.get(i, line)));
+            }
+            List<String> expected = new ArrayList<String>();
+            for (String s : new String[] { "", "A", "a", "ab", "b", "é" }) {
+                expected.add(s);
+            }
+            Assert.assertEquals(expected, lines);
+
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    private static String decode(ByteLine line) throws IOException {
+        return new String(line.getBuffer(), line.getOffset(), line.getLength(), "UTF-8");
+    }
+
+    private static List<String> readLines(String content) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(content));
+        List<String> lines = new ArrayList<String>();
+        for (String line; (line = reader.readLine()) != null;) {
+            lines.add(line);
+        }
+        return lines;
+    }
+}
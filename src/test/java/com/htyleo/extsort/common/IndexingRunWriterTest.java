@@ -0,0 +1,61 @@
+package com.htyleo.extsort.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * IndexingRunWriter test
+ *
+ * @author htyleo
+ */
+public class IndexingRunWriterTest {
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    @Test
+    public void testIndexWithoutFlushing() {
+        try {
+            // counts the writes which reach the underlying stream
+            final int[] writes = new int[1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    writes[0]++;
+                    super.write(b, off, len);
+                }
+            };
+
+            LineWriter lineWriter = new LineWriter(out, "UTF-8", 64 * 1024);
+            lineWriter.writeLine("header");
+            IndexingRunWriter writer = new IndexingRunWriter(lineWriter, 1, "UTF-8");
+            String[] lines = { "a", "\u00e9t\u00e9", "\u4e2d\u6587", "b", "" };
+            for (int i = 0; i < 100; i++) {
+                for (String line : lines) {
+                    writer.writeLine(line);
+                }
+                writer.writeLine(("z" + i).getBytes("UTF-8"), 0, 2);
+            }
+            SortedFileIndex index = writer.getIndex();
+            Assert.assertEquals(0, writes[0]);
+            writer.close();
+
+            byte[] bytes = out.toByteArray();
+            Assert.assertEquals(("header" + LINE_SEPARATOR).getBytes("UTF-8").length,
+                index.getBodyBegin());
+            Assert.assertEquals(bytes.length, index.getBodyEnd());
+            Assert.assertEquals(600, index.size());
+            for (int i = 0; i < index.size(); i++) {
+                byte[] key = index.getKey(i);
+                int offset = (int) index.getOffset(i);
+                Assert.assertEquals(new String(key, "UTF-8"), new String(bytes, offset,
+                    key.length, "UTF-8"));
+            }
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.htyleo.extsort.common;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * MemoryBudget test
+ *
+ * @author htyleo
+ */
+public class MemoryBudgetTest {
+
+    @Test
+    public void testReserveBlocksUntilReleased() {
+        try {
+            final MemoryBudget budget = new MemoryBudget(10 * 1024);
+            long first = budget.reserve(8 * 1024);
+            Assert.assertEquals(8 * 1024, first);
+
+            final CountDownLatch reserved = new CountDownLatch(1);
+            final AtomicLong second = new AtomicLong();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        second.set(budget.reserve(4 * 1024));
+                        reserved.countDown();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            thread.start();
+
+            // only 2 KB is left, so the second reservation waits
+            Assert.assertFalse(reserved.await(200, TimeUnit.MILLISECONDS));
+            budget.release(first);
+            Assert.assertTrue(reserved.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(4 * 1024, second.get());
+            thread.join();
+        } catch (InterruptedException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReserveMoreThanCapacity() {
+        try {
+            MemoryBudget budget = new MemoryBudget(10 * 1024);
+            long reserved = budget.reserve(1024 * 1024);
+            Assert.assertEquals(budget.getCapacity(), reserved);
+            budget.release(reserved);
+            Assert.assertEquals(budget.getCapacity(), budget.reserve(budget.getCapacity()));
+        } catch (InterruptedException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testByteLineOverhead() {
+        // each short line costs its long[] entry, the slack of growing the array and the radix sort copy
+        long sliceBytes = 1024 * 1024;
+        long memory = sliceBytes + 24 * (sliceBytes / 4);
+        Assert.assertTrue(MemoryBudget.estimateSliceMemory(sliceBytes, 4, true, 0) >= memory);
+        Assert.assertTrue(MemoryBudget.maxSliceSize(memory, 4, true, 0) <= sliceBytes);
+    }
+
+    @Test
+    public void testMaxSliceSize() {
+        int bufferSize = 8 * 1024;
+        for (boolean byteMode : new boolean[] { false, true }) {
+            for (double averageLineLength : new double[] { 1, 10, 100 }) {
+                long memory = 16 * 1024 * 1024;
+                long sliceSize = MemoryBudget.maxSliceSize(memory, averageLineLength, byteMode,
+                    bufferSize);
+                Assert.assertTrue(sliceSize > 0);
+                Assert.assertTrue(MemoryBudget.estimateSliceMemory(sliceSize, averageLineLength,
+                    byteMode, bufferSize) <= memory + averageLineLength * 64);
+                Assert.assertTrue(MemoryBudget.estimateSliceMemory(sliceSize * 2,
+                    averageLineLength, byteMode, bufferSize) > memory);
+            }
+        }
+        Assert.assertTrue(MemoryBudget.maxSliceSize(1024, 10, false, bufferSize) <= 0);
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.htyleo.extsort.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.htyleo.extsort.ExternalSortConfig;
+
+/**
+ * PrefixedLineList test
+ *
+ * @author htyleo
+ */
+public class PrefixedLineListTest {
+
+    @Test
+    public void testSort() {
+        Random rand = new Random(0);
+        try {
+            // short lines, lines sharing long prefixes, and chars whose high bit is set
+            char[] alphabet = new char[] { '\u0000', 'a', 'b', 'z', '\u00e9', '\u4e2d', '\uffff' };
+            List<String> lines = new ArrayList<String>();
+            for (int i = 0; i < 5000; i++) {
+                StringBuilder line = new StringBuilder();
+                int length = rand.nextInt(8);
+                for (int j = 0; j < length; j++) {
+                    line.append(alphabet[rand.nextInt(alphabet.length)]);
+                }
+                lines.add(line.toString());
+            }
+
+            PrefixedLineList prefixedLines = new PrefixedLineList(lines,
+                new NaturalOrderKeyPrefixer(), ExternalSortConfig.NATURAL_ORDER_COMPARATOR);
+            prefixedLines.sort();
+
+            List<String> expected = new ArrayList<String>(lines);
+            Collections.sort(expected);
+            Assert.assertEquals(expected.size(), prefixedLines.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(expected.get(i), prefixedLines.get(i));
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.htyleo.extsort.common;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * StringRadixSort and ByteLineList test
+ *
+ * @author htyleo
+ */
+public class RadixSortTest {
+
+    @Test
+    public void testStringRadixSort() {
+        List<String> lines = randomLines();
+        List<String> expected = new ArrayList<String>(lines);
+        Collections.sort(expected);
+
+        StringRadixSort.sort(lines);
+        Assert.assertEquals(expected, lines);
+    }
+
+    @Test
+    public void testByteLineListSort() {
+        try {
+            List<String> lines = randomLines();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (String line : lines) {
+                bytes.write(line.getBytes("UTF-8"));
+                bytes.write('\n');
+            }
+            byte[] buffer = bytes.toByteArray();
+
+            ByteLineList list = new ByteLineList(buffer, buffer.length);
+            list.sort();
+
+            // byte order of UTF-8 is code point order, which equals the natural order without surrogates
+            List<String> expected = new ArrayList<String>(lines);
+            Collections.sort(expected, new ByteOrderComparator("UTF-8"));
+            ByteLine line = new ByteLine();
+            Assert.assertEquals(expected.size(), list.size());
+            for (int i = 0; i < list.size(); i++) {
+                list.get(i, line);
+                Assert.assertEquals(expected.get(i), new String(line.getBuffer(), line.getOffset(),
+                    line.getLength(), "UTF-8"));
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Generate lines with fixed prefixes, duplicates, empty lines, non-ASCII chars and long common prefixes
+     *
+     * @return lines
+     */
+    private List<String> randomLines() {
+        Random rand = new Random(0);
+        char[] alphabet = new char[] { 'a', 'b', 'z', '0', '\u00e9', '\u4e2d', '\uffee' };
+        StringBuilder longPrefix = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            longPrefix.append('x');
+        }
+
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder line = new StringBuilder();
+            switch (rand.nextInt(4)) {
+                case 0:
+                    line.append("2024-01-01 INFO ");
+                    break;
+                case 1:
+                    line.append(longPrefix);
+                    break;
+                default:
+                    break;
+            }
+            int length = rand.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                line.append(alphabet[rand.nextInt(alphabet.length)]);
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+}
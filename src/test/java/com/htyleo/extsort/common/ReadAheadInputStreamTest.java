@@ -0,0 +1,89 @@
+package com.htyleo.extsort.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * ReadAheadInputStream test
+ *
+ * @author htyleo
+ */
+public class ReadAheadInputStreamTest {
+
+    @Test
+    public void testRead() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Random rand = new Random();
+            for (int size : new int[] { 0, 1, 100, 4096, 4097, 100000 }) {
+                byte[] data = new byte[size];
+                rand.nextBytes(data);
+
+                // mix single byte reads and bulk reads of random sizes
+                InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data),
+                    executor, 4096);
+                byte[] read = new byte[size];
+                int n = 0;
+                while (true) {
+                    if (rand.nextBoolean()) {
+                        int b = in.read();
+                        if (b < 0) {
+                            break;
+                        }
+                        read[n++] = (byte) b;
+                    } else {
+                        int len = in.read(read, n, Math.min(rand.nextInt(10000) + 1, size - n));
+                        if (len < 0) {
+                            break;
+                        }
+                        n += len;
+                        if (n == size && in.read() < 0) {
+                            break;
+                        }
+                    }
+                }
+                in.close();
+
+                Assert.assertEquals(size, n);
+                Assert.assertArrayEquals(data, read);
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadError() {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            InputStream in = new ReadAheadInputStream(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("broken");
+                }
+            }, executor, 4096);
+            try {
+                in.read();
+                Assert.fail("IOException expected");
+            } catch (IOException e) {
+                Assert.assertEquals("broken", e.getMessage());
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.htyleo.extsort.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * RunCodec test
+ *
+ * @author htyleo
+ */
+public class RunCodecTest {
+
+    @Test
+    public void testBlockRunCodec() {
+        assertRoundTrip(new BlockRunCodec());
+    }
+
+    @Test
+    public void testDeflateRunCodec() {
+        assertRoundTrip(new DeflateRunCodec());
+    }
+
+    private void assertRoundTrip(RunCodec codec) {
+        Random rand = new Random(0);
+        try {
+            // empty, incompressible, highly repetitive, and text-like data spanning several blocks
+            byte[] random = new byte[100 * 1024];
+            rand.nextBytes(random);
+            byte[] repetitive = new byte[200 * 1024];
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 300 * 1024) {
+                text.append(rand.nextInt(100000)).append('\n');
+            }
+
+            for (byte[] data : new byte[][] { new byte[0], random, repetitive,
+                    text.toString().getBytes("UTF-8") }) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                OutputStream out = codec.compress(bytes);
+                // write in uneven pieces
+                for (int off = 0; off < data.length;) {
+                    int len = Math.min(data.length - off, 1 + rand.nextInt(10000));
+                    out.write(data, off, len);
+                    off += len;
+                }
+                out.close();
+
+                InputStream in = codec.decompress(new ByteArrayInputStream(bytes.toByteArray()));
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                byte[] buffer = new byte[777];
+                for (int n; (n = in.read(buffer)) != -1;) {
+                    result.write(buffer, 0, n);
+                }
+                in.close();
+
+                Assert.assertArrayEquals(data, result.toByteArray());
+                if (data == repetitive) {
+                    Assert.assertTrue(bytes.size() < data.length / 10);
+                }
+            }
+
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+}
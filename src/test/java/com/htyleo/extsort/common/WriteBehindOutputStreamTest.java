@@ -0,0 +1,117 @@
+package com.htyleo.extsort.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * WriteBehindOutputStream test
+ *
+ * @author htyleo
+ */
+public class WriteBehindOutputStreamTest {
+
+    @Test
+    public void testWrite() {
+        File file = new File("./write-behind.txt");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Random rand = new Random();
+            for (int size : new int[] { 0, 1, 100, 4096, 4097, 100000 }) {
+                byte[] data = new byte[size];
+                rand.nextBytes(data);
+
+                // mix single byte writes, bulk writes of random sizes and flushes
+                OutputStream out = new WriteBehindOutputStream(
+                    new FileOutputStream(file).getChannel(), executor, 4096, 3);
+                for (int n = 0; n < size;) {
+                    if (rand.nextBoolean()) {
+                        out.write(data[n++]);
+                    } else {
+                        int len = Math.min(rand.nextInt(10000) + 1, size - n);
+                        out.write(data, n, len);
+                        n += len;
+                    }
+                    if (rand.nextInt(10) == 0) {
+                        out.flush();
+                    }
+                }
+                out.close();
+
+                Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(file));
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInterruptedFlush() {
+        File file = new File("./write-behind.txt");
+        // holds the write tasks until they are run by the test
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public synchronized void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        try {
+            byte[] data = new byte[4096 * 2];
+            new Random().nextBytes(data);
+            final OutputStream out = new WriteBehindOutputStream(
+                new FileOutputStream(file).getChannel(), executor, 4096, 3);
+            out.write(data);
+
+            // flush waits for the held buffers, until it is interrupted
+            final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        out.flush();
+                    } catch (Throwable t) {
+                        thrown.set(t);
+                    }
+                }
+            });
+            thread.start();
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            thread.interrupt();
+            thread.join();
+            Assert.assertTrue(String.valueOf(thrown.get()),
+                thrown.get() instanceof InterruptedIOException);
+
+            // the stream is still usable once the held buffers are written
+            synchronized (executor) {
+                for (Runnable task : tasks) {
+                    task.run();
+                }
+            }
+            out.close();
+            Assert.assertArrayEquals(data, FileUtils.readFileToByteArray(file));
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            file.delete();
+        }
+    }
+
+}
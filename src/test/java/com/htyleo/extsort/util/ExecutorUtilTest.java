@@ -0,0 +1,68 @@
+package com.htyleo.extsort.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * ExecutorUtil test
+ *
+ * @author htyleo
+ */
+public class ExecutorUtilTest {
+
+    @Test
+    public void testDefaultExecutors() {
+        try {
+            Callable<Boolean> isDaemon = new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return Thread.currentThread().isDaemon();
+                }
+            };
+            Assert.assertTrue(ExecutorUtil.defaultExecutor().submit(isDaemon).get());
+            Assert.assertTrue(ExecutorUtil.defaultIoExecutor().submit(isDaemon).get());
+            Assert.assertSame(ExecutorUtil.defaultExecutor(), ExecutorUtil.defaultExecutor());
+            Assert.assertEquals(Runtime.getRuntime().availableProcessors(),
+                ExecutorUtil.getParallelism(ExecutorUtil.defaultExecutor()));
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testGetParallelism() {
+        // an unbounded queue never grows the pool beyond the core pool size
+        ExecutorService threadPool = new ThreadPoolExecutor(2, 6, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+        ExecutorService noCorePool = new ThreadPoolExecutor(0, 6, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+        ExecutorService boundedPool = new ThreadPoolExecutor(2, 6, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(10));
+        ExecutorService cachedPool = new ThreadPoolExecutor(0, 5, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>());
+        ForkJoinPool forkJoinPool = new ForkJoinPool(3);
+        try {
+            Assert.assertEquals(2, ExecutorUtil.getParallelism(threadPool));
+            Assert.assertEquals(1, ExecutorUtil.getParallelism(noCorePool));
+            Assert.assertEquals(6, ExecutorUtil.getParallelism(boundedPool));
+            Assert.assertEquals(5, ExecutorUtil.getParallelism(cachedPool));
+            Assert.assertEquals(3, ExecutorUtil.getParallelism(forkJoinPool));
+        } finally {
+            threadPool.shutdown();
+            noCorePool.shutdown();
+            boundedPool.shutdown();
+            cachedPool.shutdown();
+            forkJoinPool.shutdown();
+        }
+    }
+
+}
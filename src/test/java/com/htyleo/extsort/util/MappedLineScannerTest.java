@@ -0,0 +1,114 @@
+package com.htyleo.extsort.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * MappedLineScanner test. The scanner should behave exactly the same as IOUtil.
+ *
+ * @author htyleo
+ */
+public class MappedLineScannerTest {
+
+    private static final String[] CONTENTS = { "\n", "A", "\r", "ABC\nHIJ", "ABC\rHIJ",
+            "ABC\r\nHIJ", "ABC\n", "ABC\n\r\nHIJ", "ABC\n\r\n", "\n\n\r\nABC\r\r\n\nHIJ\r\n\r\n" };
+
+    private File                  file     = new File("./test.txt");
+
+    @Before
+    public void before() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteQuietly(file);
+    }
+
+    @Test
+    public void testSameAsIOUtil() {
+        try {
+            for (String content : CONTENTS) {
+                FileUtils.write(file, content);
+                // a tiny chunk size makes the scans cross chunk boundaries
+                for (int chunkSize = 1; chunkSize <= 4; chunkSize++) {
+                    for (int pos = 0; pos <= content.length(); pos++) {
+                        assertSameAsIOUtil(content, pos, chunkSize);
+                    }
+                }
+            }
+
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCloseDropsChunks() {
+        try {
+            FileUtils.write(file, "ABC\nHIJ");
+            MappedLineScanner scanner = new MappedLineScanner(file);
+            Assert.assertEquals("ABC", scanner.readLine("UTF-8"));
+            scanner.close();
+
+            // the chunk mapped before closing is no longer reachable from the scanner
+            scanner.seek(0);
+            try {
+                scanner.readLine("UTF-8");
+                Assert.fail("Read a closed scanner");
+            } catch (IOException e) {
+                // expected
+            }
+
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    private void assertSameAsIOUtil(String content, int pos, int chunkSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedLineScanner scanner = new MappedLineScanner(file, chunkSize);
+        try {
+            String message = String.format("%s at %s", content.replace("\r", "\\r")
+                .replace("\n", "\\n"), pos);
+
+            raf.seek(pos);
+            scanner.seek(pos);
+            Assert.assertEquals(message, IOUtil.skipNextLine(raf), scanner.skipNextLine());
+            Assert.assertEquals(message, raf.getFilePointer(), scanner.getPosition());
+
+            raf.seek(pos);
+            scanner.seek(pos);
+            Assert.assertEquals(message, IOUtil.skipNextBlankLines(raf),
+                scanner.skipNextBlankLines());
+            Assert.assertEquals(message, raf.getFilePointer(), scanner.getPosition());
+
+            raf.seek(pos);
+            scanner.seek(pos);
+            Assert.assertEquals(message, IOUtil.skipPrevLine(raf), scanner.skipPrevLine());
+            Assert.assertEquals(message, raf.getFilePointer(), scanner.getPosition());
+
+            raf.seek(pos);
+            scanner.seek(pos);
+            Assert.assertEquals(message, IOUtil.skipPrevBlankLines(raf),
+                scanner.skipPrevBlankLines());
+            Assert.assertEquals(message, raf.getFilePointer(), scanner.getPosition());
+
+            raf.seek(pos);
+            scanner.seek(pos);
+            Assert.assertEquals(message, raf.readLine(), scanner.readLine("UTF-8"));
+            Assert.assertEquals(message, raf.getFilePointer(), scanner.getPosition());
+
+        } finally {
+            raf.close();
+            scanner.close();
+        }
+    }
+}